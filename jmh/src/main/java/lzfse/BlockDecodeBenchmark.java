@@ -0,0 +1,62 @@
+package lzfse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_SYMBOLS;
+
+/**
+ * The steps of decoding one LZFSE block: building the FSE decoder tables from the header, and
+ * {@link DecodeBase#lzfse_decode_lmd} executing the L,M,D triplets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockDecodeBenchmark {
+    @Param({"text", "logs", "json", "columnar"})
+    String kind;
+
+    private FirstBlock block;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        block = new FirstBlock(Corpus.generate(kind, 1 << 20));
+    }
+
+    //  Literal table only: 1024 states
+    @Benchmark
+    public int[] fse_init_decoder_table() {
+        FSE.fse_init_decoder_table(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS,
+                block.header1.literal_freq, block.bs.literal_decoder);
+        return block.bs.literal_decoder;
+    }
+
+    //  Literal, L, M and D tables, as done for every block
+    @Benchmark
+    public long[] init_tables() {
+        block.init_tables();
+        return block.bs.d_decoder;
+    }
+
+    @Benchmark
+    public int lzfse_decode_lmd() {
+        block.reset_lmd();
+        return DecodeBase.lzfse_decode_lmd(block.s);
+    }
+}
@@ -0,0 +1,73 @@
+package lzfse;
+
+import lzfse.InternalStateObjects.lzfse_encoder_state;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_SYMBOLS;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+
+/**
+ * Encoder paths: {@link EncodeFrontEnd#lzfse_encode_base} (match finding, which also emits the
+ * blocks it fills), and normalizing a literal histogram with {@link FSE#fse_normalize_freq}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockEncodeBenchmark {
+    @Param({"text", "logs", "json", "columnar", "random"})
+    String kind;
+
+    private final lzfse_encoder_state s = new lzfse_encoder_state();
+    private final short[] freq = new short[LZFSE_ENCODE_LITERAL_SYMBOLS];
+    private final int[] occ = new int[LZFSE_ENCODE_LITERAL_SYMBOLS];
+    private byte[] bytes;
+    private ByteBuffer dst;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bytes = Corpus.generate(kind, 1 << 20);
+        dst = LittleEndianByteBuffer.allocate(bytes.length + bytes.length / 16 + 4096);
+        for (int i = 0; i < 1 << 16; i++)
+            occ[Byte.toUnsignedInt(bytes[i])]++;
+    }
+
+    @Benchmark
+    public int lzfse_encode_base() {
+        s.clear();
+        EncodeStateManagement.lzfse_encode_init(s);
+        s.src = LittleEndianByteBuffer.wrap(bytes);
+        s.src_end = bytes.length;
+        s.src_encode_i = 0;
+        dst.clear();
+        s.dst = dst;
+        s.dst_begin = 0;
+        s.dst_end = dst.capacity();
+        if (EncodeFrontEnd.lzfse_encode_base(s) != LZFSE_STATUS_OK)
+            throw new IllegalStateException();
+        return s.dst.position();
+    }
+
+    @Benchmark
+    public short[] fse_normalize_freq() {
+        FSE.fse_normalize_freq(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS, occ, freq);
+        return freq;
+    }
+}
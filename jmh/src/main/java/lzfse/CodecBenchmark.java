@@ -0,0 +1,74 @@
+package lzfse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Encode#lzfse_encode_buffer} and {@link Decode#lzfse_decode_buffer} across input sizes and kinds.
+ * Both allocate their state on every call, as callers of the one-shot API do; MB/s is
+ * {@code size / score}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CodecBenchmark {
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    int size;
+
+    @Param({"repetitive", "logs", "json", "columnar", "text", "random"})
+    String kind;
+
+    private ByteBuffer raw;
+    private ByteBuffer encoded;
+    private ByteBuffer decoded;
+    private ByteBuffer dst;
+    private final LzfseParallelEncoder parallel = new LzfseParallelEncoder();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final byte[] bytes = Corpus.generate(kind, size);
+        raw = LittleEndianByteBuffer.wrap(bytes);
+        dst = LittleEndianByteBuffer.allocate(size + size / 16 + 4096);
+        final long n = Encode.lzfse_encode_buffer(dst, dst.capacity(), raw, size);
+        if (n == 0)
+            throw new IllegalStateException("encode failed");
+        final byte[] encoded_bytes = new byte[(int) n];
+        dst.duplicate().get(encoded_bytes);
+        encoded = LittleEndianByteBuffer.wrap(encoded_bytes);
+        decoded = LittleEndianByteBuffer.allocate(size + 64);
+        if (Decode.lzfse_decode_buffer(decoded, decoded.capacity(), encoded, n) != size)
+            throw new IllegalStateException("decode failed");
+    }
+
+    @Benchmark
+    public long encode() {
+        return Encode.lzfse_encode_buffer(dst, dst.capacity(), raw, size);
+    }
+
+    //  Same, on the common pool: inputs above one segment scale with the number of cores.
+    @Benchmark
+    public long encode_parallel() {
+        return parallel.encode(dst, dst.capacity(), raw, size);
+    }
+
+    @Benchmark
+    public int decode() {
+        return Decode.lzfse_decode_buffer(decoded, decoded.capacity(), encoded, encoded.capacity());
+    }
+}
@@ -0,0 +1,106 @@
+package lzfse;
+
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v1;
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v2;
+import lzfse.InternalStateObjects.lzfse_compressed_block_decoder_state;
+import lzfse.InternalStateObjects.lzfse_decoder_state;
+
+import java.nio.ByteBuffer;
+
+import static lzfse.Internal.LZFSE_ENCODE_D_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_D_SYMBOLS;
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_SYMBOLS;
+import static lzfse.Internal.LZFSE_ENCODE_L_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_L_SYMBOLS;
+import static lzfse.Internal.LZFSE_ENCODE_M_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_M_SYMBOLS;
+import static lzfse.Internal.d_base_value;
+import static lzfse.Internal.d_extra_bits;
+import static lzfse.Internal.l_base_value;
+import static lzfse.Internal.l_extra_bits;
+import static lzfse.Internal.m_base_value;
+import static lzfse.Internal.m_extra_bits;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDV2_BLOCK_MAGIC;
+
+/**
+ * The first LZFSE block of an encoded input, set up step by step as {@link DecodeBase#lzfse_decode}
+ * does, so the benchmarks can run one step of block decoding at a time.
+ */
+final class FirstBlock {
+    final ByteBuffer                           src;
+    final lzfse_compressed_block_header_v1     header1 = new lzfse_compressed_block_header_v1();
+    final lzfse_decoder_state                  s       = new lzfse_decoder_state();
+    final lzfse_compressed_block_decoder_state bs      = s.compressed_lzfse_block_state;
+    //  End of the literal payload = start of the LMD payload
+    final int                                  lmd_begin;
+    private final byte[]                       dst;
+    private long                               lmd_accum;
+    private int                                lmd_accum_nbits, lmd_in_buf;
+
+    FirstBlock(final byte[] bytes) {
+        src = LittleEndianByteBuffer.allocate(bytes.length + bytes.length / 16 + 4096);
+        final long n = Encode.lzfse_encode_buffer(src, src.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        if (n == 0 || src.getInt(0) != LZFSE_COMPRESSEDV2_BLOCK_MAGIC)
+            throw new IllegalStateException("expected a compressed block");
+
+        final lzfse_compressed_block_header_v2 header2 = lzfse_compressed_block_header_v2.fromByteBuffer(src.position(0));
+        if (DecodeBase.lzfse_decode_v1(header1, header2) != 0)
+            throw new IllegalStateException("invalid header");
+        lmd_begin = DecodeBase.lzfse_decode_v2_header_size(header2) + header1.n_literal_payload_bytes;
+        dst = new byte[header1.n_raw_bytes + 64];
+        init_tables();
+        if (decode_literals() != 0)
+            throw new IllegalStateException("invalid literals");
+
+        // Initialize the L,M,D stream, and keep it for reset_lmd
+        final ByteBuffer buf = LittleEndianByteBuffer.duplicate(src.position(lmd_begin), header1.n_lmd_payload_bytes);
+        if (FSE.fse_in_checked_init64(bs.lmd_in_stream, header1.lmd_bits, buf, 0) != 0)
+            throw new IllegalStateException("invalid L,M,D stream");
+        lmd_accum = bs.lmd_in_stream.accum;
+        lmd_accum_nbits = bs.lmd_in_stream.accum_nbits;
+        lmd_in_buf = buf.position() - lmd_begin;
+        reset_lmd();
+        if (DecodeBase.lzfse_decode_lmd(s) != Internal.LZFSE_STATUS_OK || s.dst.position() != header1.n_raw_bytes)
+            throw new IllegalStateException("invalid L,M,D");
+    }
+
+    void init_tables() {
+        FSE.fse_init_decoder_table(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS,
+                header1.literal_freq, bs.literal_decoder);
+        FSE.fse_init_value_decoder_table(LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, header1.l_freq,
+                l_extra_bits, l_base_value, bs.l_decoder);
+        FSE.fse_init_value_decoder_table(LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, header1.m_freq,
+                m_extra_bits, m_base_value, bs.m_decoder);
+        FSE.fse_init_value_decoder_table(LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, header1.d_freq,
+                d_extra_bits, d_base_value, bs.d_decoder);
+    }
+
+    int decode_literals() {
+        // As in lzfse_decode, reads are bounded by the start of the stream: the
+        // refills near the end of the stream load a few bytes before the payload
+        return DecodeBase.lzfse_decode_literals(bs, header1, src.position(lmd_begin), 0);
+    }
+
+    //  Rewind the block state to the first L,M,D, and the output to the start of the block.
+    void reset_lmd() {
+        s.src = src.position(lmd_begin);
+        s.src_begin = 0;
+        s.src_end = lmd_begin + header1.n_lmd_payload_bytes;
+        s.dst = LittleEndianByteBuffer.wrap(dst);
+        s.dst_begin = 0;
+        s.dst_end = dst.length;
+        bs.n_matches = header1.n_matches;
+        bs.n_lmd_payload_bytes = header1.n_lmd_payload_bytes;
+        bs.current_literal = bs.literals;
+        bs.current_literal_pos = 0;
+        bs.l_value = bs.m_value = 0;
+        bs.d_value = -1;
+        bs.l_state = header1.l_state;
+        bs.m_state = header1.m_state;
+        bs.d_state = header1.d_state;
+        bs.lmd_in_stream.accum = lmd_accum;
+        bs.lmd_in_stream.accum_nbits = lmd_accum_nbits;
+        bs.lmd_in_buf = lmd_in_buf;
+    }
+}
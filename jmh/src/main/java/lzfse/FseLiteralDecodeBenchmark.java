@@ -0,0 +1,93 @@
+package lzfse;
+
+import lzfse.FSE.fse_in_stream64;
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v1;
+import lzfse.InternalStateObjects.lzfse_compressed_block_decoder_state;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Literal decoding of one LZFSE block: {@link DecodeBase#lzfse_decode_literals}, which keeps the four FSE
+ * states and the stream accumulator in locals, against the same loop driven through an
+ * {@link fse_in_stream64} object and one-element {@code short[]} states, as the decoder used to.
+ * Scores are per literal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FseLiteralDecodeBenchmark {
+    //  One block's worth of literals; see n_literals below
+    static final int LITERALS = 10_000;
+
+    private FirstBlock block;
+    private lzfse_compressed_block_decoder_state bs;
+    private lzfse_compressed_block_header_v1 header1;
+    private ByteBuffer src;
+    private int src_start;
+    private int src_end;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Text without repeats, so the block is (almost) all literals
+        final Random random = new Random(42);
+        final byte[] bytes = new byte[200_000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) ("etaoin shrdlu".charAt(random.nextInt(13)) + (random.nextInt(16) == 0 ? random.nextInt(64) : 0));
+        block = new FirstBlock(bytes);
+        bs = block.bs;
+        header1 = block.header1;
+        src = block.src;
+        src_start = 0; // start of the stream, see FirstBlock.decode_literals
+        src_end = block.lmd_begin;
+        if (header1.n_literals < LITERALS)
+            throw new IllegalStateException("only " + header1.n_literals + " literals");
+        header1.n_literals = LITERALS; // decode the first LITERALS literals
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LITERALS)
+    public byte locals() {
+        if (DecodeBase.lzfse_decode_literals(bs, header1, src.position(src_end), src_start) != 0)
+            throw new IllegalStateException();
+        return bs.literals[LITERALS - 1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LITERALS)
+    public byte stream_object() {
+        final fse_in_stream64 in = new fse_in_stream64();
+        final ByteBuffer buf = LittleEndianByteBuffer.duplicate(src.position(src_end));
+        if (FSE.fse_in_checked_init64(in, header1.literal_bits, buf, src_start) != 0)
+            throw new IllegalStateException();
+        final short[][] states = {{header1.literal_state[0]}, {header1.literal_state[1]},
+                {header1.literal_state[2]}, {header1.literal_state[3]}};
+        final int[] decoder = bs.literal_decoder;
+        for (int i = 0; i < header1.n_literals; i += 4) {
+            if (FSE.fse_in_checked_flush64(in, buf, src_start) != 0)
+                throw new IllegalStateException();
+            for (int j = 0; j < 4; j++) {
+                final int e = decoder[states[j][0]];
+                states[j][0] = (short) FSE.fse_decode(e, (int) FSE.fse_in_pull64(in, FSE.fse_decoder_entry_k(e)));
+                bs.literals[i + j] = FSE.fse_decoder_entry_symbol(e);
+            }
+        }
+        return bs.literals[LITERALS - 1];
+    }
+}
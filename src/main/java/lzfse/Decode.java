@@ -16,29 +16,69 @@ public class Decode {
         return InternalStateObjects.lzfse_decoder_state.BYTES;
     }
 
-    private static int/*size_t*/ lzfse_decode_buffer_with_scratch(ByteBuffer/*uint8_t*/ dst_buffer,
+    /*! @abstract Decoded size of the LZFSE stream in \p src_size bytes at the position of
+     * \p src_buffer, from its block headers, without decoding it.
+     * @return the decoded size, or -1 if the stream is truncated or has an invalid block. */
+    public static long lzfse_decoded_size(final ByteBuffer/*uint8_t*/ src_buffer, long/*size_t*/ src_size) {
+        final int src_begin = src_buffer.position();
+        return DecodeBlocks.lzfse_decoded_size(src_buffer, src_begin, Math.toIntExact(src_begin + src_size));
+    }
+
+    static int/*size_t*/ lzfse_decode_buffer_with_scratch(ByteBuffer/*uint8_t*/ dst_buffer,
                                                                   long/*size_t*/ dst_size, final ByteBuffer/*uint8_t*/ src_buffer,
                                                                   long/*size_t*/ src_size, lzfse_decoder_state scratch_buffer) {
         lzfse_decoder_state s = (lzfse_decoder_state) scratch_buffer;
-//        memset(s, 0x00, sizeof( * s));
+        s.clear();//memset(s, 0x00, sizeof( * s));
 
         // Initialize state
         s.src = LittleEndianByteBuffer.duplicate(src_buffer);
         s.src_begin = src_buffer.position();
-        s.src_end = Math.toIntExact(src_size);
+        s.src_end = Math.toIntExact(src_buffer.position() + src_size);
         s.dst = LittleEndianByteBuffer.duplicate(dst_buffer);
         s.dst_begin = dst_buffer.position();
-        s.dst_end = Math.toIntExact(dst_size);//TODO check all these Match.toIntExact()
+        s.dst_end = Math.toIntExact(dst_buffer.position() + dst_size);//TODO check all these Match.toIntExact()
 
         // Decode
         int status = lzfse_decode(s);
-        if (status == LZFSE_STATUS_DST_FULL)
-            return Math.toIntExact(dst_size);
+        if (status == LZFSE_STATUS_DST_FULL) {
+            //  Report how much larger DST must be, when the headers tell
+            final long size = lzfse_decoded_size(src_buffer, src_size);
+            return (int) -Math.min(Integer.MAX_VALUE, Math.max(1, size - dst_size));
+        }
         if (status != LZFSE_STATUS_OK)
             return 0;                           // failed
         return /*(size_t)*/ (s.dst.position() - dst_buffer.position()); // bytes written
     }
 
+    /*! @abstract Same as lzfse_decode_buffer_with_scratch, for streams with matches into
+     * the \p history_size bytes before the position of \p dst_buffer, which must hold the
+     * history the stream was encoded with. */
+    static int/*size_t*/ lzfse_decode_buffer_with_history(ByteBuffer/*uint8_t*/ dst_buffer, int history_size,
+                                                          long/*size_t*/ dst_size, final ByteBuffer/*uint8_t*/ src_buffer,
+                                                          long/*size_t*/ src_size, lzfse_decoder_state s) {
+        s.clear();
+        s.src = LittleEndianByteBuffer.duplicate(src_buffer);
+        s.src_begin = src_buffer.position();
+        s.src_end = Math.toIntExact(src_buffer.position() + src_size);
+        s.dst = LittleEndianByteBuffer.duplicate(dst_buffer);
+        s.dst_begin = dst_buffer.position() - history_size;
+        s.dst_end = Math.toIntExact(dst_buffer.position() + dst_size);
+
+        final int status = lzfse_decode(s);
+        if (status == LZFSE_STATUS_DST_FULL) {
+            final long size = lzfse_decoded_size(src_buffer, src_size);
+            return (int) -Math.min(Integer.MAX_VALUE, Math.max(1, size - dst_size));
+        }
+        if (status != LZFSE_STATUS_OK)
+            return 0;                           // failed
+        return s.dst.position() - dst_buffer.position(); // bytes written
+    }
+
+    /*! @abstract Decode the LZFSE stream in \p src_size bytes at the position of \p src_buffer
+     * into \p dst_buffer.
+     * @return the number of bytes written to \p dst_buffer; if \p dst_size is too small,
+     * -N, where N is the number of bytes missing (1 if the stream is truncated further on);
+     * or 0 on error. */
     public static int/*size_t*/ lzfse_decode_buffer(ByteBuffer/*uint8_t*/ dst_buffer, long/*size_t*/ dst_size,
                                                     final ByteBuffer /*uint8_t*/  src_buffer,
                                                     long/*size_t*/ src_size/*, lzfse_decoder_state scratch_buffer*/) {
@@ -3,20 +3,28 @@ package lzfse;
 import lzfse.FSE.fse_in_stream64;
 import lzfse.InternalStateObjects.lzfse_compressed_block_decoder_state;
 import lzfse.InternalStateObjects.lzfse_decoder_state;
+import lzfse.InternalStateObjects.lzfse_decoder_table_cache;
+import lzfse.InternalStateObjects.lzfse_decoder_tables;
 import lzfse.InternalStateObjects.lzvn_compressed_block_decoder_state;
 import lzfse.InternalStateObjects.uncompressed_block_decoder_state;
 import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v1;
 import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v2;
+import lzfse.InternalBlockHeaderObjects.lzvn_compressed_block_header;
 import lzfse.InternalBlockHeaderObjects.uncompressed_block_header;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static lzfse.FSE.fse_decode;
-import static lzfse.FSE.fse_in_checked_flush64;
+import static lzfse.FSE.fse_decoder_entry_k;
+import static lzfse.FSE.fse_decoder_entry_symbol;
 import static lzfse.FSE.fse_in_checked_init64;
 import static lzfse.FSE.fse_init_decoder_table;
 import static lzfse.FSE.fse_init_value_decoder_table;
+import static lzfse.FSE.fse_mask_lsb64;
 import static lzfse.FSE.fse_value_decode;
+import static lzfse.FSE.fse_value_decode_state;
+import static lzfse.FSE.fse_value_decoder_entry_total_bits;
 import static lzfse.Internal.LZFSE_ENCODE_D_STATES;
 import static lzfse.Internal.LZFSE_ENCODE_D_SYMBOLS;
 import static lzfse.Internal.LZFSE_ENCODE_LITERAL_STATES;
@@ -49,29 +57,41 @@ class DecodeBase {
     private DecodeBase() {
     }
 
+    //  Number of bits, and value if at most 5 bits, of a freq table entry, by its
+    //  lower 5 bits. Longer entries are 8 and 14 bits, with a 4 and 10 bit value.
+    private static final byte[] lzfse_freq_nbits_table/*[32]*/ = {
+            2, 3, 2, 5, 2, 3, 2, 8, 2, 3, 2, 5, 2, 3, 2, 14,
+            2, 3, 2, 5, 2, 3, 2, 8, 2, 3, 2, 5, 2, 3, 2, 14};
+    private static final byte[] lzfse_freq_value_table/*[32]*/ = {
+            0, 2, 1, 4, 0, 3, 1, -1, 0, 2, 1, 5, 0, 3, 1, -1,
+            0, 2, 1, 6, 0, 3, 1, -1, 0, 2, 1, 7, 0, 3, 1, -1};
+
     /*! @abstract Decode an entry value from next bits of stream.
      *  Return \p value, and set \p *nbits to the number of bits to consume
      *  (starting with LSB). */
     static int lzfse_decode_v1_freq_value(int/*uint32_t*/ bits, int[] nbits) {
-        final byte lzfse_freq_nbits_table[/*32*/] = {
-                2, 3, 2, 5, 2, 3, 2, 8, 2, 3, 2, 5, 2, 3, 2, 14,
-                2, 3, 2, 5, 2, 3, 2, 8, 2, 3, 2, 5, 2, 3, 2, 14};
-        final byte lzfse_freq_value_table[/*32*/] = {
-                0, 2, 1, 4, 0, 3, 1, -1, 0, 2, 1, 5, 0, 3, 1, -1,
-                0, 2, 1, 6, 0, 3, 1, -1, 0, 2, 1, 7, 0, 3, 1, -1};
-
-        int/*uint32_t*/ b = bits & 31; // lower 5 bits
-        int n = lzfse_freq_nbits_table[b];
+        final int n = lzfse_decode_v1_freq_nbits(bits);
         nbits[0] = n;
+        return lzfse_decode_v1_freq_value(bits, n);
+    }
 
+    /*! @abstract Return the number of bits of the entry value at the start of
+     *  \p bits (starting with LSB). */
+    static int lzfse_decode_v1_freq_nbits(int/*uint32_t*/ bits) {
+        return lzfse_freq_nbits_table[bits & 31]; // lower 5 bits
+    }
+
+    /*! @abstract Return the entry value at the start of \p bits, of
+     *  \p nbits = \c lzfse_decode_v1_freq_nbits(bits) bits. */
+    static int lzfse_decode_v1_freq_value(int/*uint32_t*/ bits, int nbits) {
         // Special cases for > 5 bits encoding
-        if (n == 8)
+        if (nbits == 8)
             return 8 + ((bits >>> 4) & 0xf);
-        if (n == 14)
+        if (nbits == 14)
             return 24 + ((bits >>> 4) & 0x3ff);
 
         // <= 5 bits encoding from table
-        return lzfse_freq_value_table[b];
+        return lzfse_freq_value_table[bits & 31];
     }
 
     /*! @abstract Extracts up to 32 bits from a 64-bit field beginning at
@@ -94,20 +114,33 @@ class DecodeBase {
     }
 
     /*! @abstract Decode all fields from a \c lzfse_compressed_block_header_v2 to a
-     * \c lzfse_compressed_block_header_v1.
+     * \c lzfse_compressed_block_header_v1. For tests and benchmarks only: \p in is
+     * serialized first. The decoder reads headers in place with \c lzfse_decode_v2.
      * @return 0 on success.
      * @return -1 on failure. */
     static int lzfse_decode_v1(lzfse_compressed_block_header_v1 out,
                                final lzfse_compressed_block_header_v2 in) {
-        // Clear all fields
-//        memset(out, 0x00, sizeof(lzfse_compressed_block_header_v1));
+        final int/*uint32_t*/ header_size = lzfse_decode_v2_header_size(in);
+        if (Integer.compareUnsigned(header_size, lzfse_compressed_block_header_v2.BYTES) > 0)
+            return -1; // freq tables larger than their largest encoding
+        return lzfse_decode_v2(out, lzfse_compressed_block_header_v2.toByteBuffer(in), 0, header_size);
+    }
 
-        long/*uint64_t*/ v0 = in.packed_fields[0];
-        long/*uint64_t*/ v1 = in.packed_fields[1];
-        long/*uint64_t*/ v2 = in.packed_fields[2];
+    /*! @abstract Decode all fields of the \c lzfse_compressed_block_header_v2 of
+     * \p header_size bytes at \p p in \p src to a \c lzfse_compressed_block_header_v1,
+     * as \c lzfse_decode_v1. The packed fields and the freq tables are read from
+     * \p src, and \p out is filled in place, without allocating.
+     * @return 0 on success.
+     * @return -1 on failure. */
+    static int lzfse_decode_v2(lzfse_compressed_block_header_v1 out,
+                               final ByteBuffer/*uint8_t*/ src, final int p, final int/*uint32_t*/ header_size) {
+        final int packed_fields = p + lzfse_compressed_block_header_v2.OFFSET_OF_PACKED_FIELDS;
+        long/*uint64_t*/ v0 = src.getLong(packed_fields);
+        long/*uint64_t*/ v1 = src.getLong(packed_fields + Long.BYTES);
+        long/*uint64_t*/ v2 = src.getLong(packed_fields + 2 * Long.BYTES);
 
         out.magic = LZFSE_COMPRESSEDV1_BLOCK_MAGIC;
-        out.n_raw_bytes = in.n_raw_bytes;
+        out.n_raw_bytes = src.getInt(p + Integer.BYTES);
 
         // Literal state
         out.n_literals = get_field(v0, 0, 20);
@@ -130,49 +163,115 @@ class DecodeBase {
         out.n_payload_bytes = out.n_literal_payload_bytes + out.n_lmd_payload_bytes;
 
         // Freq tables
-        short/*uint16_t*/[] dst = new short[out.l_freq.length + out.m_freq.length + out.d_freq.length + out.literal_freq.length];//&(out->l_freq[0]);
-        final ByteBuffer/*uint8_t*/ src = LittleEndianByteBuffer.wrap(in.freq);
-        final int/*uint8_t*/ src_end =/*(const uint8_t *)in*/ get_field(v2, 0, 32) - in.OFFSET_OF_FREQ; // first byte after header
+        int/*uint8_t*/ q = p + lzfse_compressed_block_header_v2.OFFSET_OF_FREQ;
+        final int/*uint8_t*/ src_end = p + header_size; // first byte after header
         int/*uint32_t*/ accum = 0;
         int accum_nbits = 0;
 
         // No freq tables?
-        if (src_end == src.position())
+        if (src_end == q) {
+            Arrays.fill(out.l_freq, (short) 0);
+            Arrays.fill(out.m_freq, (short) 0);
+            Arrays.fill(out.d_freq, (short) 0);
+            Arrays.fill(out.literal_freq, (short) 0);
             return 0; // OK, freq tables were omitted
+        }
 
-        for (int i = 0; i < LZFSE_ENCODE_L_SYMBOLS + LZFSE_ENCODE_M_SYMBOLS +
-                LZFSE_ENCODE_D_SYMBOLS + LZFSE_ENCODE_LITERAL_SYMBOLS;
-             i++) {
-            // Refill accum, one byte at a time, until we reach end of header, or accum
-            // is full
-            while (src.position() < src_end && accum_nbits + 8 <= 32) {
-                accum |= /*(uint32_t)*/(Byte.toUnsignedInt(src.get())) << accum_nbits;
-                accum_nbits += 8;
-//                src++;
-            }
+        // The L, M, D and literal tables, one after the other
+        for (int t = 0; t < 4; t++) {
+            final short/*uint16_t*/[] dst = t == 0 ? out.l_freq : t == 1 ? out.m_freq : t == 2 ? out.d_freq : out.literal_freq;
+            for (int i = 0; i < dst.length; i++) {
+                // Refill accum, one byte at a time, until we reach end of header, or accum
+                // is full
+                while (q < src_end && accum_nbits + 8 <= 32) {
+                    accum |= /*(uint32_t)*/(Byte.toUnsignedInt(src.get(q++))) << accum_nbits;
+                    accum_nbits += 8;
+                }
 
-            // Decode and store value
-            int[] nbits = {0};
-            dst[i] = (short) lzfse_decode_v1_freq_value(accum, nbits);
+                // Decode and store value
+                final int nbits = lzfse_decode_v1_freq_nbits(accum);
+                if (nbits > accum_nbits)
+                    return -1; // failed
+                dst[i] = (short) lzfse_decode_v1_freq_value(accum, nbits);
 
-            if (nbits[0] > accum_nbits) {
-                Util.flushArrays(dst, i + 1, out.l_freq, out.m_freq, out.d_freq, out.literal_freq);
-                return -1; // failed
+                // Consume nbits bits
+                accum >>>= nbits;
+                accum_nbits -= nbits;
             }
-
-            // Consume nbits bits
-            accum >>>= nbits[0];
-            accum_nbits -= nbits[0];
         }
-        Util.flushArrays(dst, dst.length, out.l_freq, out.m_freq, out.d_freq, out.literal_freq);
 
-        if (accum_nbits >= 8 || src.position() != src_end)
+        if (accum_nbits >= 8 || q != src_end)
             return -1; // we need to end up exactly at the end of header, with less than
         // 8 bits in accumulator
 
         return 0;
     }
 
+    /*! @abstract Hash of the freq tables of \p header. */
+    static int lzfse_decode_freq_hash(final lzfse_compressed_block_header_v1 header) {
+        int h = Arrays.hashCode(header.l_freq);
+        h = 31 * h + Arrays.hashCode(header.m_freq);
+        h = 31 * h + Arrays.hashCode(header.d_freq);
+        return 31 * h + Arrays.hashCode(header.literal_freq);
+    }
+
+    /*! @abstract Set the decoder tables of \p bs for the freq tables of \p header.
+     * They are taken from the table cache of \p bs if a previous block had the same
+     * freq tables, else built in its least recently used entry. */
+    static void lzfse_decode_tables(lzfse_compressed_block_decoder_state bs,
+                                    final lzfse_compressed_block_header_v1 header) {
+        final lzfse_decoder_table_cache cache = bs.table_cache;
+        final lzfse_decoder_tables[] entries = cache.entries;
+        final int hash = lzfse_decode_freq_hash(header);
+        int i = 0;
+        while (i < entries.length - 1 && entries[i] != null && !lzfse_decoder_tables_for(entries[i], hash, header))
+            i++;
+        lzfse_decoder_tables e = entries[i];
+        if (e != null && lzfse_decoder_tables_for(e, hash, header)) {
+            cache.n_hits++;
+        } else {
+            // Not found: I is the first unused entry, or the last one
+            cache.n_misses++;
+            if (e == null)
+                e = new lzfse_decoder_tables();
+            e.hash = hash;
+            System.arraycopy(header.l_freq, 0, e.l_freq, 0, LZFSE_ENCODE_L_SYMBOLS);
+            System.arraycopy(header.m_freq, 0, e.m_freq, 0, LZFSE_ENCODE_M_SYMBOLS);
+            System.arraycopy(header.d_freq, 0, e.d_freq, 0, LZFSE_ENCODE_D_SYMBOLS);
+            System.arraycopy(header.literal_freq, 0, e.literal_freq, 0, LZFSE_ENCODE_LITERAL_SYMBOLS);
+            fse_init_decoder_table(LZFSE_ENCODE_LITERAL_STATES,
+                    LZFSE_ENCODE_LITERAL_SYMBOLS,
+                    e.literal_freq, e.literal_decoder);
+            fse_init_value_decoder_table(
+                    LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, e.l_freq,
+                    l_extra_bits, l_base_value, e.l_decoder);
+            fse_init_value_decoder_table(
+                    LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, e.m_freq,
+                    m_extra_bits, m_base_value, e.m_decoder);
+            fse_init_value_decoder_table(
+                    LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, e.d_freq,
+                    d_extra_bits, d_base_value, e.d_decoder);
+        }
+
+        // Most recently used first
+        System.arraycopy(entries, 0, entries, 1, i);
+        entries[0] = e;
+        bs.literal_decoder = e.literal_decoder;
+        bs.l_decoder = e.l_decoder;
+        bs.m_decoder = e.m_decoder;
+        bs.d_decoder = e.d_decoder;
+    }
+
+    //  Whether table cache entry E was built from the freq tables of HEADER, of hash HASH.
+    private static boolean lzfse_decoder_tables_for(final lzfse_decoder_tables e, final int hash,
+                                                    final lzfse_compressed_block_header_v1 header) {
+        return e.hash == hash &&
+                Arrays.equals(e.l_freq, header.l_freq) &&
+                Arrays.equals(e.m_freq, header.m_freq) &&
+                Arrays.equals(e.d_freq, header.d_freq) &&
+                Arrays.equals(e.literal_freq, header.literal_freq);
+    }
+
     static void copy(ByteBuffer/*uint8_t*/ dst, final ByteBuffer /*uint8_t*/ src, int/*size_t*/ length) {
         final ByteBuffer dst1 = LittleEndianByteBuffer.duplicate(dst);
         final ByteBuffer src1 = LittleEndianByteBuffer.duplicate(src);
@@ -184,24 +283,96 @@ class DecodeBase {
         } while (dst1.position() < dst_end);
     }
 
+    /*! @abstract Decode the \c n_literals literals of a compressed block to
+     * \c bs.literals, with four interleaved FSE decoders. The stream is read
+     * backwards from the position of \p src down to \p src_start. As in
+     * \c lzfse_decode_lmd, the states and the stream accumulator are locals.
+     * @return 0 if OK.
+     * @return -1 on failure. */
+    static int lzfse_decode_literals(lzfse_compressed_block_decoder_state bs,
+                                     final lzfse_compressed_block_header_v1 header1,
+                                     final ByteBuffer/*uint8_t*/ src, final int/*uint8_t*/ src_start) {
+        final int[] decoder = bs.literal_decoder;
+        final byte/*uint8_t*/[] literals = bs.literals;
+        final int/*uint32_t*/ n_literals = header1.n_literals;
+
+        //  The LMD stream is initialized after the literals, use its object in the meantime
+        final fse_in_stream64 in = bs.lmd_in_stream;
+        final ByteBuffer /*uint8_t*/ buf = LittleEndianByteBuffer.duplicate(src);
+        if (fse_in_checked_init64(in, header1.literal_bits, buf, src_start) != 0)
+            return -1;
+        long/*uint64_t*/ accum = in.accum;
+        int/*fse_bit_count*/ accum_nbits = in.accum_nbits;
+        int/*uint8_t*/ p = buf.position();
+
+        int/*fse_state*/ state0 = header1.literal_state[0];
+        int/*fse_state*/ state1 = header1.literal_state[1];
+        int/*fse_state*/ state2 = header1.literal_state[2];
+        int/*fse_state*/ state3 = header1.literal_state[3];
+
+        for (int/*uint32_t*/ i = 0; i < n_literals; i += 4) // n_literals is multiple of 4
+        {
+            //  fse_in_checked_flush64: refill the accumulator to 56..63 bits
+            final int/*fse_bit_count*/ nbits = (63 - accum_nbits) & -8;
+            p -= nbits >>> 3;
+            if (p < src_start)
+                return -1; // out of range
+            accum = (accum << nbits) | fse_mask_lsb64(src.getLong(p), nbits);
+            accum_nbits += nbits;
+
+            //  fse_decode, 10b max each
+            int e = decoder[state0];
+            accum_nbits -= fse_decoder_entry_k(e);
+            state0 = fse_decode(e, (int) (accum >>> accum_nbits));
+            accum = fse_mask_lsb64(accum, accum_nbits);
+            literals[i + 0] = fse_decoder_entry_symbol(e);
+
+            e = decoder[state1];
+            accum_nbits -= fse_decoder_entry_k(e);
+            state1 = fse_decode(e, (int) (accum >>> accum_nbits));
+            accum = fse_mask_lsb64(accum, accum_nbits);
+            literals[i + 1] = fse_decoder_entry_symbol(e);
+
+            e = decoder[state2];
+            accum_nbits -= fse_decoder_entry_k(e);
+            state2 = fse_decode(e, (int) (accum >>> accum_nbits));
+            accum = fse_mask_lsb64(accum, accum_nbits);
+            literals[i + 2] = fse_decoder_entry_symbol(e);
+
+            e = decoder[state3];
+            accum_nbits -= fse_decoder_entry_k(e);
+            state3 = fse_decode(e, (int) (accum >>> accum_nbits));
+            accum = fse_mask_lsb64(accum, accum_nbits);
+            literals[i + 3] = fse_decoder_entry_symbol(e);
+        }
+        return 0;
+    }
+
     static int lzfse_decode_lmd(lzfse_decoder_state s) {
         lzfse_compressed_block_decoder_state bs = s.compressed_lzfse_block_state;
-        short/*fse_state*/[] l_state = {bs.l_state};
-        short/*fse_state*/[] m_state = {bs.m_state};
-        short/*fse_state*/[] d_state = {bs.d_state};
-        fse_in_stream64 in = bs.lmd_in_stream;
+        //  The FSE states and the input stream accumulator live in locals, and
+        //  are written back to BS only if we need to resume.
+        int/*fse_state*/ l_state = bs.l_state;
+        int/*fse_state*/ m_state = bs.m_state;
+        int/*fse_state*/ d_state = bs.d_state;
+        long/*uint64_t*/ accum = bs.lmd_in_stream.accum;
+        int/*fse_bit_count*/ accum_nbits = bs.lmd_in_stream.accum_nbits;
+        final long[] l_decoder = bs.l_decoder;
+        final long[] m_decoder = bs.m_decoder;
+        final long[] d_decoder = bs.d_decoder;
         final int/*uint8_t*/ src_start = s.src_begin;
-        final ByteBuffer/*uint8_t*/ src = LittleEndianByteBuffer.duplicate(s.src, bs.lmd_in_buf);
-        final ByteBuffer/*uint8_t*/ lit = LittleEndianByteBuffer.wrap(bs.current_literal);
+        final ByteBuffer/*uint8_t*/ src = s.src;
+        int/*uint8_t*/ p = src.position() + bs.lmd_in_buf;
+        final ByteBuffer/*uint8_t*/ lit = LittleEndianByteBuffer.wrap(bs.current_literal, bs.current_literal_pos);
         ByteBuffer/*uint8_t*/ dst = s.dst;
         int/*uint32_t*/ symbols = bs.n_matches;
         int L = bs.l_value;
         int M = bs.m_value;
         int D = bs.d_value;
 
-        assert (l_state[0] < LZFSE_ENCODE_L_STATES);
-        assert (m_state[0] < LZFSE_ENCODE_M_STATES);
-        assert (d_state[0] < LZFSE_ENCODE_D_STATES);
+        assert (l_state < LZFSE_ENCODE_L_STATES);
+        assert (m_state < LZFSE_ENCODE_M_STATES);
+        assert (d_state < LZFSE_ENCODE_D_STATES);
 
         //  Number of bytes remaining in the destination buffer, minus 32 to
         //  provide a margin of safety for using overlarge copies on the fast path.
@@ -219,31 +390,43 @@ class DecodeBase {
         boolean goto_ExecuteMatch = (L != 0 || M != 0);//not gonna extract this goto
 //    goto ExecuteMatch;
 
-        while (symbols > 0) {
+        while (symbols > 0 || goto_ExecuteMatch) {
             if (!goto_ExecuteMatch) {
-                int res;
                 //  Decode the next L, M, D symbol from the input stream.
-                res = fse_in_checked_flush64(in, src, src_start);
-                if (res != 0) {
-                    return LZFSE_STATUS_ERROR;
+                //  fse_in_checked_flush64: refill the accumulator to 56..63 bits
+                final int/*fse_bit_count*/ nbits = (63 - accum_nbits) & -8;
+                p -= nbits >>> 3;
+                if (p < src_start) {
+                    return LZFSE_STATUS_ERROR; // out of range
                 }
-                L = fse_value_decode(l_state, bs.l_decoder, in);
-                assert (l_state[0] < LZFSE_ENCODE_L_STATES);
+                accum = (accum << nbits) | fse_mask_lsb64(src.getLong(p), nbits);
+                accum_nbits += nbits;
+
+                //  fse_value_decode, pulling the state and value bits of each entry
+                long e = l_decoder[l_state];
+                accum_nbits -= fse_value_decoder_entry_total_bits(e);
+                int/*uint32_t*/ bits = (int) (accum >>> accum_nbits);
+                accum = fse_mask_lsb64(accum, accum_nbits);
+                L = fse_value_decode(e, bits);
+                l_state = fse_value_decode_state(e, bits);
+                assert (l_state < LZFSE_ENCODE_L_STATES);
                 if ((lit.position() + L) >= bs.BYTES) {//(bs->literals + LZFSE_LITERALS_PER_BLOCK + 64)) {
                     return LZFSE_STATUS_ERROR;
                 }
-                res = fse_in_flush2(in, src, src_start);
-                if (res != 0) {
-                    return LZFSE_STATUS_ERROR;
-                }
-                M = fse_value_decode(m_state, bs.m_decoder, in);
-                assert (m_state[0] < LZFSE_ENCODE_M_STATES);
-                res = fse_in_flush2(in, src, src_start);
-                if (res != 0) {
-                    return LZFSE_STATUS_ERROR;
-                }
-                int new_d = fse_value_decode(d_state, bs.d_decoder, in);
-                assert (d_state[0] < LZFSE_ENCODE_D_STATES);
+                e = m_decoder[m_state];
+                accum_nbits -= fse_value_decoder_entry_total_bits(e);
+                bits = (int) (accum >>> accum_nbits);
+                accum = fse_mask_lsb64(accum, accum_nbits);
+                M = fse_value_decode(e, bits);
+                m_state = fse_value_decode_state(e, bits);
+                assert (m_state < LZFSE_ENCODE_M_STATES);
+                e = d_decoder[d_state];
+                accum_nbits -= fse_value_decoder_entry_total_bits(e);
+                bits = (int) (accum >>> accum_nbits);
+                accum = fse_mask_lsb64(accum, accum_nbits);
+                int new_d = fse_value_decode(e, bits);
+                d_state = fse_value_decode_state(e, bits);
+                assert (d_state < LZFSE_ENCODE_D_STATES);
                 D = new_d != 0 ? new_d : D;
                 symbols--;
             }
@@ -305,7 +488,7 @@ class DecodeBase {
 //                    dst += remaining_bytes;
                     LittleEndianByteBuffer.skip(lit, remaining_bytes);//lit += remaining_bytes;
                     L -= remaining_bytes;
-                    return lzfse_decode_lmd_goto_DestinationBufferIsFull(bs, L, M, D, l_state, m_state, d_state, in, symbols, src, s, lit, dst);
+                    return lzfse_decode_lmd_goto_DestinationBufferIsFull(bs, L, M, D, l_state, m_state, d_state, accum, accum_nbits, symbols, p, s, lit, dst);
                 }
                 //  The match goes just like the literal does. We copy as much as
                 //  we can byte-by-byte, and if we reach the end of the buffer
@@ -334,7 +517,7 @@ class DecodeBase {
                     }
                     LittleEndianByteBuffer.skip(dst, remaining_bytes);//dst += remaining_bytes;
                     M -= remaining_bytes;
-                    return lzfse_decode_lmd_goto_DestinationBufferIsFull(bs, L, M, D, l_state, m_state, d_state, in, symbols, src, s, lit, dst);
+                    return lzfse_decode_lmd_goto_DestinationBufferIsFull(bs, L, M, D, l_state, m_state, d_state, accum, accum_nbits, symbols, p, s, lit, dst);
                 }
                 //  Restore the "sham" decremented value of remaining_bytes and
                 //  continue to the next L, M, D triple. We'll just be back in
@@ -353,8 +536,8 @@ class DecodeBase {
 
     private static int lzfse_decode_lmd_goto_DestinationBufferIsFull(lzfse_compressed_block_decoder_state bs,
                                                                      final int L, final int M, final int D,
-                                                                     final short[] l_state, final short[] m_state, final short[] d_state,
-                                                                     final fse_in_stream64 in, final int symbols, final ByteBuffer/*uint8_t*/ src,
+                                                                     final int l_state, final int m_state, final int d_state,
+                                                                     final long accum, final int accum_nbits, final int symbols, final int p,
                                                                      lzfse_decoder_state s, final ByteBuffer/*uint8_t*/ lit, final ByteBuffer/*uint8_t*/ dst) {
         //  Because we want to be able to resume decoding where we've left
         //  off (even in the middle of a literal or match), we need to
@@ -364,22 +547,19 @@ class DecodeBase {
         bs.l_value = L;
         bs.m_value = M;
         bs.d_value = D;
-        bs.l_state = l_state[0];
-        bs.m_state = m_state[0];
-        bs.d_state = d_state[0];
-        bs.lmd_in_stream = in;
+        bs.l_state = (short) l_state;
+        bs.m_state = (short) m_state;
+        bs.d_state = (short) d_state;
+        bs.lmd_in_stream.accum = accum;
+        bs.lmd_in_stream.accum_nbits = accum_nbits;
         bs.n_matches = symbols;
-        bs.lmd_in_buf = /*(uint32_t)*/(src.position() - s.src.position());
+        bs.lmd_in_buf = /*(uint32_t)*/(p - s.src.position());
         bs.current_literal = lit.array();
+        bs.current_literal_pos = lit.position();
         s.dst = dst;
         return LZFSE_STATUS_DST_FULL;
     }
 
-    private static int fse_in_flush2(fse_in_stream64 in, ByteBuffer src, int src_start) {
-        //do nothing
-        return 0;
-    }
-
     static int lzfse_decode(lzfse_decoder_state s) {
         while (true) {
             // Are we inside a block?
@@ -403,30 +583,30 @@ class DecodeBase {
                             return LZFSE_STATUS_SRC_EMPTY; // SRC truncated
                         // Setup state for uncompressed block
                         uncompressed_block_decoder_state bs = (s.uncompressed_block_state);
-                        bs.n_raw_bytes = load4(s.src/* + offsetof(uncompressed_block_header, n_raw_bytes)*/);
-//                        s.src += uncompressed_block_header.BYTES;
+                        bs.n_raw_bytes = s.src.getInt(s.src.position() + Integer.BYTES/* + offsetof(uncompressed_block_header, n_raw_bytes)*/);
+                        LittleEndianByteBuffer.skip(s.src, uncompressed_block_header.BYTES);//s.src += uncompressed_block_header.BYTES;
                         s.block_magic = magic;
                         break;
                     }
 
-//                    if (magic == LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC) {//TODO implement lzvn
-//                        if (s.src + sizeof(lzvn_compressed_block_header) > s.src_end)
-//                            return LZFSE_STATUS_SRC_EMPTY; // SRC truncated
-//                        // Setup state for compressed LZVN block
-//                        lzvn_compressed_block_decoder_state bs = (s.compressed_lzvn_block_state);
-//                        bs.n_raw_bytes =
-//                                load4(s.src + offsetof(lzvn_compressed_block_header, n_raw_bytes));
-//                        bs.n_payload_bytes = load4(
-//                                s.src + offsetof(lzvn_compressed_block_header, n_payload_bytes));
-//                        bs.d_prev = 0;
-//                        s.src += sizeof(lzvn_compressed_block_header);
-//                        s.block_magic = magic;
-//                        break;
-//                    }
+                    if (magic == LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC) {
+                        if (s.src.position() + lzvn_compressed_block_header.BYTES > s.src_end)
+                            return LZFSE_STATUS_SRC_EMPTY; // SRC truncated
+                        // Setup state for compressed LZVN block
+                        lzvn_compressed_block_decoder_state bs = (s.compressed_lzvn_block_state);
+                        bs.n_raw_bytes = s.src.getInt(s.src.position() + lzvn_compressed_block_header.OFFSET_OF_N_RAW_BYTES);
+                        bs.n_payload_bytes = s.src.getInt(s.src.position() + lzvn_compressed_block_header.OFFSET_OF_N_PAYLOAD_BYTES);
+                        bs.d_prev = 0;
+                        bs.L = bs.M = bs.D = 0;
+                        LittleEndianByteBuffer.skip(s.src, lzvn_compressed_block_header.BYTES);//s.src += sizeof(lzvn_compressed_block_header);
+                        s.block_magic = magic;
+                        break;
+                    }
 
                     if (magic == LZFSE_COMPRESSEDV1_BLOCK_MAGIC ||
                             magic == LZFSE_COMPRESSEDV2_BLOCK_MAGIC) {
-                        lzfse_compressed_block_header_v1 header1 = new lzfse_compressed_block_header_v1();
+                        lzfse_compressed_block_decoder_state bs = (s.compressed_lzfse_block_state);
+                        lzfse_compressed_block_header_v1 header1 = bs.header1;
                         int/*size_t*/ header_size = 0;
 
                         // Decode compressed headers
@@ -437,18 +617,17 @@ class DecodeBase {
                                 return LZFSE_STATUS_SRC_EMPTY; // SRC truncated
 
                             // Get size, and check we have the entire structure
-                            final lzfse_compressed_block_header_v2 header2 =
-                                    lzfse_compressed_block_header_v2.fromByteBuffer(s.src); // not aligned, OK
-                            header_size = lzfse_decode_v2_header_size(header2);
+                            header_size = get_field(s.src.getLong(s.src.position() + lzfse_compressed_block_header_v2.OFFSET_OF_PACKED_FIELDS +
+                                    2 * Long.BYTES), 0, 32); // not aligned, OK
                             if (s.src.position() + header_size > s.src_end)
                                 return LZFSE_STATUS_SRC_EMPTY; // SRC truncated
-                            int decodeStatus = lzfse_decode_v1(header1, header2);
+                            int decodeStatus = lzfse_decode_v2(header1, s.src, s.src.position(), header_size);
                             if (decodeStatus != 0)
                                 return LZFSE_STATUS_ERROR;
                         } else {
                             if (s.src.position() + lzfse_compressed_block_header_v1.BYTES > s.src_end)
                                 return LZFSE_STATUS_SRC_EMPTY; // SRC truncated
-                            header1 = lzfse_compressed_block_header_v1.fromByteBuffer(s.src);//memcpy( & header1, s.src, lzfse_compressed_block_header_v1.BYTES);
+                            lzfse_compressed_block_header_v1.fromByteBuffer(s.src, s.src.position(), header1);//memcpy( & header1, s.src, lzfse_compressed_block_header_v1.BYTES);
                             header_size = lzfse_compressed_block_header_v1.BYTES;
                         }
 
@@ -472,66 +651,19 @@ class DecodeBase {
                         LittleEndianByteBuffer.skip(s.src, header_size);
 
                         // Setup state for compressed V1 block from header
-                        lzfse_compressed_block_decoder_state bs = (s.compressed_lzfse_block_state);
                         bs.n_lmd_payload_bytes = header1.n_lmd_payload_bytes;
                         bs.n_matches = header1.n_matches;
-                        fse_init_decoder_table(LZFSE_ENCODE_LITERAL_STATES,
-                                LZFSE_ENCODE_LITERAL_SYMBOLS,
-                                header1.literal_freq, bs.literal_decoder);
-                        fse_init_value_decoder_table(
-                                LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, header1.l_freq,
-                                l_extra_bits, l_base_value, bs.l_decoder);
-                        fse_init_value_decoder_table(
-                                LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, header1.m_freq,
-                                m_extra_bits, m_base_value, bs.m_decoder);
-                        fse_init_value_decoder_table(
-                                LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, header1.d_freq,
-                                d_extra_bits, d_base_value, bs.d_decoder);
+                        lzfse_decode_tables(bs, header1);
 
                         // Decode literals
                         {
-                            fse_in_stream64 in = new fse_in_stream64();
                             final int/*uint8_t*/ buf_start = s.src_begin;
                             LittleEndianByteBuffer.skip(s.src, header1.n_literal_payload_bytes); // skip literal payload
-                            final ByteBuffer /*uint8_t*/ buf = LittleEndianByteBuffer.duplicate(s.src); // read bits backwards from the end
-                            if (fse_in_checked_init64(in, header1.literal_bits, buf, buf_start) != 0)
+                            if (lzfse_decode_literals(bs, header1, s.src, buf_start) != 0)
                                 return LZFSE_STATUS_ERROR;
 
-                            short/*fse_state*/[] state0 = {header1.literal_state[0]};
-                            short/*fse_state*/[] state1 = {header1.literal_state[1]};
-                            short/*fse_state*/[] state2 = {header1.literal_state[2]};
-                            short/*fse_state*/[] state3 = {header1.literal_state[3]};
-
-                            for (int/*uint32_t*/ i = 0; i < header1.n_literals; i += 4) // n_literals is multiple of 4
-                            {
-//#if FSE_IOSTREAM_64
-                                if (fse_in_checked_flush64(in, buf, buf_start) != 0)
-                                    return LZFSE_STATUS_ERROR;
-                                bs.literals[i + 0] =
-                                        fse_decode(state0, bs.literal_decoder, in); // 10b max
-                                bs.literals[i + 1] =
-                                        fse_decode(state1, bs.literal_decoder, in); // 10b max
-                                bs.literals[i + 2] =
-                                        fse_decode(state2, bs.literal_decoder, in); // 10b max
-                                bs.literals[i + 3] =
-                                        fse_decode(state3, bs.literal_decoder, in); // 10b max
-//#else
-//                                if (fse_in_flush(&in, &buf, buf_start) != 0)
-//                                return LZFSE_STATUS_ERROR; // [25, 23] bits
-//                                bs.literals[i + 0] =
-//                                        fse_decode(&state0, bs.literal_decoder, &in); // 10b max
-//                                bs.literals[i + 1] =
-//                                        fse_decode(&state1, bs.literal_decoder, &in); // 10b max
-//                                if (fse_in_flush(&in, &buf, buf_start) != 0)
-//                                return LZFSE_STATUS_ERROR; // [25, 23] bits
-//                                bs.literals[i + 2] =
-//                                        fse_decode(&state2, bs.literal_decoder, &in); // 10b max
-//                                bs.literals[i + 3] =
-//                                        fse_decode(&state3, bs.literal_decoder, &in); // 10b max
-//#endif
-                            }
-
                             bs.current_literal = bs.literals;
+                            bs.current_literal_pos = 0;
                         } // literals
 
                         // SRC is not incremented to skip the LMD payload, since we need it
@@ -541,7 +673,7 @@ class DecodeBase {
                         // Initialize the L,M,D decode stream, do not start decoding matches
                         // yet, and store decoder state
                         {
-                            fse_in_stream64 in = new fse_in_stream64();
+                            final fse_in_stream64 in = bs.lmd_in_stream;
                             // read bits backwards from the end
                             final ByteBuffer/*uint8_t*/ buf = LittleEndianByteBuffer.duplicate(s.src, header1.n_lmd_payload_bytes);
                             if (fse_in_checked_init64(in, header1.lmd_bits, buf, s.src.position()) != 0)
@@ -555,7 +687,6 @@ class DecodeBase {
                             //  Initialize D to an illegal value so we can't erroneously use
                             //  an uninitialized "previous" value.
                             bs.d_value = -1;
-                            bs.lmd_in_stream = in;
                         }
 
                         s.block_magic = magic;
@@ -595,7 +726,7 @@ class DecodeBase {
                     // dest buffers, go ahead and copy the data.
                     // We always have copy_size > 0 here
                     LittleEndianByteBuffer.copy(s.dst, s.src, copy_size);//memcpy(s.dst, s.src, copy_size);
-//                    s.src += copy_size;
+                    LittleEndianByteBuffer.skip(s.src, copy_size);//s.src += copy_size;
 //                    s.dst += copy_size;
                     bs.n_raw_bytes -= copy_size;
 
@@ -623,8 +754,14 @@ class DecodeBase {
                     lzvn_compressed_block_decoder_state bs = (s.compressed_lzvn_block_state);
                     if (bs.n_payload_bytes > 0 && s.src_end <= s.src.position())
                         return LZFSE_STATUS_SRC_EMPTY; // need more SRC data
+                    //  lzvn_decode stops at an instruction cut by the end of SRC as if DST
+                    //  was full, so like LZFSE blocks, require the entire payload in SRC.
+                    if (Integer.toUnsignedLong(bs.n_payload_bytes) > s.src_end - s.src.position())
+                        return LZFSE_STATUS_SRC_EMPTY;
 
-                    // Init LZVN decoder state
+                    // Init LZVN decoder state (it advances the positions of our buffers)
+                    final int/*uint8_t*/ src0 = s.src.position();
+                    final int/*uint8_t*/ dst0 = s.dst.position();
                     lzvn_decoder_state dstate = new lzvn_decoder_state();//memset( & dstate, 0x00, sizeof(dstate));
                     dstate.src = s.src;
                     dstate.src_end = s.src_end;
@@ -636,14 +773,18 @@ class DecodeBase {
                     if (dstate.dst_end - s.dst.position() > bs.n_raw_bytes)
                         dstate.dst_end = s.dst.position() + bs.n_raw_bytes; // limit to raw bytes
                     dstate.d_prev = bs.d_prev;
+                    dstate.L = bs.L;
+                    dstate.M = bs.M;
+                    dstate.D = bs.D;
                     dstate.end_of_stream = 0;
 
                     // Run LZVN decoder
-//                    lzvn_decode(&dstate);//TODO implement lzvn
+                    if (lzvn_decode(dstate) == LZFSE_STATUS_ERROR)
+                        return LZFSE_STATUS_ERROR;
 
                     // Update our state
-                    int/*size_t*/ src_used = dstate.src.position() - s.src.position();
-                    int/*size_t*/ dst_used = dstate.dst.position() - s.dst.position();
+                    int/*size_t*/ src_used = dstate.src.position() - src0;
+                    int/*size_t*/ dst_used = dstate.dst.position() - dst0;
                     if (src_used > bs.n_payload_bytes || dst_used > bs.n_raw_bytes)
                         return LZFSE_STATUS_ERROR;
                     s.src = dstate.src;
@@ -651,6 +792,9 @@ class DecodeBase {
                     bs.n_payload_bytes -= /*(uint32_t)*/src_used;
                     bs.n_raw_bytes -= /*(uint32_t)*/dst_used;
                     bs.d_prev = (int/*uint32_t*/) dstate.d_prev;
+                    bs.L = dstate.L;
+                    bs.M = dstate.M;
+                    bs.D = dstate.D;
 
                     // Test end of block
                     if (bs.n_payload_bytes == 0 && bs.n_raw_bytes == 0 &&
@@ -678,6 +822,219 @@ class DecodeBase {
 //        return LZFSE_STATUS_OK;
     }
 
+    //  LZVN instruction kinds.
+    private static final byte lzvn_sml_d = 0; // LLMMMDDD DDDDDDDD                   small distance
+    private static final byte lzvn_med_d = 1; // 101LLMMM DDDDDDMM DDDDDDDD          medium distance
+    private static final byte lzvn_lrg_d = 2; // LLMMM111 DDDDDDDD DDDDDDDD          large distance
+    private static final byte lzvn_pre_d = 3; // LLMMM110                            previous distance
+    private static final byte lzvn_sml_l = 4; // 1110LLLL                            small literal
+    private static final byte lzvn_lrg_l = 5; // 11100000 LLLLLLLL                   large literal
+    private static final byte lzvn_sml_m = 6; // 1111MMMM                            small match
+    private static final byte lzvn_lrg_m = 7; // 11110000 MMMMMMMM                   large match
+    private static final byte lzvn_nop   = 8; // 00001110 or 00010110
+    private static final byte lzvn_eos   = 9; // 00000110 followed by 7 zero bytes   end of stream
+    private static final byte lzvn_udef  = 10; //                                    undefined
+
+    //  Opcode dispatch table: the instruction kind of each opcode.
+    private static final byte[] lzvn_opc_tbl = {
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_eos, lzvn_lrg_d, // 0x00
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_nop, lzvn_lrg_d, // 0x08
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_nop, lzvn_lrg_d, // 0x10
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_udef, lzvn_lrg_d, // 0x18
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_udef, lzvn_lrg_d, // 0x20
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_udef, lzvn_lrg_d, // 0x28
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_udef, lzvn_lrg_d, // 0x30
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_udef, lzvn_lrg_d, // 0x38
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x40
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x48
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x50
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x58
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x60
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x68
+            lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, // 0x70
+            lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, // 0x78
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x80
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x88
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x90
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0x98
+            lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, // 0xa0
+            lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, // 0xa8
+            lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, // 0xb0
+            lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, lzvn_med_d, // 0xb8
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0xc0
+            lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_sml_d, lzvn_pre_d, lzvn_lrg_d, // 0xc8
+            lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, // 0xd0
+            lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, lzvn_udef, // 0xd8
+            lzvn_lrg_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, // 0xe0
+            lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, lzvn_sml_l, // 0xe8
+            lzvn_lrg_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, // 0xf0
+            lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m, lzvn_sml_m // 0xf8
+    };
+
+    /*! @abstract Decode LZVN instructions from \p state.src to \p state.dst, until
+     * end-of-stream is decoded, or SRC or DST are exhausted. A literal or match
+     * cut by the end of DST is kept in L, M, D, so decoding can resume once the
+     * caller has made room in DST.
+     * @return LZFSE_STATUS_OK at end-of-stream, or when SRC is empty.
+     * @return LZFSE_STATUS_DST_FULL if DST is full.
+     * @return LZFSE_STATUS_ERROR on an invalid instruction (this includes an
+     * instruction cut by the end of SRC). SRC is left on the instruction. */
+    static int lzvn_decode(lzvn_decoder_state state) {
+        final ByteBuffer/*unsigned char*/ src = state.src;
+        final ByteBuffer/*unsigned char*/ dst = state.dst;
+        final int/*unsigned char*/ src_end = state.src_end;
+        final int/*unsigned char*/ dst_end = state.dst_end;
+        int/*unsigned char*/ p = src.position(); // next byte to read
+        int/*unsigned char*/ q = dst.position(); // next byte to write
+        int/*size_t*/ L = state.L, M = state.M, D = state.D;
+        long/*lzvn_offset*/ d_prev = state.d_prev;
+
+        while (true) {
+            if (L == 0 && M == 0) {
+                // Decode next instruction
+                if (p >= src_end)
+                    return lzvn_decode_goto_end(state, p, q, L, M, D, d_prev); // SRC empty
+                final int opc = Byte.toUnsignedInt(src.get(p));
+                int/*size_t*/ opc_len;
+                switch (lzvn_opc_tbl[opc]) {
+                    case lzvn_sml_d:
+                        opc_len = 2;
+                        if (p + opc_len > src_end)
+                            return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                        L = opc >>> 6;
+                        M = ((opc >>> 3) & 7) + 3;
+                        D = ((opc & 7) << 8) | Byte.toUnsignedInt(src.get(p + 1));
+                        break;
+                    case lzvn_med_d: {
+                        opc_len = 3;
+                        if (p + opc_len > src_end)
+                            return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                        final int/*uint16_t*/ opc12 = Short.toUnsignedInt(src.getShort(p + 1));
+                        L = (opc >>> 3) & 3;
+                        M = (((opc & 7) << 2) | (opc12 & 3)) + 3;
+                        D = opc12 >>> 2;
+                        break;
+                    }
+                    case lzvn_lrg_d:
+                        opc_len = 3;
+                        if (p + opc_len > src_end)
+                            return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                        L = opc >>> 6;
+                        M = ((opc >>> 3) & 7) + 3;
+                        D = Short.toUnsignedInt(src.getShort(p + 1));
+                        break;
+                    case lzvn_pre_d:
+                        opc_len = 1;
+                        L = opc >>> 6;
+                        M = ((opc >>> 3) & 7) + 3;
+                        D = (int) d_prev;
+                        break;
+                    case lzvn_sml_l:
+                        opc_len = 1;
+                        L = opc & 0xF;
+                        break;
+                    case lzvn_lrg_l:
+                        opc_len = 2;
+                        if (p + opc_len > src_end)
+                            return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                        L = Byte.toUnsignedInt(src.get(p + 1)) + 16;
+                        break;
+                    case lzvn_sml_m:
+                        opc_len = 1;
+                        M = opc & 0xF;
+                        D = (int) d_prev;
+                        break;
+                    case lzvn_lrg_m:
+                        opc_len = 2;
+                        if (p + opc_len > src_end)
+                            return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                        M = Byte.toUnsignedInt(src.get(p + 1)) + 16;
+                        D = (int) d_prev;
+                        break;
+                    case lzvn_nop:
+                        p += 1;
+                        continue;
+                    case lzvn_eos:
+                        opc_len = 8;
+                        if (p + opc_len > src_end)
+                            return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                        state.end_of_stream = 1;
+                        return lzvn_decode_goto_end(state, p + opc_len, q, L, M, D, d_prev);
+                    default: // lzvn_udef
+                        return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                }
+                // Literals must be in SRC, and the match inside the output
+                if (p + opc_len + L > src_end ||
+                        (M != 0 && (D == 0 || D > q + L - state.dst_begin)))
+                    return lzvn_decode_goto_invalid(state, p, q, d_prev);
+                p += opc_len;
+                if (M != 0)
+                    d_prev = D;
+
+                // Fast path: if there is room past the literal in SRC, and past the
+                // literal and match in DST, copy 8 bytes at a time, possibly
+                // writing a few bytes past the end of each.
+                if (p + L + 8 <= src_end && q + L + M + 8 <= dst_end) {
+                    for (int i = 0; i < L; i += 8)
+                        dst.putLong(q + i, src.getLong(p + i));
+                    p += L;
+                    q += L;
+                    L = 0;
+                    if (D >= 8) {
+                        // Each 8 bytes read are before the ones being written
+                        for (int i = 0; i < M; i += 8)
+                            dst.putLong(q + i, dst.getLong(q + i - D));
+                    } else {
+                        // Overlapping match, copy bytes one at a time
+                        for (int i = 0; i < M; i++)
+                            dst.put(q + i, dst.get(q + i - D));
+                    }
+                    q += M;
+                    M = 0;
+                    continue;
+                }
+            }
+
+            // Careful path, near the end of SRC or DST: copy as much as fits
+            while (L > 0) {
+                if (q >= dst_end)
+                    return lzvn_decode_goto_DestinationBufferIsFull(state, p, q, L, M, D, d_prev);
+                dst.put(q++, src.get(p++));
+                L--;
+            }
+            while (M > 0) {
+                if (q >= dst_end)
+                    return lzvn_decode_goto_DestinationBufferIsFull(state, p, q, L, M, D, d_prev);
+                dst.put(q, dst.get(q - D));
+                q++;
+                M--;
+            }
+        }
+    }
+
+    private static int lzvn_decode_goto_end(lzvn_decoder_state state, final int p, final int q,
+                                            final int L, final int M, final int D, final long d_prev) {
+        state.src.position(p);
+        state.dst.position(q);
+        state.L = L;
+        state.M = M;
+        state.D = D;
+        state.d_prev = d_prev;
+        return LZFSE_STATUS_OK;
+    }
+
+    private static int lzvn_decode_goto_DestinationBufferIsFull(lzvn_decoder_state state, final int p, final int q,
+                                                                final int L, final int M, final int D,
+                                                                final long d_prev) {
+        lzvn_decode_goto_end(state, p, q, L, M, D, d_prev);
+        return LZFSE_STATUS_DST_FULL;
+    }
+
+    private static int lzvn_decode_goto_invalid(lzvn_decoder_state state, final int p, final int q, final long d_prev) {
+        lzvn_decode_goto_end(state, p, q, 0, 0, 0, d_prev);
+        return LZFSE_STATUS_ERROR;
+    }
+
     /*! @abstract Base decoder state. */
     private static class lzvn_decoder_state {
 
@@ -0,0 +1,166 @@
+package lzfse;
+
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v1;
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v2;
+import lzfse.InternalBlockHeaderObjects.lzvn_compressed_block_header;
+import lzfse.InternalBlockHeaderObjects.uncompressed_block_header;
+import lzfse.InternalStateObjects.lzfse_decoder_state;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static lzfse.DecodeBase.lzfse_decode;
+import static lzfse.Internal.LZFSE_STATUS_ERROR;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+import static lzfse.Internal.LZFSE_STATUS_SRC_EMPTY;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDV1_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDV2_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_ENDOFSTREAM_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_NO_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_UNCOMPRESSED_BLOCK_MAGIC;
+
+/** MARK: - Block headers, without decoding the blocks */
+class DecodeBlocks {
+    private DecodeBlocks() {
+    }
+
+    /*! @abstract Position and size of a block, from its header alone. */
+    static class lzfse_block {
+        //  Magic number of the block.
+        /*uint32_t*/ int magic;
+        //  Offset of the block header from the start of the stream.
+        long src_offset;
+        //  Size of the block in the stream, header included.
+        int  src_size;
+        //  Offset of the first decoded byte of the block from the start of the output.
+        long dst_offset;
+        //  Number of decoded bytes in the block.
+        int  n_raw_bytes;
+    }
+
+    /*! @abstract Read the header of the block at index \p p of \p src into \p block.
+     * Only \p magic, \p src_size and \p n_raw_bytes are set. The end-of-stream block is
+     * 4 bytes long and has no raw bytes.
+     * @return LZFSE_STATUS_OK if the whole block is in [p, src_end),
+     * LZFSE_STATUS_SRC_EMPTY if it is truncated, or LZFSE_STATUS_ERROR if the magic
+     * is invalid. */
+    static int lzfse_read_block_header(final ByteBuffer src, final int p, final int src_end, lzfse_block block) {
+        if (p + 4 > src_end)
+            return LZFSE_STATUS_SRC_EMPTY;
+        final int/*uint32_t*/ magic = src.getInt(p);
+        long size;
+        int/*uint32_t*/ n_raw_bytes;
+        switch (magic) {
+            case LZFSE_ENDOFSTREAM_BLOCK_MAGIC:
+                size = 4;
+                n_raw_bytes = 0;
+                break;
+            case LZFSE_UNCOMPRESSED_BLOCK_MAGIC:
+                if (p + uncompressed_block_header.BYTES > src_end)
+                    return LZFSE_STATUS_SRC_EMPTY;
+                n_raw_bytes = src.getInt(p + Integer.BYTES);
+                size = uncompressed_block_header.BYTES + Integer.toUnsignedLong(n_raw_bytes);
+                break;
+            case LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC:
+                if (p + lzvn_compressed_block_header.BYTES > src_end)
+                    return LZFSE_STATUS_SRC_EMPTY;
+                n_raw_bytes = src.getInt(p + lzvn_compressed_block_header.OFFSET_OF_N_RAW_BYTES);
+                size = lzvn_compressed_block_header.BYTES +
+                        Integer.toUnsignedLong(src.getInt(p + lzvn_compressed_block_header.OFFSET_OF_N_PAYLOAD_BYTES));
+                break;
+            case LZFSE_COMPRESSEDV1_BLOCK_MAGIC:
+                if (p + lzfse_compressed_block_header_v1.BYTES > src_end)
+                    return LZFSE_STATUS_SRC_EMPTY;
+                n_raw_bytes = src.getInt(p + Integer.BYTES);
+                size = lzfse_compressed_block_header_v1.BYTES +
+                        Integer.toUnsignedLong(src.getInt(p + lzfse_compressed_block_header_v1.OFFSET_OF_N_LITERAL_PAYLOAD_BYTES)) +
+                        Integer.toUnsignedLong(src.getInt(p + lzfse_compressed_block_header_v1.OFFSET_OF_N_LMD_PAYLOAD_BYTES));
+                break;
+            case LZFSE_COMPRESSEDV2_BLOCK_MAGIC: {
+                if (p + lzfse_compressed_block_header_v2.OFFSET_OF_FREQ > src_end)
+                    return LZFSE_STATUS_SRC_EMPTY;
+                n_raw_bytes = src.getInt(p + Integer.BYTES);
+                final int packed_fields = p + lzfse_compressed_block_header_v2.OFFSET_OF_PACKED_FIELDS;
+                final long/*uint64_t*/ v0 = src.getLong(packed_fields);
+                final long/*uint64_t*/ v1 = src.getLong(packed_fields + Long.BYTES);
+                //  header_size is the low 32 bits of the third packed field.
+                final int/*uint32_t*/ header_size = src.getInt(packed_fields + 2 * Long.BYTES);
+                size = Integer.toUnsignedLong(header_size)
+                        + ((v0 >>> 20) & 0xfffff)   // n_literal_payload_bytes
+                        + ((v1 >>> 40) & 0xfffff);  // n_lmd_payload_bytes
+                break;
+            }
+            default:
+                return LZFSE_STATUS_ERROR;
+        }
+        if (n_raw_bytes < 0)
+            return LZFSE_STATUS_ERROR; // does not fit a buffer
+        if (size > src_end - p)
+            return LZFSE_STATUS_SRC_EMPTY;
+        block.magic = magic;
+        block.src_size = (int) size;
+        block.n_raw_bytes = n_raw_bytes;
+        return LZFSE_STATUS_OK;
+    }
+
+    /*! @abstract List the blocks of the stream in [src_begin, src_end) of \p src, up to
+     * and including the end-of-stream block. \p src may be in any byte order.
+     * @return the blocks, or null if the stream is truncated or invalid. */
+    static List<lzfse_block> lzfse_scan_blocks(ByteBuffer src, final int src_begin, final int src_end) {
+        src = LittleEndianByteBuffer.duplicate(src);
+        final List<lzfse_block> blocks = new ArrayList<>();
+        long dst_offset = 0;
+        for (int p = src_begin; ; ) {
+            final lzfse_block block = new lzfse_block();
+            if (lzfse_read_block_header(src, p, src_end, block) != LZFSE_STATUS_OK)
+                return null;
+            block.src_offset = p - src_begin;
+            block.dst_offset = dst_offset;
+            blocks.add(block);
+            if (block.magic == LZFSE_ENDOFSTREAM_BLOCK_MAGIC)
+                return blocks;
+            p += block.src_size;
+            dst_offset += block.n_raw_bytes;
+        }
+    }
+
+    /*! @abstract Sum the raw sizes of the blocks of the stream in [src_begin, src_end) of
+     * \p src, from their headers. \p src may be in any byte order.
+     * @return the decoded size of the stream, or -1 if it is truncated or invalid. */
+    static long lzfse_decoded_size(ByteBuffer src, final int src_begin, final int src_end) {
+        src = LittleEndianByteBuffer.duplicate(src);
+        final lzfse_block block = new lzfse_block();
+        long size = 0;
+        for (int p = src_begin; ; p += block.src_size) {
+            if (lzfse_read_block_header(src, p, src_end, block) != LZFSE_STATUS_OK)
+                return -1;
+            if (block.magic == LZFSE_ENDOFSTREAM_BLOCK_MAGIC)
+                return size;
+            size += block.n_raw_bytes;
+        }
+    }
+
+    /*! @abstract Decode the single block in [src_p, src_end) of \p src into
+     * [dst_p, dst_end) of \p dst. Matches may refer back to \p dst_begin, no further.
+     * @return LZFSE_STATUS_OK if the block decoded to exactly its raw size,
+     * LZFSE_STATUS_ERROR otherwise, including for a match reaching before \p dst_begin. */
+    static int lzfse_decode_block(ByteBuffer dst, final int dst_begin, final int dst_p, final int dst_end,
+                                  final ByteBuffer src, final int src_p, final int src_end,
+                                  lzfse_decoder_state s) {
+        s.clear();
+        s.src = LittleEndianByteBuffer.duplicate(src).position(src_p);
+        s.src_begin = src_p;
+        s.src_end = src_end;
+        s.dst = LittleEndianByteBuffer.duplicate(dst).position(dst_p);
+        s.dst_begin = dst_begin;
+        s.dst_end = dst_end;
+
+        // After the block, the decoder looks for the next magic and runs out of SRC
+        if (lzfse_decode(s) == LZFSE_STATUS_SRC_EMPTY && s.block_magic == LZFSE_NO_BLOCK_MAGIC &&
+                s.src.position() == src_end && s.dst.position() == dst_end)
+            return LZFSE_STATUS_OK;
+        return LZFSE_STATUS_ERROR;
+    }
+}
@@ -16,15 +16,21 @@ import static lzfse.Internal.store4;
 import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC;
 import static lzfse.InternalBlockHeaderObjects.LZFSE_ENDOFSTREAM_BLOCK_MAGIC;
 import static lzfse.InternalBlockHeaderObjects.LZFSE_UNCOMPRESSED_BLOCK_MAGIC;
-import static lzfse.Tunables.LZFSE_ENCODE_LZVN_THRESHOLD;
+import static lzfse.LzvnEncodeBase.LZVN_ENCODE_TABLE_INTS;
+import static lzfse.LzvnEncodeBase.lzvn_encode_buffer;
+import static lzfse.LzvnEncodeBase.lzvn_encode_scratch_size;
 
 public class Encode {
     private Encode() {
     }
 
+    //  Size of the chunks the encoder walks through when the source is too large
+    //  for 32-bit offsets. The state is translated by this amount after each chunk.
+    static final int LZFSE_ENCODER_BLOCK_SIZE = 262144;
+
     public static long lzfse_encode_scratch_size() {
         long s1 = InternalStateObjects.lzfse_encoder_state.BYTES;
-        long s2 = -1;//TODO lzvn_encode_scratch_size();
+        long s2 = lzvn_encode_scratch_size();
         return Math.max(s1, s2); // max(lzfse,lzvn)
     }
 
@@ -39,31 +45,8 @@ public class Encode {
             return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer);
 
         // If input is too small, try encoding with LZVN
-        if (src_size < LZFSE_ENCODE_LZVN_THRESHOLD) {
-            // need header + end-of-stream marker
-            long extra_size = 4 + lzvn_compressed_block_header.BYTES;
-            if (dst_size <= extra_size)
-                return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer); // DST is really too small, give up
-
-            long sz = -1;//TODO lzvn_encode_buffer(
-            //TODO dst_buffer + lzvn_compressed_block_header.BYTES,
-            //TODO dst_size - extra_size, src_buffer, src_size, scratch_buffer);
-            if (sz == 0 || sz >= src_size)
-                return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer); // failed, or no compression, fall back to
-            // uncompressed block
-
-            // If we could encode, setup header and end-of-stream marker (we left room
-            // for them, no need to test)
-            lzvn_compressed_block_header header = new lzvn_compressed_block_header();
-            header.magic = LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC;
-            header.n_raw_bytes = (int/*uint32_t*/) src_size;
-            header.n_payload_bytes = (int/*uint32_t*/) sz;
-            dst_buffer.put(header.toByteBuffer());//memcpy(dst_buffer, & header, header.BYTES);
-            store4(LittleEndianByteBuffer.duplicate(dst_buffer, Math.toIntExact(lzvn_compressed_block_header.BYTES + sz)),
-                    LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
-
-            return sz + extra_size;
-        }
+        if (src_size < scratch_buffer.lzvn_threshold)
+            return try_lzvn(dst_size, src_size, dst_buffer, src_buffer, 0, scratch_buffer.history_table);
 
         // Try encoding with LZFSE
         {
@@ -73,7 +56,7 @@ public class Encode {
                 return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer);
             state.dst = LittleEndianByteBuffer.duplicate(dst_buffer);
             state.dst_begin = dst_buffer.position();
-            state.dst_end = Math.toIntExact(dst_size);
+            state.dst_end = Math.toIntExact(dst_buffer.position() + dst_size);
             state.src = LittleEndianByteBuffer.duplicate(src_buffer);
             state.src_encode_i = 0;
 
@@ -84,7 +67,7 @@ public class Encode {
                 //  2GB because it's actually faster to change algorithms well before
                 //  it's necessary for correctness.
                 //  The first chunk, we just process normally.
-                final long encoder_block_size = 262144;
+                final long encoder_block_size = LZFSE_ENCODER_BLOCK_SIZE;
                 state.src_end = encoder_block_size;
                 if (lzfse_encode_base(state) != LZFSE_STATUS_OK)
                     return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer);
@@ -141,17 +124,115 @@ public class Encode {
         return ret;
     }
 
+    /*! @abstract Encode \p src_size bytes at the position of \p src_buffer as a sequence of blocks
+     * with no end-of-stream block, so that segments encoded independently can be concatenated into
+     * one stream. The \p history_size bytes before the position are not encoded, but matches may
+     * refer to them: they must be the bytes decoded just before this segment.
+     * Falls back to an uncompressed block if the blocks would not be smaller than that.
+     * @return the number of bytes written to \p dst_buffer, or 0 if it is too small. */
+    static long lzfse_encode_segment(ByteBuffer dst_buffer, long dst_size,
+                                     final ByteBuffer src_buffer, int history_size,
+                                     long src_size, lzfse_encoder_state s) {
+        final long uncompressed_size = uncompressed_block_header.BYTES + src_size;
+        if (src_size > 0) {
+            s.clear();
+            lzfse_encode_init(s);
+            s.src = LittleEndianByteBuffer.duplicate(src_buffer, -history_size);
+            s.src_end = history_size + src_size;
+            //  History positions are only hashed, as if covered by a previous match
+            s.src_encode_i = 0;
+            s.src_literal = history_size;
+            //  Compressed blocks, and the end-of-stream block, must fit before an
+            //  uncompressed block of the same data
+            s.dst = LittleEndianByteBuffer.duplicate(dst_buffer);
+            s.dst_begin = dst_buffer.position();
+            s.dst_end = Math.toIntExact(dst_buffer.position() + Math.min(dst_size, uncompressed_size + 4));
+            if (lzfse_encode_base(s) == LZFSE_STATUS_OK && lzfse_encode_finish(s) == LZFSE_STATUS_OK)
+                return s.dst.position() - 4 - dst_buffer.position(); // drop end-of-stream
+        }
+
+        if (uncompressed_size > dst_size)
+            return 0;
+        final ByteBuffer/*uint8_t*/ dst = LittleEndianByteBuffer.duplicate(dst_buffer);
+        dst.put(new uncompressed_block_header(LZFSE_UNCOMPRESSED_BLOCK_MAGIC, (int/*uint32_t*/) src_size).toByteBuffer());
+        LittleEndianByteBuffer.copy(dst, src_buffer, Math.toIntExact(src_size));
+        return uncompressed_size;
+    }
+
+    /*! @abstract Same as lzfse_encode_buffer_with_scratch, with matches into the
+     * \p history_size bytes before the position of \p src_buffer. \p lzfse_history and
+     * \p lzvn_history are the LZFSE and LZVN encoder tables filled with them, by
+     * lzfse_encode_prime and lzvn_encode_prime; they are copied, not modified.
+     * The output can only be decoded with the same bytes before the output. */
+    static long lzfse_encode_buffer_with_history(ByteBuffer dst_buffer, long dst_size,
+                                                 final ByteBuffer src_buffer, int history_size, long src_size,
+                                                 final int[] lzfse_history, final int[] lzvn_history,
+                                                 lzfse_encoder_state s) {
+        if (src_size < LZVN_ENCODE_MIN_SRC_SIZE)
+            return try_uncompressed(src_size, dst_size, src_size, dst_buffer, src_buffer);
+        if (src_size < s.lzvn_threshold) {
+            System.arraycopy(lzvn_history, 0, s.history_table, 0, LZVN_ENCODE_TABLE_INTS);
+            return try_lzvn(dst_size, src_size, dst_buffer, src_buffer, history_size, s.history_table);
+        }
+
+        s.clear();
+        lzfse_encode_init(s);
+        System.arraycopy(lzfse_history, 0, s.history_table, 0, lzfse_history.length);
+        s.dst = LittleEndianByteBuffer.duplicate(dst_buffer);
+        s.dst_begin = dst_buffer.position();
+        s.dst_end = Math.toIntExact(dst_buffer.position() + dst_size);
+        s.src = LittleEndianByteBuffer.duplicate(src_buffer);
+        s.src_end = src_size;
+        s.src_encode_i = 0;
+        if (lzfse_encode_base(s) != LZFSE_STATUS_OK || lzfse_encode_finish(s) != LZFSE_STATUS_OK)
+            return try_uncompressed(src_size, dst_size, src_size, dst_buffer, src_buffer);
+        return s.dst.position() - dst_buffer.position();
+    }
+
+    //  Encode SRC_SIZE bytes with LZVN, with matches into the HISTORY_SIZE bytes
+    //  before, as one block and the end-of-stream block, or fall back to an
+    //  uncompressed block. WORK is the LZVN encoder table.
+    private static long try_lzvn(long dst_size, long src_size, ByteBuffer dst_buffer, ByteBuffer src_buffer,
+                                 int history_size, int[] work) {
+        final long original_size = src_size;
+        // need header + end-of-stream marker
+        long extra_size = 4 + lzvn_compressed_block_header.BYTES;
+        if (dst_size <= extra_size)
+            return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer); // DST is really too small, give up
+
+        //  As in C, the LZVN encoder table lives in the scratch buffer; it
+        //  overlays the LZFSE history table, which is at least as large.
+        long sz = lzvn_encode_buffer(
+                LittleEndianByteBuffer.duplicate(dst_buffer, lzvn_compressed_block_header.BYTES),
+                dst_size - extra_size, LittleEndianByteBuffer.duplicate(src_buffer), history_size, src_size, work);
+        if (sz == 0 || sz >= src_size)
+            return try_uncompressed(original_size, dst_size, src_size, dst_buffer, src_buffer); // failed, or no compression, fall back to
+        // uncompressed block
+
+        // If we could encode, setup header and end-of-stream marker (we left room
+        // for them, no need to test)
+        lzvn_compressed_block_header header = new lzvn_compressed_block_header();
+        header.magic = LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC;
+        header.n_raw_bytes = (int/*uint32_t*/) src_size;
+        header.n_payload_bytes = (int/*uint32_t*/) sz;
+        LittleEndianByteBuffer.duplicate(dst_buffer).put(header.toByteBuffer());//memcpy(dst_buffer, & header, header.BYTES);
+        store4(LittleEndianByteBuffer.duplicate(dst_buffer, Math.toIntExact(lzvn_compressed_block_header.BYTES + sz)),
+                LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
+
+        return sz + extra_size;
+    }
+
     static long try_uncompressed(long original_size, long dst_size, long src_size, ByteBuffer dst_buffer, ByteBuffer src_buffer) {
         if (original_size + 12 <= dst_size && original_size < Integer.MAX_VALUE) {
             uncompressed_block_header header = new uncompressed_block_header(LZFSE_UNCOMPRESSED_BLOCK_MAGIC, (int/*uint32_t*/) src_size);
-            int /*uint8_t*/ dst_end = dst_buffer.position();
-            dst_buffer.put(header.toByteBuffer());//memcpy(dst_end, & header, sizeof header);
+            final ByteBuffer /*uint8_t*/ dst_end = LittleEndianByteBuffer.duplicate(dst_buffer);
+            dst_end.put(header.toByteBuffer());//memcpy(dst_end, & header, sizeof header);
 //            dst_end += sizeof header;
-            dst_buffer.put(src_buffer.array(), src_buffer.position(), Math.toIntExact(original_size));// memcpy(dst_end, src_buffer, original_size);
+            LittleEndianByteBuffer.copy(dst_end, src_buffer, Math.toIntExact(original_size));// memcpy(dst_end, src_buffer, original_size);
 //            dst_end += original_size;
-            store4(dst_buffer, LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
+            store4(dst_end, LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
 //            dst_end += 4;
-            return dst_buffer.position() - dst_end;
+            return dst_end.position() - dst_buffer.position();
         }
 
         //  Otherwise, there's nothing we can do, so return zero.
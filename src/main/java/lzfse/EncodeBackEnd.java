@@ -1,9 +1,12 @@
 package lzfse;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static lzfse.EncodeBase.lzfse_encode_v1_freq_table;
 import static lzfse.EncodeBase.lzfse_encode_v1_state;
+import static lzfse.EncodeBase.setField;
+import static lzfse.EncodeOptimal.lzfse_optimal_update_prices;
 import static lzfse.EncodeTables.d_base_from_value;
 import static lzfse.EncodeTables.l_base_from_value;
 import static lzfse.EncodeTables.m_base_from_value;
@@ -27,7 +30,6 @@ import static lzfse.Internal.LZFSE_LITERALS_PER_BLOCK;
 import static lzfse.Internal.LZFSE_MATCHES_PER_BLOCK;
 import static lzfse.Internal.LZFSE_STATUS_DST_FULL;
 import static lzfse.Internal.LZFSE_STATUS_OK;
-import static lzfse.Internal.copy16;
 import static lzfse.Internal.d_base_value;
 import static lzfse.Internal.d_extra_bits;
 import static lzfse.Internal.l_base_value;
@@ -49,20 +51,17 @@ public class EncodeBackEnd {
         if (s.n_literals == 0 && s.n_matches == 0)
             return LZFSE_STATUS_OK; // nothing to store, OK
 
-        int/*uint32_t*/[] l_occ = new int[LZFSE_ENCODE_L_SYMBOLS];
-        int/*uint32_t*/[] m_occ = new int[LZFSE_ENCODE_M_SYMBOLS];
-        int/*uint32_t*/[] d_occ = new int[LZFSE_ENCODE_D_SYMBOLS];
-        int/*uint32_t*/[] literal_occ = new int[LZFSE_ENCODE_LITERAL_SYMBOLS];
-        FSE.fse_encoder_entry[] l_encoder = new FSE.fse_encoder_entry[LZFSE_ENCODE_L_SYMBOLS];
-        FSE.fse_encoder_entry[] m_encoder = new FSE.fse_encoder_entry[LZFSE_ENCODE_M_SYMBOLS];
-        FSE.fse_encoder_entry[] d_encoder = new FSE.fse_encoder_entry[LZFSE_ENCODE_D_SYMBOLS];
-        FSE.fse_encoder_entry[] literal_encoder = new FSE.fse_encoder_entry[LZFSE_ENCODE_LITERAL_SYMBOLS];
+        final InternalStateObjects.lzfse_encoder_tables tables = s.tables;
+        final int/*uint32_t*/[] l_occ = tables.l_occ;
+        final int/*uint32_t*/[] m_occ = tables.m_occ;
+        final int/*uint32_t*/[] d_occ = tables.d_occ;
+        final int/*uint32_t*/[] literal_occ = tables.literal_occ;
         int ok = 1;
-        InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 header1 = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
-        InternalBlockHeaderObjects.lzfse_compressed_block_header_v2 header2;
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 header1 = tables.header1;
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v2 header2 = tables.header2;
 
         // Keep initial state to be able to restore it if DST full
-        byte[]/*uint8_t*/ dst0 = s.dst.array().clone();
+        final int/*uint8_t*/ dst_block_start = s.dst.position();
         int/*uint32_t*/ n_literals0 = s.n_literals;
 
         // Add 0x00 literals until n_literals multiple of 4, since we encode 4
@@ -82,11 +81,11 @@ public class EncodeBackEnd {
                 d_prev = d;
         }
 
-//        // Clear occurrence tables
-//        memset(l_occ, 0, sizeof(l_occ));
-//        memset(m_occ, 0, sizeof(m_occ));
-//        memset(d_occ, 0, sizeof(d_occ));
-//        memset(literal_occ, 0, sizeof(literal_occ));
+        // Clear occurrence tables
+        Arrays.fill(l_occ, 0);
+        Arrays.fill(m_occ, 0);
+        Arrays.fill(d_occ, 0);
+        Arrays.fill(literal_occ, 0);
 
         // Update occurrence tables in all 4 streams (L,M,D,literals)
         int/*uint32_t*/ l_sum = 0;
@@ -109,9 +108,8 @@ public class EncodeBackEnd {
         // Make sure we have enough room for a _full_ V2 header
         if (s.dst.position() + InternalBlockHeaderObjects.lzfse_compressed_block_header_v2.BYTES > s.dst_end) {
             ok = 0;
-            return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst0);//goto END;
+            return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst_block_start);//goto END;
         }
-        header2 = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v2();//(lzfse_compressed_block_header_v2 *)(s->dst);
 
         // Setup header V1
         header1.magic = LZFSE_COMPRESSEDV1_BLOCK_MAGIC;
@@ -121,38 +119,51 @@ public class EncodeBackEnd {
 
         // Normalize occurrence tables to freq tables
         fse_normalize_freq(LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, l_occ,
-                header1.l_freq);
+                tables.l_freq);
         fse_normalize_freq(LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, m_occ,
-                header1.m_freq);
+                tables.m_freq);
         fse_normalize_freq(LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, d_occ,
-                header1.d_freq);
+                tables.d_freq);
         fse_normalize_freq(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS,
-                literal_occ, header1.literal_freq);
-
-        // Compress freq tables to V2 header, and get actual size of V2 header
-        final int header_size = lzfse_encode_v1_freq_table(header2, header1);
+                literal_occ, tables.literal_freq);
+
+        // Keep the freq tables of the previous blocks if they encode this one about
+        // as well, or initialize encoder tables from the new ones
+        final boolean cached = tables.header_size != 0 && s.optimal == null;
+        final int built =
+                lzfse_update_table(LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, l_occ,
+                        tables.l_freq, header1.l_freq, tables.l_encoder, cached) +
+                lzfse_update_table(LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, m_occ,
+                        tables.m_freq, header1.m_freq, tables.m_encoder, cached) +
+                lzfse_update_table(LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, d_occ,
+                        tables.d_freq, header1.d_freq, tables.d_encoder, cached) +
+                lzfse_update_table(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS,
+                        literal_occ, tables.literal_freq, header1.literal_freq,
+                        tables.literal_encoder, cached);
+        tables.n_built += built;
+        tables.n_reused += 4 - built;
+        if (built != 0) {
+            //  The optimal parser prices the next matches from these tables
+            if (s.optimal != null)
+                lzfse_optimal_update_prices(s.optimal, header1);
+
+            // Compress freq tables to V2 header, and get actual size of V2 header
+            tables.header_size = lzfse_encode_v1_freq_table(header2, header1);
+        }
+        final int header_size = tables.header_size;
+        //  The states of the previous block were stored next to header_size
+        header2.packed_fields[2] = setField(header_size, 0, 32);
         LittleEndianByteBuffer.skip(s.dst, header_size);
-
-        // Initialize encoder tables from freq tables
-        fse_init_encoder_table(LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS,
-                header1.l_freq, l_encoder);
-        fse_init_encoder_table(LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS,
-                header1.m_freq, m_encoder);
-        fse_init_encoder_table(LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS,
-                header1.d_freq, d_encoder);
-        fse_init_encoder_table(LZFSE_ENCODE_LITERAL_STATES,
-                LZFSE_ENCODE_LITERAL_SYMBOLS, header1.literal_freq,
-                literal_encoder);
+        final long[] l_encoder = tables.l_encoder;
+        final long[] m_encoder = tables.m_encoder;
+        final long[] d_encoder = tables.d_encoder;
+        final long[] literal_encoder = tables.literal_encoder;
 
         // Encode literals
         {
             FSE.fse_out_stream64 out = new FSE.fse_out_stream64();
 //            fse_out_init(&out);
-            short/*fse_state*/[] state0, state1, state2, state3;
-            state0 = new short[]{0};
-            state1 = new short[]{0};
-            state2 = new short[]{0};
-            state3 = new short[]{0};
+            int/*fse_state*/ state0 = 0, state1 = 0, state2 = 0, state3 = 0;
 
             ByteBuffer/*uint8_t*/ buf = LittleEndianByteBuffer.duplicate(s.dst);
             int/*uint32_t*/ i = s.n_literals; // I multiple of 4
@@ -161,16 +172,16 @@ public class EncodeBackEnd {
             while (i > 0) {//FIXME i has the wrong value...should be 22376, but is 22756
                 if (buf.position() + 16 > s.dst_end) {
                     ok = 0;
-                    return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst0);//goto END;
+                    return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst_block_start);//goto END;
                 } // out full
                 i -= 4;
-                fse_encode(state3, literal_encoder, out, s.literals[i + 3]); // 10b
-                fse_encode(state2, literal_encoder, out, s.literals[i + 2]); // 10b
+                state3 = fse_encode(state3, literal_encoder, out, s.literals[i + 3]); // 10b
+                state2 = fse_encode(state2, literal_encoder, out, s.literals[i + 2]); // 10b
 //#if !FSE_IOSTREAM_64
 //                fse_out_flush(&out, &buf);
 //#endif
-                fse_encode(state1, literal_encoder, out, s.literals[i + 1]); // 10b
-                fse_encode(state0, literal_encoder, out, s.literals[i + 0]); // 10b
+                state1 = fse_encode(state1, literal_encoder, out, s.literals[i + 1]); // 10b
+                state0 = fse_encode(state0, literal_encoder, out, s.literals[i + 0]); // 10b
                 fse_out_flush64(out, buf);
             }
             fse_out_finish64(out, buf);
@@ -178,10 +189,10 @@ public class EncodeBackEnd {
             // Update header with final encoder state
             header1.literal_bits = out.accum_nbits; // [-7, 0]
             header1.n_literal_payload_bytes = (int/*uint32_t*/) (buf.position() - s.dst.position());
-            header1.literal_state[0] = state0[0];
-            header1.literal_state[1] = state1[0];
-            header1.literal_state[2] = state2[0];
-            header1.literal_state[3] = state3[0];
+            header1.literal_state[0] = (short) state0;
+            header1.literal_state[1] = (short) state1;
+            header1.literal_state[2] = (short) state2;
+            header1.literal_state[3] = (short) state3;
 
             // Update state
             s.dst.position(buf.position());
@@ -192,10 +203,7 @@ public class EncodeBackEnd {
         {
             FSE.fse_out_stream64 out = new FSE.fse_out_stream64();
 //            fse_out_init(&out);
-            short/*fse_state*/[] l_state, m_state, d_state;
-            l_state = new short[]{0};
-            m_state = new short[]{0};
-            d_state = new short[]{0};
+            int/*fse_state*/ l_state = 0, m_state = 0, d_state = 0;
 
             ByteBuffer/*uint8_t*/ buf = LittleEndianByteBuffer.duplicate(s.dst);
             int/*uint32_t*/ i = s.n_matches;
@@ -203,7 +211,7 @@ public class EncodeBackEnd {
             // Add 8 padding bytes to the L,M,D payload
             if (buf.position() + 8 > s.dst_end) {
                 ok = 0;
-                return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst0);//goto END;
+                return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst_block_start);//goto END;
             } // out full
             store8(buf, 0);
 //            skip(buf, 8);//TODO remove this?
@@ -213,7 +221,7 @@ public class EncodeBackEnd {
             while (i > 0) {
                 if (buf.position() + 16 > s.dst_end) {
                     ok = 0;
-                    return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst0);//goto END;
+                    return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst_block_start);//goto END;
                 } // out full
                 i -= 1;
 
@@ -223,7 +231,7 @@ public class EncodeBackEnd {
                 int d_nbits = d_extra_bits[d_symbol];
                 int d_bits = d_value - d_base_value[d_symbol];
                 fse_out_push64(out, d_nbits, d_bits);
-                fse_encode(d_state, d_encoder, out, d_symbol);
+                d_state = fse_encode(d_state, d_encoder, out, d_symbol);
 //#if !FSE_IOSTREAM_64
 //                fse_out_flush(&out, &buf);
 //#endif
@@ -234,7 +242,7 @@ public class EncodeBackEnd {
                 int m_nbits = m_extra_bits[m_symbol];
                 int m_bits = m_value - m_base_value[m_symbol];
                 fse_out_push64(out, m_nbits, m_bits);
-                fse_encode(m_state, m_encoder, out, m_symbol);
+                m_state = fse_encode(m_state, m_encoder, out, m_symbol);
 //#if !FSE_IOSTREAM_64
 //                fse_out_flush(&out, &buf);
 //#endif
@@ -245,7 +253,7 @@ public class EncodeBackEnd {
                 int l_nbits = l_extra_bits[l_symbol];
                 int l_bits = l_value - l_base_value[l_symbol];
                 fse_out_push64(out, l_nbits, l_bits);
-                fse_encode(l_state, l_encoder, out, l_symbol);
+                l_state = fse_encode(l_state, l_encoder, out, l_symbol);
                 fse_out_flush64(out, buf);
             }
             fse_out_finish64(out, buf);
@@ -253,9 +261,9 @@ public class EncodeBackEnd {
             // Update header with final encoder state
             header1.n_lmd_payload_bytes = (int/*uint32_t*/) (buf.position() - s.dst.position());
             header1.lmd_bits = out.accum_nbits; // [-7, 0]
-            header1.l_state = l_state[0];
-            header1.m_state = m_state[0];
-            header1.d_state = d_state[0];
+            header1.l_state = (short) l_state;
+            header1.m_state = (short) m_state;
+            header1.d_state = (short) d_state;
 
             // Update state
             s.dst.position(buf.position());
@@ -274,20 +282,64 @@ public class EncodeBackEnd {
         // Encode state info in V2 header (we previously encoded the tables, now we
         // set the other fields)
         lzfse_encode_v1_state(header2, header1);
-        update_dst_header(s.dst, header2, header_size);
+        update_dst_header(s.dst, dst_block_start, header2, header_size);
+
+        return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst_block_start);
+    }
+
+    //  Estimated cost, in 1/16 bit, of a symbol of normalized frequency F out of
+    //  LZFSE_ENCODE_LITERAL_STATES: 16 * log2(LZFSE_ENCODE_LITERAL_STATES / F).
+    //  Out of N states, F costs as F * (LZFSE_ENCODE_LITERAL_STATES / N).
+    private static final int[] FREQ_COST = new int[LZFSE_ENCODE_LITERAL_STATES + 1];
+
+    static {
+        for (int f = 1; f <= LZFSE_ENCODE_LITERAL_STATES; f++)
+            FREQ_COST[f] = (int) Math.round(16 * Math.log((double) LZFSE_ENCODE_LITERAL_STATES / f) / Math.log(2));
+    }
 
-        return lzfse_encode_matches_goto_END(s, ok, n_literals0, dst0);
+    //  Cached freq tables are kept while they encode a block at most
+    //  1/2^LZFSE_TABLE_REUSE_SHIFT larger than its own.
+    static final int LZFSE_TABLE_REUSE_SHIFT = 7;
+
+    /*! @abstract Keep the cached freq table \p freq, and its encoder table \p t, to
+     * encode the \p occ occurrences of a block, if \p cached and they encode them
+     * about as well as \p new_freq, the normalized \p occ. Otherwise copy
+     * \p new_freq to \p freq and initialize \p t from it.
+     * @return 1 if the tables were replaced, 0 if kept. */
+    private static int lzfse_update_table(int nstates, int nsymbols, final int/*uint32_t*/[] occ,
+                                          final short/*uint16_t*/[] new_freq, short/*uint16_t*/[] freq,
+                                          long[] t, boolean cached) {
+        if (cached) {
+            final int scale = LZFSE_ENCODE_LITERAL_STATES / nstates;
+            long cost = 0;
+            long new_cost = 0;
+            for (int i = 0; i < nsymbols && cost >= 0; i++) {
+                final int n = occ[i];
+                if (n == 0)
+                    continue;
+                if (freq[i] == 0)
+                    cost = -1; // cannot encode this symbol
+                else
+                    cost += (long) n * FREQ_COST[freq[i] * scale];
+                new_cost += (long) n * FREQ_COST[new_freq[i] * scale];
+            }
+            if (cost >= 0 && cost <= new_cost + (new_cost >> LZFSE_TABLE_REUSE_SHIFT))
+                return 0;
+        }
+        System.arraycopy(new_freq, 0, freq, 0, nsymbols);
+        fse_init_encoder_table(nstates, nsymbols, freq, t);
+        return 1;
     }
 
-    private static void update_dst_header(ByteBuffer dst, final InternalBlockHeaderObjects.lzfse_compressed_block_header_v2 header, final int header_size) {
+    private static void update_dst_header(ByteBuffer dst, final int/*uint8_t*/ header_position, final InternalBlockHeaderObjects.lzfse_compressed_block_header_v2 header, final int header_size) {
         final byte[] header_array = InternalBlockHeaderObjects.lzfse_compressed_block_header_v2.toByteBuffer(header).array();
         final int current_position = dst.position();
-        dst.position(0);
+        dst.position(header_position);
         dst.put(header_array, 0, header_size);
         dst.position(current_position);
     }
 
-    private static int lzfse_encode_matches_goto_END(final InternalStateObjects.lzfse_encoder_state s, final int ok, final int/*uint32_t*/ n_literals0, final byte/*uint8_t*/[] dst0) {
+    private static int lzfse_encode_matches_goto_END(final InternalStateObjects.lzfse_encoder_state s, final int ok, final int/*uint32_t*/ n_literals0, final int/*uint8_t*/ dst_block_start) {
         if (0 == ok) {
             // Revert state, DST was full
 
@@ -304,8 +356,8 @@ public class EncodeBackEnd {
             // Revert literal count
             s.n_literals = n_literals0;
 
-            // Revert DST
-            s.dst.clear().put(dst0);
+            // Revert DST, whatever was written past the block start is ignored
+            s.dst.position(dst_block_start);
 
             return LZFSE_STATUS_DST_FULL; // DST full
         }
@@ -333,24 +385,11 @@ public class EncodeBackEnd {
         s.d_values[n] = D;
 
         // Store literals
-        ByteBuffer/*uint8_t*/ dst = LittleEndianByteBuffer.wrap(s.literals, s.n_literals);
-        final ByteBuffer/*uint8_t*/ src = LittleEndianByteBuffer.duplicate(s.src, Math.toIntExact(s.src_literal));
-        final int dst_end = dst.position() + L;//uint8_t * dst_end = dst + L;
-        if (s.src_literal + L + 16 > s.src_end) {
-            // Careful at the end of SRC, we can't read 16 bytes
-            if (L > 0)
-                dst.put(src.array(), src.position(), L);//memcpy(dst, src, L);
-        } else {
-            copy16(dst, src);
-//            skip(dst, 16);
-//            skip(src, 16);
-            while (dst.position() < dst_end) {
-                copy16(dst, src);
-//                skip(dst, 16);
-//                skip(src, 16);
-            }
-        }
-        DBG_lzfse_push_lmd++;
+        //  (a single bulk copy here: the C code copies 16 bytes at a time, using the
+        //  margin above)
+        final ByteBuffer/*uint8_t*/ src = s.src;
+        LittleEndianByteBuffer.get(src, src.position() + Math.toIntExact(s.src_literal),
+                s.literals, s.n_literals, L);//memcpy(dst, src, L);
         s.n_literals += L;
 
         // Update state
@@ -359,8 +398,6 @@ public class EncodeBackEnd {
         return LZFSE_STATUS_OK;
     }
 
-    static int DBG_lzfse_push_lmd = 0;
-
     /*! @abstract Split MATCH into one or more L,M,D parts, and push to STATE.
      * @return LZFSE_STATUS_OK if OK.
      * @return LZFSE_STATUS_DST_FULL if the match can't be pushed, meaning one of the
@@ -381,7 +418,7 @@ public class EncodeBackEnd {
         while (L > LZFSE_ENCODE_MAX_L_VALUE) {
             if (lzfse_push_lmd(s, LZFSE_ENCODE_MAX_L_VALUE, 0, 1) != 0) {
                 ok = 0;
-                return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, n_literals0);//goto END;
+                return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, src_literals0);//goto END;
             } // take D=1 because most frequent, but not actually used
             L -= LZFSE_ENCODE_MAX_L_VALUE;
         }
@@ -390,7 +427,7 @@ public class EncodeBackEnd {
         while (M > LZFSE_ENCODE_MAX_M_VALUE) {
             if (lzfse_push_lmd(s, L, LZFSE_ENCODE_MAX_M_VALUE, D) != 0) {
                 ok = 0;
-                return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, n_literals0);//goto END;
+                return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, src_literals0);//goto END;
             }
             L = 0;
             M -= LZFSE_ENCODE_MAX_M_VALUE;
@@ -400,14 +437,14 @@ public class EncodeBackEnd {
         if (L > 0 || M > 0) {
             if (lzfse_push_lmd(s, L, M, D) != 0) {
                 ok = 0;
-                return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, n_literals0);//goto END;
+                return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, src_literals0);//goto END;
             }
 //            L = M = 0;
 //            (void) L;
 //            (void) M; // dead stores//TODO do something with these dead stores?
         }
 
-        return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, n_literals0);
+        return lzfse_push_match_goto_END(s, ok, n_matches0, n_literals0, src_literals0);
     }
 
     private static int lzfse_push_match_goto_END(final InternalStateObjects.lzfse_encoder_state s, final int ok,
@@ -452,7 +489,7 @@ public class EncodeBackEnd {
      * the buffers is full. In that case the state is not modified. */
     static int lzfse_backend_literals(InternalStateObjects.lzfse_encoder_state s, long/*lzfse_offset*/ L) {
         // Create a fake match with M=0, D=1
-        Internal.lzfse_match match = new Internal.lzfse_match();
+        Internal.lzfse_match match = s.literals_match;
         long/*lzfse_offset*/ pos = s.src_literal + L;
         match.pos = pos;
         match.ref = match.pos - 1;
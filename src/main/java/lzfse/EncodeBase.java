@@ -11,16 +11,15 @@ import static lzfse.Internal.LZFSE_ENCODE_L_SYMBOLS;
 import static lzfse.Internal.LZFSE_ENCODE_MAX_M_VALUE;
 import static lzfse.Internal.LZFSE_ENCODE_M_SYMBOLS;
 import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDV2_BLOCK_MAGIC;
-import static lzfse.Tunables.LZFSE_ENCODE_HASH_BITS;
 
 public class EncodeBase {
     private EncodeBase() {
     }
 
-    /*! @abstract Get hash in range [0, LZFSE_ENCODE_HASH_VALUES-1] from 4 bytes in X. */
-    static int/*uint32_t*/ hashX(int/*uint32_t*/ x) {
+    /*! @abstract Get hash in range [0, (1 << hash_bits)-1] from 4 bytes in X. */
+    static int/*uint32_t*/ hashX(int/*uint32_t*/ x, int hash_bits) {
         return ((int) (x * 2654435761L)) >>>
-                (32 - LZFSE_ENCODE_HASH_BITS); // Knuth multiplicative hash
+                (32 - hash_bits); // Knuth multiplicative hash
     }
 
     /*! @abstract Return value with all 0 except nbits<=32 unsigned bits from V
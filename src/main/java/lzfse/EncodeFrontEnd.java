@@ -7,90 +7,60 @@ import static lzfse.EncodeBackEnd.lzfse_backend_literals;
 import static lzfse.EncodeBackEnd.lzfse_backend_match;
 import static lzfse.EncodeBase.LZFSE_ENCODE_MAX_MATCH_LENGTH;
 import static lzfse.EncodeBase.hashX;
+import static lzfse.EncodeOptimal.lzfse_encode_base_optimal;
 import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
 import static lzfse.Internal.LZFSE_ENCODE_MAX_L_VALUE;
+import static lzfse.Internal.LZFSE_HISTORY_SET_POS;
 import static lzfse.Internal.LZFSE_STATUS_DST_FULL;
 import static lzfse.Internal.LZFSE_STATUS_OK;
 import static lzfse.Internal.__builtin_ctzll;
-import static lzfse.Internal.load4;
-import static lzfse.Internal.load8;
-import static lzfse.Tunables.LZFSE_ENCODE_GOOD_MATCH;
-import static lzfse.Tunables.LZFSE_ENCODE_HASH_WIDTH;
+import static lzfse.Internal.lzfse_history_set_ints;
+import static lzfse.Internal.lzfse_history_set_value;
 
 public class EncodeFrontEnd {
 
+    //  Gain a match found by the lazy parser must have over the pending match to
+    //  replace it, see lzfse_match_gain. Tuned on the test corpus.
+    static final int LZFSE_ENCODE_LAZY_MIN_GAIN = 2;
+
     static int lzfse_encode_base(InternalStateObjects.lzfse_encoder_state s) {
-        Internal.lzfse_history_set[] history_table = s.history_table;
-        Internal.lzfse_history_set hashLine;
-        Internal.lzfse_history_set newH;
-        final Internal.lzfse_match NO_MATCH = new Internal.lzfse_match();//{0};
+        if (s.optimal != null)
+            return lzfse_encode_base_optimal(s);
+        if (s.lazy_depth > 0)
+            return lzfse_encode_base_lazy(s);
+        final int[] history_table = s.history_table;
+        int hashLine; // index of the first int of the hash line in history_table
+        final int hash_bits = s.hash_bits;
+        final int hash_width = s.hash_width;
+        final int set_value = lzfse_history_set_value(hash_width);
+        final int set_ints = lzfse_history_set_ints(hash_width);
+        final int good_match = s.good_match;
+        final ByteBuffer/*uint8_t*/ src = s.src;
+        final int/*uint8_t*/ src_begin = src.position(); // offsets are relative to this
+        final Internal.lzfse_match incoming = new Internal.lzfse_match(); // reused for every position
         int ok = 1;
 
-        newH = new Internal.lzfse_history_set();//memset(&newH, 0x00, sizeof(newH));
-
         // 8 byte padding at end of buffer
         s.src_encode_end = s.src_end - 8;
         for (; s.src_encode_i < s.src_encode_end; s.src_encode_i++) {
             long/*lzfse_offset*/ pos = s.src_encode_i; // pos >= 0
-
-            if (s.src_encode_i == 3865) {
-                int DBG = 0;
-            }
             // Load 4 byte value and get hash line
-            int/*uint32_t*/ x = load4(LittleEndianByteBuffer.duplicate(s.src, Math.toIntExact(pos)));
-            hashLine = history_table[hashX(x)];
-            Internal.lzfse_history_set h = hashLine;
-
-            // Prepare next hash line (component 0 is the most recent) to prepare new
-            // entries (stored later)
-            {
-                newH.pos[0] = (int) pos;
-                for (int k = 0; k < LZFSE_ENCODE_HASH_WIDTH - 1; k++)
-                    newH.pos[k + 1] = h.pos[k];
-                newH.value[0] = x;
-                for (int k = 0; k < LZFSE_ENCODE_HASH_WIDTH - 1; k++)
-                    newH.value[k + 1] = h.value[k];
-            }
+            int/*uint32_t*/ x = src.getInt(src_begin + (int) pos);
+            hashLine = hashX(x, hash_bits) * set_ints;
+            final int h_pos = hashLine + LZFSE_HISTORY_SET_POS;
+            final int h_value = hashLine + set_value;
+
+            // The next hash line (component 0 is the most recent) is stored in place
+            // by update_history_line once we are done reading this one.
 
             // Do not look for a match if we are still covered by a previous match
             if (pos < s.src_literal) {
-                hashLine.set(newH);
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
                 continue;//goto END_POS;
             }
 
-            // Search best incoming match
-            Internal.lzfse_match incoming = new Internal.lzfse_match(pos, 0, 0);
-
-            // Check for matches.  We consider matches of length >= 4 only.
-            for (int k = 0; k < LZFSE_ENCODE_HASH_WIDTH; k++) {
-                int/*uint32_t*/ d = h.value[k] ^ x;
-                if (d != 0)
-                    continue; // no 4 byte match
-                int ref = h.pos[k];
-                if (ref + LZFSE_ENCODE_MAX_D_VALUE < pos)
-                    continue; // too far
-
-                final ByteBuffer /*uint8_t*/ src_ref = LittleEndianByteBuffer.duplicate(s.src, ref);
-                final ByteBuffer /*uint8_t*/  src_pos = LittleEndianByteBuffer.duplicate(s.src, Math.toIntExact(pos));
-                int/*uint32_t*/ length = 4;
-                int/*uint32_t*/ maxLength =
-                        (int/*uint32_t*/) (s.src_end - pos - 8); // ensure we don't hit the end of SRC
-                while (length < maxLength) {
-                    long/*uint64_t*/ dee = load8(LittleEndianByteBuffer.duplicate(src_ref, length)) ^ load8(LittleEndianByteBuffer.duplicate(src_pos, length));
-                    if (dee == 0) {
-                        length += 8;
-                        continue;
-                    }
-
-                    length +=
-                            (__builtin_ctzll(dee) >>> 3); // ctzll must be called only with D != 0
-                    break;
-                }
-                if (length > incoming.length) {
-                    incoming.length = length;
-                    incoming.ref = ref;
-                } // keep if longer
-            }
+            // Search best incoming match, expanded backwards
+            lzfse_longest_match(s, history_table, hash_width, h_pos, h_value, pos, x, incoming);
 
             // No incoming match?
             if (incoming.length == 0) {
@@ -108,7 +78,7 @@ public class EncodeFrontEnd {
                             ok = 0;
                             return lzfse_encode_base_goto_END(ok);//goto END;
                         }
-                        s.pending = NO_MATCH;
+                        s.pending.set(0, 0, 0);//NO_MATCH
                     } else {
                         // No pending match, emit a full LZFSE_ENCODE_MAX_L_VALUE block of
                         // literals
@@ -119,42 +89,27 @@ public class EncodeFrontEnd {
                         }
                     }
                 }
-                hashLine.set(newH);
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
                 continue;//goto END_POS;
             }
 
-            // Limit match length (it may still be expanded backwards, but this is
-            // bounded by the limit on literals we tested before)
-            if (incoming.length > LZFSE_ENCODE_MAX_MATCH_LENGTH) {
-                incoming.length = LZFSE_ENCODE_MAX_MATCH_LENGTH;
-            }
-
-            // Expand backwards (since this is expensive, we do this for the best match
-            // only)
-            while (incoming.pos > s.src_literal && incoming.ref > 0 &&
-                    s.src.get(Math.toIntExact(incoming.ref - 1)) == s.src.get(Math.toIntExact(incoming.pos - 1))) {
-                incoming.pos--;
-                incoming.ref--;
-            }
-            incoming.length += pos - incoming.pos; // update length after expansion
-
             // Match filtering heuristic (from LZVN). INCOMING is always defined here.
 
             // Incoming is 'good', emit incoming
-            if (incoming.length >= LZFSE_ENCODE_GOOD_MATCH) {
+            if (incoming.length >= good_match) {
                 if (lzfse_backend_match(s, incoming) != LZFSE_STATUS_OK) {
                     ok = 0;
                     return lzfse_encode_base_goto_END(ok);//goto END;
                 }
-                s.pending = NO_MATCH;
-                hashLine.set(newH);
+                s.pending.set(0, 0, 0);//NO_MATCH
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
                 continue;//goto END_POS;
             }
 
             // No pending, keep incoming
             if (s.pending.length == 0) {
-                s.pending = incoming;
-                hashLine.set(newH);
+                s.pending.set(incoming);
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
                 continue;//goto END_POS;
             }
 
@@ -164,8 +119,8 @@ public class EncodeFrontEnd {
                     ok = 0;
                     return lzfse_encode_base_goto_END(ok);//goto END;
                 }
-                s.pending = incoming;
-                hashLine.set(newH);
+                s.pending.set(incoming);
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
                 continue;//goto END_POS;
             }
 
@@ -181,30 +136,173 @@ public class EncodeFrontEnd {
                     return lzfse_encode_base_goto_END(ok);//goto END;
                 }
             }
-            s.pending = NO_MATCH;
+            s.pending.set(0, 0, 0);//NO_MATCH
 
             END_POS:
             // We are done with this src_encode_i.
             // Update state now (s.pending has already been updated).
-            hashLine.set(newH);
+            update_history_line(history_table, hash_width, hashLine, (int) pos, x);
         }
 
         END:
         return lzfse_encode_base_goto_END(ok);
     }
 
+    /*! @abstract Same as lzfse_encode_base, with lazy matching. A match is kept pending
+     * while the next s.lazy_depth positions are searched, and replaced by a match found
+     * there if that one is worth more, see lzfse_match_gain. Matches of at least
+     * s.good_match bytes are emitted at once. */
+    static int lzfse_encode_base_lazy(InternalStateObjects.lzfse_encoder_state s) {
+        final int[] history_table = s.history_table;
+        final int hash_bits = s.hash_bits;
+        final int hash_width = s.hash_width;
+        final int set_value = lzfse_history_set_value(hash_width);
+        final int set_ints = lzfse_history_set_ints(hash_width);
+        final int good_match = s.good_match;
+        final int lazy_depth = s.lazy_depth;
+        final ByteBuffer/*uint8_t*/ src = s.src;
+        final int/*uint8_t*/ src_begin = src.position(); // offsets are relative to this
+        final Internal.lzfse_match incoming = new Internal.lzfse_match(); // reused for every position
+
+        // 8 byte padding at end of buffer
+        s.src_encode_end = s.src_end - 8;
+        for (; s.src_encode_i < s.src_encode_end; s.src_encode_i++) {
+            long/*lzfse_offset*/ pos = s.src_encode_i; // pos >= 0
+            // Load 4 byte value and get hash line
+            int/*uint32_t*/ x = src.getInt(src_begin + (int) pos);
+            final int hashLine = hashX(x, hash_bits) * set_ints;
+
+            // Do not look for a match if we are still covered by a previous match
+            if (pos < s.src_literal) {
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
+                continue;
+            }
+
+            lzfse_longest_match(s, history_table, hash_width, hashLine + LZFSE_HISTORY_SET_POS,
+                    hashLine + set_value, pos, x, incoming);
+
+            if (s.pending.length > 0) {
+                // Keep the better match. A pending match found at most lazy_depth <= 3
+                // positions ago is at least 4 bytes long, so it always overlaps INCOMING.
+                if (incoming.length > 0 &&
+                        lzfse_match_gain(incoming) > lzfse_match_gain(s.pending) + LZFSE_ENCODE_LAZY_MIN_GAIN) {
+                    s.pending.set(incoming);
+                    s.pending_found = pos;
+                }
+                // Emit it once compared with the next lazy_depth positions
+                if (pos - s.pending_found >= lazy_depth || s.pending.length >= good_match) {
+                    if (lzfse_backend_match(s, s.pending) != LZFSE_STATUS_OK)
+                        return LZFSE_STATUS_DST_FULL;
+                    s.pending.set(0, 0, 0);//NO_MATCH
+                }
+            } else if (incoming.length >= good_match) {
+                // Incoming is 'good', emit incoming
+                if (lzfse_backend_match(s, incoming) != LZFSE_STATUS_OK)
+                    return LZFSE_STATUS_DST_FULL;
+            } else if (incoming.length > 0) {
+                s.pending.set(incoming);
+                s.pending_found = pos;
+            } else if (pos - s.src_literal > 8 * LZFSE_ENCODE_MAX_L_VALUE) {
+                // Do not lag too far behind the search point, see lzfse_encode_base
+                if (lzfse_backend_literals(s, LZFSE_ENCODE_MAX_L_VALUE) != LZFSE_STATUS_OK)
+                    return LZFSE_STATUS_DST_FULL;
+            }
+            update_history_line(history_table, hash_width, hashLine, (int) pos, x);
+        }
+        return LZFSE_STATUS_OK;
+    }
+
+    /*! @abstract Worth of \p match for the lazy parser: 4 per byte, less the number of bits
+     * of the distance, which costs more extra bits as it grows. */
+    private static int lzfse_match_gain(final Internal.lzfse_match match) {
+        return 4 * match.length - (Integer.SIZE - Integer.numberOfLeadingZeros((int) (match.pos - match.ref)));
+    }
+
+    /*! @abstract Set \p incoming to the longest match at \p pos among the candidates of the
+     * hash line at \p h_pos, \p h_value, for the 4 bytes \p x at \p pos. The match is limited
+     * to LZFSE_ENCODE_MAX_MATCH_LENGTH, then expanded backwards down to s.src_literal.
+     * \p incoming.length is 0 if there is no match. */
+    private static void lzfse_longest_match(InternalStateObjects.lzfse_encoder_state s, int[] history_table, int hash_width,
+                                            int h_pos, int h_value, long/*lzfse_offset*/ pos, int/*uint32_t*/ x,
+                                            Internal.lzfse_match incoming) {
+        final ByteBuffer/*uint8_t*/ src = s.src;
+        final int/*uint8_t*/ src_begin = src.position(); // offsets are relative to this
+
+        incoming.set(pos, 0, 0);
+
+        // Check for matches.  We consider matches of length >= 4 only.
+        for (int k = 0; k < hash_width; k++) {
+            int/*uint32_t*/ d = history_table[h_value + k] ^ x;
+            if (d != 0)
+                continue; // no 4 byte match
+            int ref = history_table[h_pos + k];
+            if (ref + LZFSE_ENCODE_MAX_D_VALUE < pos)
+                continue; // too far
+
+            final int/*uint8_t*/ src_ref = src_begin + ref;
+            final int/*uint8_t*/ src_pos = src_begin + (int) pos;
+            int/*uint32_t*/ length = 4;
+            int/*uint32_t*/ maxLength =
+                    (int/*uint32_t*/) (s.src_end - pos - 8); // ensure we don't hit the end of SRC
+            while (length < maxLength) {
+                long/*uint64_t*/ dee = src.getLong(src_ref + length) ^ src.getLong(src_pos + length);
+                if (dee == 0) {
+                    length += 8;
+                    continue;
+                }
+
+                length +=
+                        (__builtin_ctzll(dee) >>> 3); // ctzll must be called only with D != 0
+                break;
+            }
+            if (length > incoming.length) {
+                incoming.length = length;
+                incoming.ref = ref;
+            } // keep if longer
+        }
+        if (incoming.length == 0)
+            return; // no match
+
+        // Limit match length (it may still be expanded backwards, but this is
+        // bounded by the limit on literals we tested before)
+        if (incoming.length > LZFSE_ENCODE_MAX_MATCH_LENGTH) {
+            incoming.length = LZFSE_ENCODE_MAX_MATCH_LENGTH;
+        }
+
+        // Expand backwards (since this is expensive, we do this for the best match
+        // only)
+        while (incoming.pos > s.src_literal && incoming.ref > 0 &&
+                src.get(src_begin + (int) (incoming.ref - 1)) == src.get(src_begin + (int) (incoming.pos - 1))) {
+            incoming.pos--;
+            incoming.ref--;
+        }
+        incoming.length += pos - incoming.pos; // update length after expansion
+    }
+
+    /*! @abstract Shift the hash line of \p hash_width entries starting at \p line in
+     * \p history_table by one entry, and store \p pos, \p x as the most recent entry
+     * (component 0). */
+    static void update_history_line(int[] history_table, int hash_width, int line, int pos, int/*uint32_t*/ x) {
+        final int h_pos = line + LZFSE_HISTORY_SET_POS;
+        final int h_value = line + lzfse_history_set_value(hash_width);
+        for (int k = hash_width - 1; k > 0; k--) {
+            history_table[h_pos + k] = history_table[h_pos + k - 1];
+            history_table[h_value + k] = history_table[h_value + k - 1];
+        }
+        history_table[h_pos] = pos;
+        history_table[h_value] = x;
+    }
+
     private static int lzfse_encode_base_goto_END(final int ok) {
         return ok != 0 ? LZFSE_STATUS_OK : LZFSE_STATUS_DST_FULL;
     }
 
     static int lzfse_encode_finish(InternalStateObjects.lzfse_encoder_state s) {
-        final Internal.lzfse_match NO_MATCH = new Internal.lzfse_match();//{0};
-
         // Emit pending match
         if (s.pending.length > 0) {
             if (lzfse_backend_match(s, s.pending) != LZFSE_STATUS_OK)
                 return LZFSE_STATUS_DST_FULL;
-            s.pending = NO_MATCH;
+            s.pending.set(0, 0, 0);//NO_MATCH
         }
 
         // Emit final literals if any
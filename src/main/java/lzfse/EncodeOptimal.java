@@ -0,0 +1,297 @@
+package lzfse;
+
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v1;
+import lzfse.InternalStateObjects.lzfse_encoder_state;
+import lzfse.InternalStateObjects.lzfse_optimal_state;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static lzfse.EncodeBackEnd.lzfse_backend_literals;
+import static lzfse.EncodeBackEnd.lzfse_backend_match;
+import static lzfse.EncodeBase.LZFSE_ENCODE_MAX_MATCH_LENGTH;
+import static lzfse.EncodeBase.hashX;
+import static lzfse.EncodeFrontEnd.update_history_line;
+import static lzfse.EncodeTables.d_base_from_value;
+import static lzfse.EncodeTables.l_base_from_value;
+import static lzfse.EncodeTables.m_base_from_value;
+import static lzfse.FSE.fse_normalize_freq;
+import static lzfse.Internal.LZFSE_ENCODE_D_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_D_SYMBOLS;
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_LITERAL_SYMBOLS;
+import static lzfse.Internal.LZFSE_ENCODE_L_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_L_SYMBOLS;
+import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
+import static lzfse.Internal.LZFSE_ENCODE_MAX_L_VALUE;
+import static lzfse.Internal.LZFSE_ENCODE_MAX_M_VALUE;
+import static lzfse.Internal.LZFSE_ENCODE_M_STATES;
+import static lzfse.Internal.LZFSE_ENCODE_M_SYMBOLS;
+import static lzfse.Internal.LZFSE_HISTORY_SET_POS;
+import static lzfse.Internal.LZFSE_STATUS_DST_FULL;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+import static lzfse.Internal.__builtin_ctzll;
+import static lzfse.Internal.d_extra_bits;
+import static lzfse.Internal.l_extra_bits;
+import static lzfse.Internal.lzfse_history_set_ints;
+import static lzfse.Internal.lzfse_history_set_value;
+import static lzfse.Internal.m_extra_bits;
+
+/** MARK: - Optimal parser
+ *
+ *  Instead of deciding on matches as it goes, the optimal parser looks at a window of
+ *  positions at once, and picks the sequence of literals and matches with the lowest
+ *  estimated encoded size over the window: a shortest path search, where each position
+ *  is a node, each literal an edge to the next node, and each match an edge to the node
+ *  after it. Edges are priced from the frequency tables of the last block encoded, as
+ *  FSE encodes a symbol of normalized frequency F out of N states in about log2(N/F)
+ *  bits, plus the extra bits of L, M and D values. */
+class EncodeOptimal {
+    private EncodeOptimal() {
+    }
+
+    //  Number of positions searched for matches per window.
+    static final int LZFSE_OPTIMAL_WINDOW = 4096;
+    //  Prices are in fractions of a bit.
+    static final int LZFSE_PRICE_ONE_BIT  = 16;
+
+    /*! @abstract Set the prices of \p o for uniform frequencies, used until a first
+     * block has been encoded. */
+    static void lzfse_optimal_default_prices(lzfse_optimal_state o) {
+        final lzfse_compressed_block_header_v1 header = new lzfse_compressed_block_header_v1();
+        final int[] occ = new int[LZFSE_ENCODE_LITERAL_SYMBOLS];
+        Arrays.fill(occ, 1);
+        fse_normalize_freq(LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, occ, header.l_freq);
+        fse_normalize_freq(LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, occ, header.m_freq);
+        fse_normalize_freq(LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, occ, header.d_freq);
+        fse_normalize_freq(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS, occ, header.literal_freq);
+        lzfse_optimal_update_prices(o, header);
+    }
+
+    /*! @abstract Set the prices of \p o from the normalized frequency tables of the block
+     * header \p h. */
+    static void lzfse_optimal_update_prices(lzfse_optimal_state o, final lzfse_compressed_block_header_v1 h) {
+        for (int i = 0; i < LZFSE_ENCODE_LITERAL_SYMBOLS; i++) {
+            o.literal_price[i] = symbol_price(LZFSE_ENCODE_LITERAL_STATES, LZFSE_ENCODE_LITERAL_SYMBOLS, h.literal_freq[i]);
+        }
+        for (int l = 0; l <= LZFSE_ENCODE_MAX_L_VALUE; l++) {
+            final int symbol = l_base_from_value(l);
+            o.l_price[l] = symbol_price(LZFSE_ENCODE_L_STATES, LZFSE_ENCODE_L_SYMBOLS, h.l_freq[symbol]) + l_extra_bits[symbol] * LZFSE_PRICE_ONE_BIT;
+        }
+        for (int m = 0; m <= LZFSE_ENCODE_MAX_M_VALUE; m++) {
+            final int symbol = m_base_from_value(m);
+            o.m_price[m] = symbol_price(LZFSE_ENCODE_M_STATES, LZFSE_ENCODE_M_SYMBOLS, h.m_freq[symbol]) + m_extra_bits[symbol] * LZFSE_PRICE_ONE_BIT;
+        }
+        for (int symbol = 0; symbol < LZFSE_ENCODE_D_SYMBOLS; symbol++) {
+            o.d_price[symbol] = symbol_price(LZFSE_ENCODE_D_STATES, LZFSE_ENCODE_D_SYMBOLS, h.d_freq[symbol]) + d_extra_bits[symbol] * LZFSE_PRICE_ONE_BIT;
+        }
+    }
+
+    //  Price of a symbol of normalized frequency FREQ out of NSTATES, among NSYMBOLS.
+    //  The frequency is mixed with a uniform one, 4 to 1, so that symbols that did not
+    //  occur in the last block keep a finite price: after a block of literals only,
+    //  matches would otherwise look too expensive to ever be taken again.
+    private static int symbol_price(final int nstates, final int nsymbols, final short/*uint16_t*/ freq) {
+        final double f = (4.0 * freq + (double) nstates / nsymbols) / 5;
+        final double bits = Math.log(nstates / f) / Math.log(2);
+        return (int) Math.round(bits * LZFSE_PRICE_ONE_BIT);
+    }
+
+    /*! @abstract Same as lzfse_encode_base, with the optimal parser. Matches of at least
+     * s.good_match bytes end the window, and are taken as they are. */
+    static int lzfse_encode_base_optimal(lzfse_encoder_state s) {
+        final lzfse_optimal_state o = s.optimal;
+        final int[] history_table = s.history_table;
+        final int hash_bits = s.hash_bits;
+        final int hash_width = s.hash_width;
+        final int set_value = lzfse_history_set_value(hash_width);
+        final int set_ints = lzfse_history_set_ints(hash_width);
+        final int sufficient = lzfse_optimal_sufficient_length(s.good_match);
+        final ByteBuffer/*uint8_t*/ src = s.src;
+        final int/*uint8_t*/ src_begin = src.position(); // offsets are relative to this
+        final Internal.lzfse_match match = new Internal.lzfse_match(); // reused for every match
+
+        // 8 byte padding at end of buffer
+        s.src_encode_end = s.src_end - 8;
+        while (s.src_encode_i < s.src_encode_end) {
+            final long/*lzfse_offset*/ p0 = s.src_encode_i;
+
+            // Positions covered by a previous match are only hashed
+            if (p0 < s.src_literal) {
+                final int x = src.getInt(src_begin + (int) p0);
+                update_history_line(history_table, hash_width, hashX(x, hash_bits) * set_ints, (int) p0, x);
+                s.src_encode_i++;
+                continue;
+            }
+            // Do not lag too far behind the window, see lzfse_encode_base
+            while (p0 - s.src_literal > 8 * LZFSE_ENCODE_MAX_L_VALUE) {
+                if (lzfse_backend_literals(s, LZFSE_ENCODE_MAX_L_VALUE) != LZFSE_STATUS_OK)
+                    return LZFSE_STATUS_DST_FULL;
+            }
+
+            // Shortest path from node 0, at P0, up to node END
+            final int window = (int) Math.min(LZFSE_OPTIMAL_WINDOW, s.src_encode_end - p0);
+            o.price[0] = 0;
+            o.litlen[0] = (int) (p0 - s.src_literal);
+            o.d_last[0] = s.n_matches > 0 ? s.d_values[s.n_matches - 1] : 0;
+            int end = 1;
+            o.price[1] = Integer.MAX_VALUE;
+            int long_length = 0, long_distance = 0; // match ending the window
+            int i = 0;
+            for (; i < end; i++) {
+                final long/*lzfse_offset*/ pos = p0 + i;
+                final int x = src.getInt(src_begin + (int) pos);
+                final int hashLine = hashX(x, hash_bits) * set_ints;
+
+                // Literal edge
+                final int literal = o.price[i] + o.literal_price[src.get(src_begin + (int) pos) & 0xff];
+                if (literal < o.price[i + 1])
+                    set_node(o, i + 1, literal, o.litlen[i] + 1, o.d_last[i], i, 0, 0);
+
+                // Match edges, from positions in the window
+                int n = 0;
+                if (i < window) {
+                    final int max_length = (int) Math.min(s.src_end - pos - 8, LZFSE_ENCODE_MAX_MATCH_LENGTH);
+                    if (o.d_last[i] > 0 && pos - o.d_last[i] >= 0)
+                        n = add_candidate(o, n, match_length(src, src_begin, pos - o.d_last[i], pos, max_length), o.d_last[i]);
+                    for (int k = 0; k < hash_width; k++) {
+                        if (history_table[hashLine + set_value + k] != x)
+                            continue; // no 4 byte match
+                        final int ref = history_table[hashLine + LZFSE_HISTORY_SET_POS + k];
+                        if (ref + LZFSE_ENCODE_MAX_D_VALUE < pos)
+                            continue; // too far
+                        n = add_candidate(o, n, match_length(src, src_begin, ref, pos, max_length), (int) (pos - ref));
+                    }
+                }
+                update_history_line(history_table, hash_width, hashLine, (int) pos, x);
+                if (n > 0 && o.candidate_length[n - 1] >= sufficient) {
+                    // Long enough: take it, and end the window here
+                    long_length = o.candidate_length[n - 1];
+                    long_distance = o.candidate_distance[n - 1];
+                    break;
+                }
+
+                // For each length, the candidate of that length or longer with the
+                // cheapest distance
+                for (int c = 0; c < n; c++) {
+                    o.candidate_price[c] = distance_price(o, o.candidate_distance[c], o.d_last[i]);
+                }
+                final int literals = o.price[i] + literals_price(o, o.litlen[i]);
+                int length = 4;
+                for (int c = 0; c < n; c++) {
+                    int best = c;
+                    for (int c2 = c + 1; c2 < n; c2++) {
+                        if (o.candidate_price[c2] < o.candidate_price[best])
+                            best = c2;
+                    }
+                    final int distance = o.candidate_distance[best];
+                    final int base = literals + o.candidate_price[best];
+                    for (; length <= o.candidate_length[c]; length++) {
+                        final int j = i + length;
+                        while (end < j) {
+                            o.price[++end] = Integer.MAX_VALUE;
+                        }
+                        final int price = base + o.m_price[length];
+                        if (price < o.price[j])
+                            set_node(o, j, price, 0, distance, i, length, distance);
+                    }
+                }
+                if (i + 1 == end && i + 1 < window) {
+                    o.price[++end] = Integer.MAX_VALUE;
+                }
+            }
+
+            // Emit the matches of the path, in order, then the match ending the window
+            final int last = i;
+            int count = 0;
+            for (int j = last; j > 0; j = o.from[j]) {
+                if (o.m_length[j] > 0)
+                    o.path[count++] = j;
+            }
+            while (count > 0) {
+                final int j = o.path[--count];
+                match.pos = p0 + j - o.m_length[j];
+                match.ref = match.pos - o.m_distance[j];
+                match.length = o.m_length[j];
+                if (lzfse_backend_match(s, match) != LZFSE_STATUS_OK)
+                    return LZFSE_STATUS_DST_FULL;
+            }
+            if (long_length > 0) {
+                match.pos = p0 + last;
+                match.ref = match.pos - long_distance;
+                match.length = long_length;
+                if (lzfse_backend_match(s, match) != LZFSE_STATUS_OK)
+                    return LZFSE_STATUS_DST_FULL;
+                s.src_encode_i = p0 + last + 1; // the rest of the match is only hashed
+            } else {
+                s.src_encode_i = p0 + last;
+            }
+        }
+        return LZFSE_STATUS_OK;
+    }
+
+    /*! @abstract Length of the matches the optimal parser takes without searching
+     * further, for the good match length \p good_match. */
+    static int lzfse_optimal_sufficient_length(final int good_match) {
+        return Math.min(good_match, LZFSE_ENCODE_MAX_M_VALUE);
+    }
+
+    private static void set_node(lzfse_optimal_state o, int j, int price, int litlen, int d_last,
+                                 int from, int m_length, int m_distance) {
+        o.price[j] = price;
+        o.litlen[j] = litlen;
+        o.d_last[j] = d_last;
+        o.from[j] = from;
+        o.m_length[j] = m_length;
+        o.m_distance[j] = m_distance;
+    }
+
+    //  Price of the L value of a match after LITLEN literals, the literals
+    //  themselves being priced on their own edges.
+    private static int literals_price(final lzfse_optimal_state o, final int litlen) {
+        if (litlen <= LZFSE_ENCODE_MAX_L_VALUE)
+            return o.l_price[litlen];
+        // Split into MAX_L_VALUE literals with no match, see lzfse_push_match
+        return (litlen / LZFSE_ENCODE_MAX_L_VALUE) * (o.l_price[LZFSE_ENCODE_MAX_L_VALUE] + o.m_price[0] + o.d_price[1]) +
+                o.l_price[litlen % LZFSE_ENCODE_MAX_L_VALUE];
+    }
+
+    //  Price of distance D after a match of distance D_LAST, which is encoded as 0.
+    private static int distance_price(final lzfse_optimal_state o, final int d, final int d_last) {
+        return o.d_price[d == d_last ? 0 : d_base_from_value(d)];
+    }
+
+    //  Add a candidate of LENGTH >= 4 and DISTANCE to the N candidates of O, sorted by
+    //  increasing length, and return the new number of candidates.
+    private static int add_candidate(lzfse_optimal_state o, int n, final int length, final int distance) {
+        if (length < 4)
+            return n;
+        int c = n;
+        for (; c > 0 && o.candidate_length[c - 1] > length; c--) {
+            o.candidate_length[c] = o.candidate_length[c - 1];
+            o.candidate_distance[c] = o.candidate_distance[c - 1];
+        }
+        o.candidate_length[c] = length;
+        o.candidate_distance[c] = distance;
+        return n + 1;
+    }
+
+    //  Length of the match at POS with REF, up to MAX_LENGTH, or 0 if below 4 bytes.
+    private static int match_length(final ByteBuffer src, final int src_begin, final long ref, final long pos, final int max_length) {
+        final int src_ref = src_begin + (int) ref;
+        final int src_pos = src_begin + (int) pos;
+        if (max_length < 4 || src.getInt(src_ref) != src.getInt(src_pos))
+            return 0;
+        int length = 4;
+        while (length < max_length) {
+            long/*uint64_t*/ dee = src.getLong(src_ref + length) ^ src.getLong(src_pos + length);
+            if (dee == 0) {
+                length += 8;
+                continue;
+            }
+            length += (__builtin_ctzll(dee) >>> 3);
+            break;
+        }
+        return Math.min(length, max_length);
+    }
+}
@@ -1,9 +1,15 @@
 package lzfse;
 
-import static lzfse.Internal.LZFSE_ENCODE_HASH_VALUES;
+import java.util.Arrays;
+
+import static lzfse.EncodeBase.hashX;
+import static lzfse.EncodeFrontEnd.update_history_line;
+import static lzfse.EncodeOptimal.lzfse_optimal_default_prices;
 import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
+import static lzfse.Internal.LZFSE_HISTORY_SET_POS;
 import static lzfse.Internal.LZFSE_STATUS_OK;
-import static lzfse.Tunables.LZFSE_ENCODE_HASH_WIDTH;
+import static lzfse.Internal.lzfse_history_set_ints;
+import static lzfse.Internal.lzfse_history_set_value;
 
 public class EncodeStateManagement {
 
@@ -16,21 +22,46 @@ public class EncodeStateManagement {
      @endcode
      * @return LZFSE_STATUS_OK */
     static int lzfse_encode_init(InternalStateObjects.lzfse_encoder_state s) {
-        final Internal.lzfse_match NO_MATCH = new Internal.lzfse_match();//{0};
-        Internal.lzfse_history_set line = new Internal.lzfse_history_set();
-        for (int i = 0; i < LZFSE_ENCODE_HASH_WIDTH; i++) {
-            line.pos[i] = -4 * LZFSE_ENCODE_MAX_D_VALUE; // invalid pos
-            line.value[i] = 0;
-        }
         // Fill table
-        for (int i = 0; i < LZFSE_ENCODE_HASH_VALUES; i++)
-            s.history_table[i] = new Internal.lzfse_history_set(line);
-        s.pending = NO_MATCH;
+        final int[] history_table = s.history_table;
+        final int width = s.hash_width;
+        final int set_value = lzfse_history_set_value(width);
+        final int set_ints = lzfse_history_set_ints(width);
+        for (int line = 0; line < set_ints << s.hash_bits; line += set_ints) {
+            Arrays.fill(history_table, line + LZFSE_HISTORY_SET_POS,
+                    line + LZFSE_HISTORY_SET_POS + width, -4 * LZFSE_ENCODE_MAX_D_VALUE); // invalid pos
+            Arrays.fill(history_table, line + set_value,
+                    line + set_value + width, 0);
+        }
+        s.pending.set(0, 0, 0);//NO_MATCH
         s.src_literal = 0;
+        s.tables.header_size = 0; // no freq tables yet
+        if (s.optimal != null)
+            lzfse_optimal_default_prices(s.optimal);
 
         return LZFSE_STATUS_OK; // OK
     }
 
+    /*! @abstract Hash the \p history_size bytes at the position of \p s.src, of a
+     * state just initialized, then translate the state past them. Matches may then
+     * refer to them at negative offsets, as to the end of a previous chunk. The last
+     * 3 bytes are not hashed, their 4-byte values depending on the bytes that follow.
+     * @return LZFSE_STATUS_OK */
+    static int lzfse_encode_prime(InternalStateObjects.lzfse_encoder_state s, int history_size) {
+        final int[] history_table = s.history_table;
+        final int hash_bits = s.hash_bits;
+        final int width = s.hash_width;
+        final int set_ints = lzfse_history_set_ints(width);
+        final int src_begin = s.src.position();
+        for (int pos = 0; pos + 4 <= history_size; pos++) {
+            final int/*uint32_t*/ x = s.src.getInt(src_begin + pos);
+            update_history_line(history_table, width, hashX(x, hash_bits) * set_ints, pos, x);
+        }
+        //  Nothing left to encode
+        s.src_end = s.src_encode_i = s.src_encode_end = s.src_literal = history_size;
+        return lzfse_encode_translate(s, history_size);
+    }
+
     /*! @abstract Translate state \p src forward by \p delta > 0.
      * Offsets in \p src are updated backwards to point to the same positions.
      * @return  LZFSE_STATUS_OK */
@@ -51,12 +82,15 @@ public class EncodeStateManagement {
         // Pending match
         s.pending.pos -= delta;
         s.pending.ref -= delta;
+        s.pending_found -= delta;
 
         // history_table positions, translated, and clamped to invalid pos
         int invalidPos = -4 * LZFSE_ENCODE_MAX_D_VALUE;
-        for (int i = 0; i < LZFSE_ENCODE_HASH_VALUES; i++) {
-            int[] p = s.history_table[i].pos;
-            for (int j = 0; j < LZFSE_ENCODE_HASH_WIDTH; j++) {
+        final int[] p = s.history_table;
+        final int width = s.hash_width;
+        final int set_ints = lzfse_history_set_ints(width);
+        for (int line = 0; line < set_ints << s.hash_bits; line += set_ints) {
+            for (int j = line + LZFSE_HISTORY_SET_POS; j < line + LZFSE_HISTORY_SET_POS + width; j++) {
                 long/*lzfse_offset*/ newPos = p[j] - delta; // translate
                 p[j] = (newPos < invalidPos) ? invalidPos : (int) newPos; // clamp
             }
@@ -5,51 +5,16 @@ import java.nio.ByteBuffer;
 import static lzfse.Internal.__builtin_clz;
 
 public class FSE {
-    // Mask the NBITS lsb of X. 0 <= NBITS < 64
+    // Mask the NBITS lsb of X. 0 <= NBITS <= 64
+    //  (computed rather than looked up: the shift is taken mod 64, so NBITS == 0
+    //  is cleared by the sign of -NBITS)
     static /*uint64_t*/long fse_mask_lsb64(long/*uint64_t*/ x, int/*fse_bit_count*/ nbits) {
-        final /*uint64_t*/ long[] mtable = new long[/*65*/]{  //TODO let's hope the jvm turns this into a constant
-                0x0000000000000000L, 0x0000000000000001L, 0x0000000000000003L,
-                0x0000000000000007L, 0x000000000000000fL, 0x000000000000001fL,
-                0x000000000000003fL, 0x000000000000007fL, 0x00000000000000ffL,
-                0x00000000000001ffL, 0x00000000000003ffL, 0x00000000000007ffL,
-                0x0000000000000fffL, 0x0000000000001fffL, 0x0000000000003fffL,
-                0x0000000000007fffL, 0x000000000000ffffL, 0x000000000001ffffL,
-                0x000000000003ffffL, 0x000000000007ffffL, 0x00000000000fffffL,
-                0x00000000001fffffL, 0x00000000003fffffL, 0x00000000007fffffL,
-                0x0000000000ffffffL, 0x0000000001ffffffL, 0x0000000003ffffffL,
-                0x0000000007ffffffL, 0x000000000fffffffL, 0x000000001fffffffL,
-                0x000000003fffffffL, 0x000000007fffffffL, 0x00000000ffffffffL,
-                0x00000001ffffffffL, 0x00000003ffffffffL, 0x00000007ffffffffL,
-                0x0000000fffffffffL, 0x0000001fffffffffL, 0x0000003fffffffffL,
-                0x0000007fffffffffL, 0x000000ffffffffffL, 0x000001ffffffffffL,
-                0x000003ffffffffffL, 0x000007ffffffffffL, 0x00000fffffffffffL,
-                0x00001fffffffffffL, 0x00003fffffffffffL, 0x00007fffffffffffL,
-                0x0000ffffffffffffL, 0x0001ffffffffffffL, 0x0003ffffffffffffL,
-                0x0007ffffffffffffL, 0x000fffffffffffffL, 0x001fffffffffffffL,
-                0x003fffffffffffffL, 0x007fffffffffffffL, 0x00ffffffffffffffL,
-                0x01ffffffffffffffL, 0x03ffffffffffffffL, 0x07ffffffffffffffL,
-                0x0fffffffffffffffL, 0x1fffffffffffffffL, 0x3fffffffffffffffL,
-                0x7fffffffffffffffL, 0xffffffffffffffffL,
-        };
-        return x & mtable[nbits];
-    }
-
-    // Mask the NBITS lsb of X. 0 <= NBITS < 32
+        return x & (-1L >>> -nbits) & ((long) -nbits >> 63);
+    }
+
+    // Mask the NBITS lsb of X. 0 <= NBITS <= 32
     static int/*uint32_t*/ fse_mask_lsb32(int/*uint32_t*/ x, int/*fse_bit_count*/ nbits) {
-        final int/*uint32_t*/[] mtable = new int[/*33*/]{
-                0x0000000000000000, 0x0000000000000001, 0x0000000000000003,
-                0x0000000000000007, 0x000000000000000f, 0x000000000000001f,
-                0x000000000000003f, 0x000000000000007f, 0x00000000000000ff,
-                0x00000000000001ff, 0x00000000000003ff, 0x00000000000007ff,
-                0x0000000000000fff, 0x0000000000001fff, 0x0000000000003fff,
-                0x0000000000007fff, 0x000000000000ffff, 0x000000000001ffff,
-                0x000000000003ffff, 0x000000000007ffff, 0x00000000000fffff,
-                0x00000000001fffff, 0x00000000003fffff, 0x00000000007fffff,
-                0x0000000000ffffff, 0x0000000001ffffff, 0x0000000003ffffff,
-                0x0000000007ffffff, 0x000000000fffffff, 0x000000001fffffff,
-                0x000000003fffffff, 0x000000007fffffff, 0x00000000ffffffff,
-        };
-        return x & mtable[nbits];
+        return x & (-1 >>> -nbits) & (-nbits >> 31);
     }
 
     /*! @abstract Select \c nbits at index \c start from \c x.
@@ -429,63 +394,90 @@ public class FSE {
 //
 //#endif
 
-    /*! @abstract Entry for one symbol in the encoder table (64b). */
-    static class fse_encoder_entry {
-        short s0;     // First state requiring a K-bit shift
-        short k;      // States S >= S0 are shifted K bits. States S < S0 are
-        // shifted K-1 bits
-        short delta0; // Relative increment used to compute next state if S >= S0
-        short delta1; // Relative increment used to compute next state if S < S0
-    }
-
-    /*! @abstract  Entry for one state in the decoder table (32b). */
-    static class fse_decoder_entry {  // DO NOT REORDER THE FIELDS
-        byte k;      // Number of bits to read
-        byte/*uint8_t*/  symbol; // Emitted symbol
-        short delta;  // Signed increment used to compute next state (+bias)
-
-        int toInt() {
-            return LittleEndianByteBuffer.allocate(4)
-                    .put(k)
-                    .put(symbol)
-                    .putShort(delta)
-                    .getInt(0);
-        }
+    /*! @abstract Entry for one symbol in the encoder table (64b), packed in a long
+     *  with the layout of the C struct (little endian): bits 0-15 s0, first state
+     *  requiring a K-bit shift; bits 16-31 k, states S >= S0 are shifted K bits,
+     *  states S < S0 are shifted K-1 bits; bits 32-47 delta0, relative increment
+     *  used to compute next state if S >= S0; bits 48-63 delta1, relative
+     *  increment used to compute next state if S < S0. */
+    static long fse_encoder_entry(int s0, int k, int delta0, int delta1) {
+        return (s0 & 0xffff) | ((k & 0xffff) << 16) | ((long) (delta0 & 0xffff) << 32) | ((long) delta1 << 48);
     }
 
-    /*! @abstract  Entry for one state in the value decoder table (64b). */
-    static class fse_value_decoder_entry {      // DO NOT REORDER THE FIELDS
-        byte/*uint8_t*/  total_bits; // state bits + extra value bits = shift for next decode
-        byte/*uint8_t*/  value_bits; // extra value bits
-        short delta;      // state base (delta)
-        int   vbase;      // value base
+    static int fse_encoder_entry_s0(long e) {
+        return (short) e;
+    }
 
-        public fse_value_decoder_entry() {
+    static int fse_encoder_entry_k(long e) {
+        return (short) (e >>> 16);
+    }
 
-        }
+    static int fse_encoder_entry_delta0(long e) {
+        return (short) (e >>> 32);
+    }
 
-        public fse_value_decoder_entry(fse_value_decoder_entry ei) {
-            this.total_bits = ei.total_bits;
-            this.value_bits = ei.value_bits;
-            this.delta = ei.delta;
-            this.vbase = ei.vbase;
-        }
+    static int fse_encoder_entry_delta1(long e) {
+        return (short) (e >>> 48);
+    }
+
+    /*! @abstract  Entry for one state in the decoder table (32b), packed in an int
+     *  with the layout of the C struct (little endian, DO NOT REORDER THE FIELDS):
+     *  bits 0-7 k, number of bits to read; bits 8-15 symbol, emitted symbol;
+     *  bits 16-31 delta, signed increment used to compute next state (+bias). */
+    static int fse_decoder_entry(int k, int/*uint8_t*/ symbol, int delta) {
+        return (k & 0xff) | ((symbol & 0xff) << 8) | (delta << 16);
     }
 
+    static int fse_decoder_entry_k(int e) {
+        return e & 0xff;
+    }
 
-    /*! @abstract Encode SYMBOL using the encoder table, and update \c *pstate,
-     *  \c out.
+    static byte/*uint8_t*/ fse_decoder_entry_symbol(int e) {
+        return (byte) (e >>> 8);
+    }
+
+    static int fse_decoder_entry_delta(int e) {
+        return (short) (e >>> 16);
+    }
+
+    /*! @abstract  Entry for one state in the value decoder table (64b), packed in
+     *  a long with the layout of the C struct (little endian, DO NOT REORDER THE
+     *  FIELDS): bits 0-7 total_bits, state bits + extra value bits = shift for next
+     *  decode; bits 8-15 value_bits, extra value bits; bits 16-31 delta, state
+     *  base; bits 32-63 vbase, value base. */
+    static long fse_value_decoder_entry(int/*uint8_t*/ total_bits, int/*uint8_t*/ value_bits, int delta, int vbase) {
+        return (total_bits & 0xff) | ((value_bits & 0xff) << 8) | ((long) (delta & 0xffff) << 16) | ((long) vbase << 32);
+    }
+
+    static int/*uint8_t*/ fse_value_decoder_entry_total_bits(long e) {
+        return (int) e & 0xff;
+    }
+
+    static int/*uint8_t*/ fse_value_decoder_entry_value_bits(long e) {
+        return ((int) e >>> 8) & 0xff;
+    }
+
+    static int fse_value_decoder_entry_delta(long e) {
+        return (short) (e >>> 16);
+    }
+
+    static int fse_value_decoder_entry_vbase(long e) {
+        return (int) (e >>> 32);
+    }
+
+
+    /*! @abstract Encode SYMBOL using the encoder table, and update \c out.
+     *  @return the new state.
      *  @note The caller must ensure we have enough bits available in the output
      *  stream accumulator. */
-    static void fse_encode(short/*fse_state*/[] pstate,
-                           final fse_encoder_entry[] encoder_table,
-                           fse_out_stream64 out, byte/*uint8_t*/ symbol) {
-        int s = pstate[0];
-        fse_encoder_entry e = encoder_table[Byte.toUnsignedInt(symbol)];
-        int s0 = e.s0;
-        int k = e.k;
-        int delta0 = e.delta0;
-        int delta1 = e.delta1;
+    static int/*fse_state*/ fse_encode(int/*fse_state*/ s,
+                                       final long[] encoder_table,
+                                       fse_out_stream64 out, byte/*uint8_t*/ symbol) {
+        final long e = encoder_table[Byte.toUnsignedInt(symbol)];
+        int s0 = fse_encoder_entry_s0(e);
+        int k = fse_encoder_entry_k(e);
+        int delta0 = fse_encoder_entry_delta0(e);
+        int delta1 = fse_encoder_entry_delta1(e);
 
         // Number of bits to write
         boolean hi = s >= s0;
@@ -497,37 +489,34 @@ public class FSE {
         fse_out_push64(out, nbits, b);
 
         // Update state with remaining bits and delta
-        pstate[0] = (short) (delta + (s >>> nbits));
+        return (short) (delta + (s >>> nbits));
     }
 
-    /*! @abstract Decode and return symbol using the decoder table, and update
-     *  \c *pstate, \c in.
-     *  @note The caller must ensure we have enough bits available in the input
-     *  stream accumulator. */
-    static byte/*uint8_t*/ fse_decode(short/*fse_state*/[] pstate,
-                                      final int[] decoder_table,
-                                      fse_in_stream64 in) {
-        int e = decoder_table[pstate[0]];
+    //  The C decoders update a state and an input stream through pointers. Here
+    //  the decode loops keep their states, and the accumulator of their input
+    //  stream, in locals (see DecodeBase.lzfse_decode_literals and
+    //  lzfse_decode_lmd): they pull the number of bits given by the table entry
+    //  of the current state, and pass them to the functions below.
 
-        // Update state from K bits of input + DELTA
-        pstate[0] = (short) ((short/*fse_state*/) (e >>> 16) + (short/*fse_state*/) fse_in_pull64(in, e & 0xff));
+    /*! @abstract Return the state following decoder table entry \c e, given
+     *  the \c fse_decoder_entry_k(e) \c bits pulled from the input stream. The
+     *  decoded symbol is \c fse_decoder_entry_symbol(e). */
+    static int/*fse_state*/ fse_decode(int e, int/*uint32_t*/ bits) {
+        return fse_decoder_entry_delta(e) + bits;
+    }
 
-        // Return the symbol for this state
-        return (byte) fse_extract_bits64(e, 8, 8); // symbol
+    /*! @abstract Return the value decoded with value decoder table entry \c e,
+     *  given the \c fse_value_decoder_entry_total_bits(e) bits pulled from the
+     *  input stream. */
+    static int fse_value_decode(long e, int/*uint32_t*/ state_and_value_bits) {
+        return fse_value_decoder_entry_vbase(e) +
+                fse_mask_lsb32(state_and_value_bits, fse_value_decoder_entry_value_bits(e));
     }
 
-    /*! @abstract Decode and return value using the decoder table, and update \c
-     *  *pstate, \c in.
-     * \c value_decoder_table[nstates]
-     * @note The caller must ensure we have enough bits available in the input
-     * stream accumulator. */
-    static int fse_value_decode(short/*fse_state*/[] pstate,
-                                final fse_value_decoder_entry[] value_decoder_table,
-                                fse_in_stream64 in) {
-        fse_value_decoder_entry entry = value_decoder_table[pstate[0]];
-        int/*uint32_t*/ state_and_value_bits = (int/*uint32_t*/) fse_in_pull64(in, entry.total_bits);
-        pstate[0] = (short/*fse_state*/) (entry.delta + (state_and_value_bits >>> entry.value_bits));
-        return (int) (entry.vbase + fse_mask_lsb64(state_and_value_bits, entry.value_bits));
+    /*! @abstract Return the state following value decoder table entry \c e,
+     *  given the same bits as \c fse_value_decode. */
+    static int/*fse_state*/ fse_value_decode_state(long e, int/*uint32_t*/ state_and_value_bits) {
+        return fse_value_decoder_entry_delta(e) + (state_and_value_bits >>> fse_value_decoder_entry_value_bits(e));
     }
 
     // MARK: - Tables
@@ -560,24 +549,24 @@ public class FSE {
      * @param freq[nsymbols]
      * is a normalized histogram of symbol frequencies, with \c freq[i] >= 0.
      * Some symbols may have a 0 frequency. In that case they should not be
-     * present in the data.
+     * present in the data; their entries are set to 0.
      */
     static void fse_init_encoder_table(int nstates, int nsymbols,
                                        final short/*uint16_t*/[] freq,
-                                       fse_encoder_entry[] t) {
+                                       long[] t) {
         int offset = 0; // current offset
         int n_clz = __builtin_clz(nstates);
         for (int i = 0; i < nsymbols; i++) {
             int f = (int) freq[i];
-            if (f == 0)
+            if (f == 0) {
+                t[i] = 0;
                 continue; // skip this symbol, no occurrences
+            }
             int k =
                     __builtin_clz(f) - n_clz; // shift needed to ensure N <= (F<<K) < 2*N
-            t[i] = new fse_encoder_entry();
-            t[i].s0 = (short) ((f << k) - nstates);
-            t[i].k = (short) k;
-            t[i].delta0 = (short) (offset - f + (nstates >>> k));
-            t[i].delta1 = (short) (offset - f + (nstates >>> (k - 1)));
+            t[i] = fse_encoder_entry((f << k) - nstates, k,
+                    offset - f + (nstates >>> k),
+                    offset - f + (nstates >>> (k - 1)));
             offset += f;
         }
     }
@@ -622,20 +611,12 @@ public class FSE {
 
             // Initialize all states S reached by this symbol: OFFSET <= S < OFFSET + F
             for (int j = 0; j < f; j++) {
-                fse_decoder_entry e = new fse_decoder_entry();
-
-                e.symbol = (byte/*uint8_t*/) i;
-                if (j < j0) {
-                    e.k = (byte) k;
-                    e.delta = (short) (((f + j) << k) - nstates);
-                } else {
-                    e.k = (byte) (k - 1);
-                    e.delta = (short) ((j - j0) << (k - 1));
-                }
-
 //                memcpy(t, & e, sizeof(e));
 //                t++;
-                t[t_index++] = e.toInt();
+                if (j < j0)
+                    t[t_index++] = fse_decoder_entry(k, i, ((f + j) << k) - nstates);
+                else
+                    t[t_index++] = fse_decoder_entry(k - 1, i, (j - j0) << (k - 1));
             }
         }
 
@@ -661,7 +642,7 @@ public class FSE {
                                              final short/*uint16_t*/[] freq,
                                              final byte/*uint8_t*/[] symbol_vbits,
                                              final int[] symbol_vbase,
-                                             fse_value_decoder_entry[] t) {
+                                             long[] t) {
         assert (nsymbols <= 256);
         assert (fse_check_freq(freq, nsymbols, nstates) == 0);
 
@@ -675,25 +656,17 @@ public class FSE {
                     __builtin_clz(f) - n_clz; // shift needed to ensure N <= (F<<K) < 2*N
             int j0 = ((2 * nstates) >>> k) - f;
 
-            fse_value_decoder_entry ei = new fse_value_decoder_entry();
-            ei.value_bits = symbol_vbits[i];
-            ei.vbase = symbol_vbase[i];
+            final int value_bits = symbol_vbits[i];
+            final int vbase = symbol_vbase[i];
 
             // Initialize all states S reached by this symbol: OFFSET <= S < OFFSET + F
             for (int j = 0; j < f; j++) {
-                fse_value_decoder_entry e = new fse_value_decoder_entry(ei);
-
-                if (j < j0) {
-                    e.total_bits = (byte/*uint8_t*/) (k + e.value_bits);
-                    e.delta = (short) (((f + j) << k) - nstates);
-                } else {
-                    e.total_bits = (byte/*uint8_t*/) ((k - 1) + e.value_bits);
-                    e.delta = (short) ((j - j0) << (k - 1));
-                }
-
 //                memcpy(t, & e, 8);
 //                t++;
-                t[t_index++] = e;
+                if (j < j0)
+                    t[t_index++] = fse_value_decoder_entry(k + value_bits, value_bits, ((f + j) << k) - nstates, vbase);
+                else
+                    t[t_index++] = fse_value_decoder_entry((k - 1) + value_bits, value_bits, (j - j0) << (k - 1), vbase);
             }
         }
     }
@@ -6,8 +6,6 @@ import java.nio.ByteBuffer;
 
 import static lzfse.FSE.fse_check_freq;
 import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDV1_BLOCK_MAGIC;
-import static lzfse.Tunables.LZFSE_ENCODE_HASH_BITS;
-import static lzfse.Tunables.LZFSE_ENCODE_HASH_WIDTH;
 
 public final class Internal {
     private Internal() {
@@ -30,7 +28,6 @@ public final class Internal {
     //  is the number of literal bytes, "M" is the number of match bytes, and "D"
     //  is the match "distance"; the distance in bytes between the current pointer
     //  and the start of the match.
-    static final int LZFSE_ENCODE_HASH_VALUES     = (1 << LZFSE_ENCODE_HASH_BITS);
     static final int LZFSE_ENCODE_L_SYMBOLS       = 20;
     static final int LZFSE_ENCODE_M_SYMBOLS       = 20;
     static final int LZFSE_ENCODE_D_SYMBOLS       = 64;
@@ -68,22 +65,27 @@ public final class Internal {
      *  four bytes at each position. This doubles the memory footprint of the
      *  table, but allows us to quickly eliminate false-positive matches without
      *  doing any pointer chasing and without pulling in any additional cachelines.
-     *  This provides a large performance win in practice. */
-    static class lzfse_history_set {
-                    final int[] pos   = new int[LZFSE_ENCODE_HASH_WIDTH];
-        /*uint32_t*/final int[] value = new int[LZFSE_ENCODE_HASH_WIDTH];
-
-        public lzfse_history_set() {
-        }
-
-        public lzfse_history_set(final lzfse_history_set src) {
-            set(src);
-        }
+     *  This provides a large performance win in practice.
+     *
+     *  The history table is a flat int[] of (1 << hash_bits) lines, laid out like
+     *  the C struct: hash_width positions, followed by the hash_width values. The
+     *  hash bits and width are those of the encoder state, see LzfseEncoderConfig.
+     *  @code
+     *  struct {
+     *      int32_t  pos[LZFSE_ENCODE_HASH_WIDTH];
+     *      uint32_t value[LZFSE_ENCODE_HASH_WIDTH];
+     *  } lzfse_history_set;
+     *  @endcode */
+    static final int LZFSE_HISTORY_SET_POS   = 0;
+
+    /*! @abstract Offset of the values in a history set of \p hash_width positions. */
+    static int lzfse_history_set_value(final int hash_width) {
+        return hash_width;
+    }
 
-        void set(final lzfse_history_set src) {
-            System.arraycopy(src.pos, 0, this.pos, 0, src.pos.length);
-            System.arraycopy(src.value, 0, this.value, 0, src.value.length);
-        }
+    /*! @abstract Number of ints of a history set of \p hash_width positions. */
+    static int lzfse_history_set_ints(final int hash_width) {
+        return 2 * hash_width;
     }
 
     /*! @abstract An lzfse match is a sequence of bytes in the source buffer that
@@ -112,10 +114,18 @@ public final class Internal {
         }
 
         public lzfse_match(long pos, long ref, int length) {
+            set(pos, ref, length);
+        }
+
+        void set(long pos, long ref, int length) {
             this.pos = pos;
             this.ref = ref;
             this.length = length;
         }
+
+        void set(final lzfse_match src) {
+            set(src.pos, src.ref, src.length);
+        }
     }
 
     // MARK: - LZFSE encode/decode interfaces
@@ -45,6 +45,8 @@ class InternalBlockHeaderObjects {
     /*! @abstract Compressed block header with uncompressed tables. */
     static class lzfse_compressed_block_header_v1 {
         static final int BYTES = 772;
+        static final int OFFSET_OF_N_LITERAL_PAYLOAD_BYTES = Integer.BYTES * 5;
+        static final int OFFSET_OF_N_LMD_PAYLOAD_BYTES     = Integer.BYTES * 6;
 
         //  Magic number, always LZFSE_COMPRESSEDV1_BLOCK_MAGIC.
         /*uint32_t*/ int magic;
@@ -104,36 +106,42 @@ class InternalBlockHeaderObjects {
         }
 
         static lzfse_compressed_block_header_v1 fromByteBuffer(final ByteBuffer buffer) {
-            final ByteBuffer duplicate = LittleEndianByteBuffer.duplicate(buffer);
-            final lzfse_compressed_block_header_v1 header = new lzfse_compressed_block_header_v1();
-            header.magic = duplicate.getInt();
-            header.n_raw_bytes = duplicate.getInt();
-            header.n_payload_bytes = duplicate.getInt();
-            header.n_literals = duplicate.getInt();
-            header.n_matches = duplicate.getInt();
-            header.n_literal_payload_bytes = duplicate.getInt();
-            header.n_lmd_payload_bytes = duplicate.getInt();
-            header.literal_bits = duplicate.getInt();
-            for (int i = 0; i < header.literal_state.length; i++) {
-                header.literal_state[i] = duplicate.getShort();
+            return fromByteBuffer(LittleEndianByteBuffer.duplicate(buffer), buffer.position(),
+                    new lzfse_compressed_block_header_v1());
+        }
+
+        //  Read the header at index P of little-endian SRC into HEADER, in place.
+        static lzfse_compressed_block_header_v1 fromByteBuffer(final ByteBuffer src, int p,
+                                                               final lzfse_compressed_block_header_v1 header) {
+            header.magic = src.getInt(p);
+            header.n_raw_bytes = src.getInt(p += Integer.BYTES);
+            header.n_payload_bytes = src.getInt(p += Integer.BYTES);
+            header.n_literals = src.getInt(p += Integer.BYTES);
+            header.n_matches = src.getInt(p += Integer.BYTES);
+            header.n_literal_payload_bytes = src.getInt(p += Integer.BYTES);
+            header.n_lmd_payload_bytes = src.getInt(p += Integer.BYTES);
+            header.literal_bits = src.getInt(p += Integer.BYTES);
+            p += Integer.BYTES;
+            for (int i = 0; i < header.literal_state.length; i++, p += Short.BYTES) {
+                header.literal_state[i] = src.getShort(p);
             }
-            header.lmd_bits = duplicate.getInt();
-            header.l_state = duplicate.getShort();
-            header.m_state = duplicate.getShort();
-            header.d_state = duplicate.getShort();
-            for (int i = 0; i < header.l_freq.length; i++) {
-                header.l_freq[i] = duplicate.getShort();
+            header.lmd_bits = src.getInt(p);
+            header.l_state = src.getShort(p += Integer.BYTES);
+            header.m_state = src.getShort(p += Short.BYTES);
+            header.d_state = src.getShort(p += Short.BYTES);
+            p += Short.BYTES;
+            for (int i = 0; i < header.l_freq.length; i++, p += Short.BYTES) {
+                header.l_freq[i] = src.getShort(p);
             }
-            for (int i = 0; i < header.m_freq.length; i++) {
-                header.m_freq[i] = duplicate.getShort();
+            for (int i = 0; i < header.m_freq.length; i++, p += Short.BYTES) {
+                header.m_freq[i] = src.getShort(p);
             }
-            for (int i = 0; i < header.d_freq.length; i++) {
-                header.d_freq[i] = duplicate.getShort();
+            for (int i = 0; i < header.d_freq.length; i++, p += Short.BYTES) {
+                header.d_freq[i] = src.getShort(p);
             }
-            for (int i = 0; i < header.literal_freq.length; i++) {
-                header.literal_freq[i] = duplicate.getShort();
+            for (int i = 0; i < header.literal_freq.length; i++, p += Short.BYTES) {
+                header.literal_freq[i] = src.getShort(p);
             }
-            assert (duplicate.position() == BYTES - 2);// 2 alignment bytes?
             return header;
         }
     }
@@ -145,7 +153,8 @@ class InternalBlockHeaderObjects {
     static class lzfse_compressed_block_header_v2 {
         public static final int BYTES = 752;
 
-        static final int OFFSET_OF_FREQ = 32;
+        static final int OFFSET_OF_PACKED_FIELDS = Integer.BYTES * 2;
+        static final int OFFSET_OF_FREQ          = 32;
 
         //  Magic number, always LZFSE_COMPRESSEDV2_BLOCK_MAGIC.
         /*uint32_t*/ int    magic;
@@ -220,8 +229,9 @@ class InternalBlockHeaderObjects {
             for (int i = 0; i < header.packed_fields.length; i++) {
                 header.packed_fields[i] = duplicate.getLong();
             }
-            duplicate.get(header.freq);
-            assert (duplicate.position() == BYTES);//TODO remaining? and what if the buffer is bigger?
+            // the stored header is truncated after the used bytes of freq[], so
+            // don't read past the end of the buffer
+            duplicate.get(header.freq, 0, Math.min(header.freq.length, duplicate.remaining()));
             return header;
         }
     }// __attribute__((__packed__, __aligned__(1)))
@@ -230,6 +240,8 @@ class InternalBlockHeaderObjects {
     /*! @abstract LZVN compressed block header. */
     static class lzvn_compressed_block_header {
         static final int BYTES = Integer.BYTES * 3;
+        static final int OFFSET_OF_N_RAW_BYTES     = Integer.BYTES;
+        static final int OFFSET_OF_N_PAYLOAD_BYTES = Integer.BYTES * 2;
 
         //  Magic number, always LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC.
         /*uint32_t*/ int magic;
@@ -1,7 +1,8 @@
 package lzfse;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+
+import static lzfse.InternalBlockHeaderObjects.LZFSE_NO_BLOCK_MAGIC;
 
 /** MARK: - Encoder and Decoder state objects */
 public class InternalStateObjects {
@@ -9,6 +10,29 @@ public class InternalStateObjects {
     static class lzfse_encoder_state {
         static final long BYTES = 684384;
 
+        //  Match search parameters, see LzfseEncoderConfig.
+        final int hash_bits;
+        final int hash_width;
+        final int good_match;
+        final int lzvn_threshold;
+        final int lazy_depth;
+        //  Optimal parser state, or null if the encoder does not use it.
+        final lzfse_optimal_state optimal;
+
+        lzfse_encoder_state() {
+            this(LzfseEncoderConfig.DEFAULT);
+        }
+
+        lzfse_encoder_state(final LzfseEncoderConfig config) {
+            this.hash_bits = config.hash_bits();
+            this.hash_width = config.hash_width();
+            this.good_match = config.good_match();
+            this.lzvn_threshold = config.lzvn_threshold();
+            this.lazy_depth = config.lazy_depth();
+            this.history_table = new int[config.history_table_ints()];
+            this.optimal = config.optimal() ? new lzfse_optimal_state(config.good_match()) : null;
+        }
+
         //  Pointer to first byte of the source buffer.
         /*uint8_t*/ ByteBuffer src;
         //  Length of the source buffer in bytes. Note that this is not a size_t,
@@ -34,7 +58,12 @@ public class InternalStateObjects {
         //  Pointer to one byte past the end of the destination buffer.
         /*uint8_t*/ int        dst_end;
         //  Pending match; will be emitted unless a better match is found.
-        Internal.lzfse_match pending;
+        //  Updated in place, so the match finder does not allocate.
+        final Internal.lzfse_match pending = new Internal.lzfse_match();
+        //  Position at which the lazy parser found the pending match.
+        long pending_found;
+        //  Scratch match used by lzfse_backend_literals.
+        final Internal.lzfse_match literals_match = new Internal.lzfse_match();
         //  The number of matches written so far. Note that there is no problem in
         //  using a 32-bit field for this quantity, because the state already limits
         //  us to at most 2GB of data; there cannot possibly be more matches than
@@ -53,7 +82,11 @@ public class InternalStateObjects {
         //  History table used to search for matches. Each entry of the table
         //  corresponds to a group of four byte sequences in the input stream
         //  that hash to the same value.
-        Internal.lzfse_history_set[] history_table = new Internal.lzfse_history_set[Internal.LZFSE_ENCODE_HASH_VALUES];
+        //  (1 << hash_bits) lines of 2 * hash_width ints, see Internal.LZFSE_HISTORY_SET_POS,
+        //  and at least LZVN_ENCODE_TABLE_INTS ints, for the LZVN encoder.
+        final int[] history_table;
+        //  Occurrence, frequency and encoder tables of the blocks.
+        final lzfse_encoder_tables tables = new lzfse_encoder_tables();
 
         void clear() {
             if (this.src != null)
@@ -66,14 +99,83 @@ public class InternalStateObjects {
                 this.dst.clear();
             this.dst_begin = 0;
             this.dst_end = 0;
-            this.pending = new Internal.lzfse_match();
+            this.pending.set(0, 0, 0);
+            this.pending_found = 0;
             this.n_matches = 0;
             this.n_literals = 0;
-            Arrays.fill(this.l_values, 0);
-            Arrays.fill(this.m_values, 0);
-            Arrays.fill(this.d_values, 0);
-            Arrays.fill(this.literals, (byte) 0);
-            Arrays.fill(this.history_table, null);
+            //  l_values, m_values, d_values and literals are only read up to
+            //  n_matches/n_literals, and the history table is reset by
+            //  lzfse_encode_init, so the arrays are kept as they are.
+        }
+    }
+
+    /*! @abstract Encoder tables: the symbol occurrences of the block being encoded,
+     * and the frequency and encoder tables of the last blocks, reused while the
+     * statistics of the next blocks stay close to them. */
+    static class lzfse_encoder_tables {
+        //  Occurrences of each L, M, D and literal symbol in the current block.
+        final int[] l_occ       = new int[Internal.LZFSE_ENCODE_L_SYMBOLS];
+        final int[] m_occ       = new int[Internal.LZFSE_ENCODE_M_SYMBOLS];
+        final int[] d_occ       = new int[Internal.LZFSE_ENCODE_D_SYMBOLS];
+        final int[] literal_occ = new int[Internal.LZFSE_ENCODE_LITERAL_SYMBOLS];
+        //  The same, normalized.
+        final short[] l_freq       = new short[Internal.LZFSE_ENCODE_L_SYMBOLS];
+        final short[] m_freq       = new short[Internal.LZFSE_ENCODE_M_SYMBOLS];
+        final short[] d_freq       = new short[Internal.LZFSE_ENCODE_D_SYMBOLS];
+        final short[] literal_freq = new short[Internal.LZFSE_ENCODE_LITERAL_SYMBOLS];
+        //  Headers of the current block. The frequency tables in use are those of
+        //  header1, compressed in the first header_size bytes of header2, 0 until
+        //  a first block.
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 header1 =
+                new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v2 header2 =
+                new InternalBlockHeaderObjects.lzfse_compressed_block_header_v2();
+        int header_size;
+        //  Encoder tables of header1, entries packed as in FSE.fse_encoder_entry.
+        final long[] l_encoder       = new long[Internal.LZFSE_ENCODE_L_SYMBOLS];
+        final long[] m_encoder       = new long[Internal.LZFSE_ENCODE_M_SYMBOLS];
+        final long[] d_encoder       = new long[Internal.LZFSE_ENCODE_D_SYMBOLS];
+        final long[] literal_encoder = new long[Internal.LZFSE_ENCODE_LITERAL_SYMBOLS];
+        //  Number of tables built, and reused, 4 per block.
+        long n_built, n_reused;
+    }
+
+    /*! @abstract Optimal parser state: the prices of the encoded symbols, and the
+     * nodes of the shortest path search over a window of positions. */
+    static class lzfse_optimal_state {
+        //  Prices, in 1/LZFSE_PRICE_ONE_BIT of a bit, of each literal byte, of each L
+        //  and M value (symbol and extra bits), and of each D symbol.
+        final int[] literal_price = new int[Internal.LZFSE_ENCODE_LITERAL_SYMBOLS];
+        final int[] l_price       = new int[Internal.LZFSE_ENCODE_MAX_L_VALUE + 1];
+        final int[] m_price       = new int[Internal.LZFSE_ENCODE_MAX_M_VALUE + 1];
+        final int[] d_price       = new int[Internal.LZFSE_ENCODE_D_SYMBOLS];
+        //  Per node, that is per position from the start of the window: cheapest
+        //  price to get there, literals since the last match on that path, the
+        //  last match distance on that path, and the last step of that path (the
+        //  node it comes from, and the length and distance of the match, if any).
+        final int[] price;
+        final int[] litlen;
+        final int[] d_last;
+        final int[] from;
+        final int[] m_length;
+        final int[] m_distance;
+        //  Ends of the matches of the shortest path, from the last.
+        final int[] path;
+        //  Match candidates at the current position, by increasing length: the
+        //  hash line, and the last distance.
+        final int[] candidate_length   = new int[8 + 1];
+        final int[] candidate_distance = new int[8 + 1];
+        final int[] candidate_price    = new int[8 + 1];
+
+        lzfse_optimal_state(final int good_match) {
+            final int nodes = EncodeOptimal.LZFSE_OPTIMAL_WINDOW + EncodeOptimal.lzfse_optimal_sufficient_length(good_match) + 1;
+            this.price = new int[nodes];
+            this.litlen = new int[nodes];
+            this.d_last = new int[nodes];
+            this.from = new int[nodes];
+            this.m_length = new int[nodes];
+            this.m_distance = new int[nodes];
+            this.path = new int[nodes];
         }
     }
 
@@ -81,18 +183,22 @@ public class InternalStateObjects {
     static class lzfse_compressed_block_decoder_state {
         static final int BYTES = 47296;
 
+        //  Header of the current block, decoded in place.
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 header1 =
+                new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
         //  Number of matches remaining in the block.
         /*uint32_t*/ int    n_matches;
         //  Number of bytes used to encode L, M, D triplets for the block.
         /*uint32_t*/ int    n_lmd_payload_bytes;
         //  Pointer to the next literal to emit.
         /*uint8_t*/  byte[] current_literal;
+        /*uint8_t*/  int    current_literal_pos;
         //  L, M, D triplet for the match currently being emitted. This is used only
         //  if we need to restart after reaching the end of the destination buffer in
         //  the middle of a literal or match.
         int l_value, m_value, d_value;
         //  FSE stream object.
-        FSE.fse_in_stream64 lmd_in_stream;
+        final FSE.fse_in_stream64 lmd_in_stream = new FSE.fse_in_stream64();
         //  Offset of L,M,D encoding in the input buffer. Because we read through an
         //  FSE stream *backwards* while decoding, this is decremented as we move
         //  through a block.
@@ -102,15 +208,45 @@ public class InternalStateObjects {
         //  Internal FSE decoder tables for the current block. These have
         //  alignment forced to 8 bytes to guarantee that a single state's
         //  entry cannot span two cachelines.
-        FSE.fse_value_decoder_entry[] l_decoder       = new FSE.fse_value_decoder_entry[Internal.LZFSE_ENCODE_L_STATES];// __attribute__((__aligned__(8)));
-        FSE.fse_value_decoder_entry[] m_decoder       = new FSE.fse_value_decoder_entry[Internal.LZFSE_ENCODE_M_STATES];// __attribute__((__aligned__(8)));
-        FSE.fse_value_decoder_entry[] d_decoder       = new FSE.fse_value_decoder_entry[Internal.LZFSE_ENCODE_D_STATES];// __attribute__((__aligned__(8)));
-        int[]                         literal_decoder = new int[Internal.LZFSE_ENCODE_LITERAL_STATES];
+        //  Entries are packed as in FSE.fse_value_decoder_entry and FSE.fse_decoder_entry.
+        //  The tables are those of an entry of the table cache.
+        long[] l_decoder;      // __attribute__((__aligned__(8)));
+        long[] m_decoder;      // __attribute__((__aligned__(8)));
+        long[] d_decoder;      // __attribute__((__aligned__(8)));
+        int[]  literal_decoder;
+        //  Decoder tables of the last blocks.
+        final lzfse_decoder_table_cache table_cache = new lzfse_decoder_table_cache();
         //  The literal stream for the block, plus padding to allow for faster copy
         //  operations.
         /*uint8_t*/ byte[] literals = new byte[Internal.LZFSE_LITERALS_PER_BLOCK + 64];
     }
 
+    /*! @abstract FSE decoder tables of the last blocks, by the frequency tables they
+     * were built from. Blocks of homogeneous data often carry the same frequency
+     * tables, and their decoder tables are then only built once. */
+    static class lzfse_decoder_table_cache {
+        static final int ENTRIES = 4;
+
+        //  Most recently used first; null until used.
+        final lzfse_decoder_tables[] entries = new lzfse_decoder_tables[ENTRIES];
+        //  Number of blocks whose tables were found, and built.
+        long n_hits, n_misses;
+    }
+
+    //  Entry of the decoder table cache: frequency tables, their hash (see
+    //  DecodeBase.lzfse_decode_freq_hash), and the decoder tables built from them.
+    static class lzfse_decoder_tables {
+        int hash;
+        final short[] l_freq       = new short[Internal.LZFSE_ENCODE_L_SYMBOLS];
+        final short[] m_freq       = new short[Internal.LZFSE_ENCODE_M_SYMBOLS];
+        final short[] d_freq       = new short[Internal.LZFSE_ENCODE_D_SYMBOLS];
+        final short[] literal_freq = new short[Internal.LZFSE_ENCODE_LITERAL_SYMBOLS];
+        final long[] l_decoder       = new long[Internal.LZFSE_ENCODE_L_STATES];
+        final long[] m_decoder       = new long[Internal.LZFSE_ENCODE_M_STATES];
+        final long[] d_decoder       = new long[Internal.LZFSE_ENCODE_D_STATES];
+        final int[]  literal_decoder = new int[Internal.LZFSE_ENCODE_LITERAL_STATES];
+    }
+
     //  Decoder state object for uncompressed blocks.
     static class uncompressed_block_decoder_state {
         /*uint32_t*/ int n_raw_bytes;
@@ -121,6 +257,9 @@ public class InternalStateObjects {
         /*uint32_t*/ int n_raw_bytes;
         /*uint32_t*/ int n_payload_bytes;
         /*uint32_t*/ int d_prev;
+        //  Literal or match cut by the end of the destination buffer, so decoding
+        //  can resume in the middle of it.
+        /*uint32_t*/ int L, M, D;
     }
 
     /*! @abstract Decoder state object. */
@@ -149,5 +288,26 @@ public class InternalStateObjects {
         lzfse_compressed_block_decoder_state compressed_lzfse_block_state = new lzfse_compressed_block_decoder_state();
         lzvn_compressed_block_decoder_state  compressed_lzvn_block_state  = new lzvn_compressed_block_decoder_state();
         uncompressed_block_decoder_state     uncompressed_block_state     = new uncompressed_block_decoder_state();
+
+        //  Reset to the state of a new decoder. The block states are only valid
+        //  after their block header was decoded, so only the buffers and the
+        //  stream position are reset; the FSE tables and literals are kept.
+        void clear() {
+            this.src = null;
+            this.src_begin = 0;
+            this.src_end = 0;
+            this.dst = null;
+            this.dst_begin = 0;
+            this.dst_end = 0;
+            this.end_of_stream = 0;
+            this.block_magic = LZFSE_NO_BLOCK_MAGIC;
+            this.uncompressed_block_state.n_raw_bytes = 0;
+            this.compressed_lzvn_block_state.n_raw_bytes = 0;
+            this.compressed_lzvn_block_state.n_payload_bytes = 0;
+            this.compressed_lzvn_block_state.d_prev = 0;
+            this.compressed_lzvn_block_state.L = 0;
+            this.compressed_lzvn_block_state.M = 0;
+            this.compressed_lzvn_block_state.D = 0;
+        }
     }
 }
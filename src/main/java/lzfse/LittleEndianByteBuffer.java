@@ -34,9 +34,40 @@ final class LittleEndianByteBuffer {
                 .position(position);
     }
 
+    //  Bulk copies. Heap buffers are copied from their backing arrays; direct,
+    //  mapped and read-only buffers have no accessible array, and are copied
+    //  through a view of the range instead.
+
+    //  Copy SIZE bytes at the position of SRC to the position of DST, advancing DST only.
     public static void copy(ByteBuffer dst, final ByteBuffer src, final int size) {
         final int position = src.position();
-        dst.put(src.array(), position, size);
+        if (src.hasArray())
+            dst.put(src.array(), src.arrayOffset() + position, size);
+        else
+            dst.put(view(src, position, size));
+    }
+
+    //  Copy SIZE bytes at index P of SRC to index Q of DST. Positions are unchanged.
+    static void copy(ByteBuffer dst, final int q, final ByteBuffer src, final int p, final int size) {
+        if (src.hasArray() && dst.hasArray())
+            System.arraycopy(src.array(), src.arrayOffset() + p, dst.array(), dst.arrayOffset() + q, size);
+        else
+            view(dst, q, size).put(view(src, p, size));
+    }
+
+    //  Copy SIZE bytes at index P of SRC to DST[OFFSET]. The position of SRC is unchanged.
+    static void get(final ByteBuffer src, final int p, byte[] dst, final int offset, final int size) {
+        if (src.hasArray())
+            System.arraycopy(src.array(), src.arrayOffset() + p, dst, offset, size);
+        else
+            view(src, p, size).get(dst, offset, size);
+    }
+
+    private static ByteBuffer view(final ByteBuffer buffer, final int p, final int size) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(p + size);
+        view.position(p);
+        return view;
     }
 
     @Deprecated
@@ -0,0 +1,248 @@
+package lzfse;
+
+import lzfse.DecodeBlocks.lzfse_block;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static lzfse.DecodeBlocks.lzfse_scan_blocks;
+import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+
+/**
+ * Index of the blocks of an LZFSE stream, for decoding byte ranges from the middle of it.
+ * <p>
+ * Every block header gives the block's size in the stream and its decoded size, so the
+ * index maps decoded offsets to the blocks holding them. Blocks are not always independent:
+ * matches may refer to the output of earlier blocks. {@link #build} therefore also decodes the
+ * stream once, and records for each block the latest block decoding can start from to
+ * reproduce it. {@link #read_range} then decodes from there to the last block of the range,
+ * which is only the covering blocks for streams of independent segments, such as written by
+ * {@link LzfseParallelEncoder} with its default, empty history, and up to the whole stream
+ * before the range in the worst case.
+ * <p>
+ * The index can be saved next to the stream with {@link #write}, and loaded back with
+ * {@link #read}, so that the stream is decoded in full only once. Instances are immutable.
+ */
+public final class LzfseBlockIndex {
+    private static final int MAGIC   = 0x69787662; // bvxi
+    private static final int VERSION = 1;
+    //  Output kept before a block by build: the longest match distance.
+    private static final int WINDOW_HISTORY = LZFSE_ENCODE_MAX_D_VALUE;
+    //  Least output room after the history, so that the window slides rarely.
+    private static final int WINDOW_SLACK   = 1 << 20;
+
+    private final long   src_size;
+    //  Per block, in stream order, without the end-of-stream block.
+    private final int[]  magic;
+    private final long[] src_offset;
+    private final int[]  src_block_size;
+    private final long[] dst_offset;
+    private final int[]  n_raw_bytes;
+    //  Index of the block decoding must start from to reproduce this one.
+    private final int[]  restart;
+
+    private LzfseBlockIndex(long src_size, int[] magic, long[] src_offset, int[] src_block_size,
+                            long[] dst_offset, int[] n_raw_bytes, int[] restart) {
+        this.src_size = src_size;
+        this.magic = magic;
+        this.src_offset = src_offset;
+        this.src_block_size = src_block_size;
+        this.dst_offset = dst_offset;
+        this.n_raw_bytes = n_raw_bytes;
+        this.restart = restart;
+    }
+
+    /**
+     * Indexes the stream in {@code src_size} bytes at the position of {@code src_buffer}, decoding
+     * it once. The output is decoded through a window of the longest match distance plus the
+     * largest block, so the decoded size is not limited by the heap.
+     *
+     * @throws IllegalArgumentException if the stream is truncated or invalid.
+     */
+    public static LzfseBlockIndex build(final ByteBuffer src_buffer, long src_size) {
+        final int src_begin = src_buffer.position();
+        final List<lzfse_block> blocks = lzfse_scan_blocks(src_buffer, src_begin, Math.toIntExact(src_begin + src_size));
+        if (blocks == null)
+            throw new IllegalArgumentException("truncated or invalid LZFSE stream");
+        final int n = blocks.size() - 1; // not the end-of-stream block
+        final int[] magic = new int[n];
+        final long[] src_offset = new long[n];
+        final int[] src_block_size = new int[n];
+        final long[] dst_offset = new long[n];
+        final int[] n_raw_bytes = new int[n];
+        final int[] restart = new int[n];
+
+        int max_raw_bytes = 0;
+        for (int i = 0; i < n; i++) {
+            max_raw_bytes = Math.max(max_raw_bytes, blocks.get(i).n_raw_bytes);
+        }
+        if (max_raw_bytes > Integer.MAX_VALUE - WINDOW_HISTORY - WINDOW_SLACK)
+            throw new IllegalArgumentException("LZFSE block too large to decode: " + max_raw_bytes);
+        final byte[] window = new byte[(int) Math.min(blocks.get(n).dst_offset,
+                WINDOW_HISTORY + Math.max(max_raw_bytes, WINDOW_SLACK))];
+        final ByteBuffer dst = LittleEndianByteBuffer.wrap(window);
+        //  Decoded offset of window[0].
+        long base = 0;
+
+        //  Decode each block with as little history as possible: from its own start,
+        //  then from the restart block of the block before, and so on back to block 0.
+        //  Every block between a restart block R and the block has a restart block >= R,
+        //  so decoding from R reproduces them all. Matches reach at most WINDOW_HISTORY
+        //  back, so a restart block before the window is tried with the whole window.
+        final LzfseDecoder decoder = new LzfseDecoder();
+        for (int i = 0; i < n; i++) {
+            final lzfse_block block = blocks.get(i);
+            magic[i] = block.magic;
+            src_offset[i] = block.src_offset;
+            src_block_size[i] = block.src_size;
+            dst_offset[i] = block.dst_offset;
+            n_raw_bytes[i] = block.n_raw_bytes;
+
+            //  Slide the window, keeping WINDOW_HISTORY bytes before the block.
+            if (block.dst_offset - base + block.n_raw_bytes > window.length) {
+                final int shift = (int) (block.dst_offset - base - WINDOW_HISTORY);
+                System.arraycopy(window, shift, window, 0, WINDOW_HISTORY);
+                base += shift;
+            }
+            final int q = (int) (block.dst_offset - base);
+            final int p = src_begin + (int) block.src_offset;
+            int r = i;
+            int dst_begin = q;
+            while (decoder.decode_block(dst, dst_begin, q, q + block.n_raw_bytes, src_buffer, p, p + block.src_size) != LZFSE_STATUS_OK) {
+                if (dst_begin == 0)
+                    throw new IllegalArgumentException("invalid LZFSE stream");
+                r = restart[r - 1];
+                dst_begin = (int) Math.max(0, dst_offset[r] - base);
+            }
+            restart[i] = r;
+        }
+        return new LzfseBlockIndex(blocks.get(n).src_offset + 4, magic, src_offset, src_block_size, dst_offset, n_raw_bytes, restart);
+    }
+
+    /** Size of the indexed stream, end-of-stream block included. */
+    public long compressed_size() {
+        return src_size;
+    }
+
+    /** Decoded size of the indexed stream. */
+    public long raw_size() {
+        final int n = dst_offset.length;
+        return n == 0 ? 0 : dst_offset[n - 1] + n_raw_bytes[n - 1];
+    }
+
+    /** Number of blocks, not counting the end-of-stream block. */
+    public int block_count() {
+        return dst_offset.length;
+    }
+
+    /** Offset in the stream of the header of the block holding decoded byte {@code raw_offset}. */
+    public long compressed_offset(final long raw_offset) {
+        return src_offset[block_of(raw_offset)];
+    }
+
+    /**
+     * Decodes bytes {@code [raw_offset, raw_offset + len)} of the indexed stream, at the position
+     * of {@code src_buffer}.
+     *
+     * @throws IndexOutOfBoundsException if the range is not within {@link #raw_size()}.
+     * @throws IllegalArgumentException  if the stream does not match the index, or is invalid.
+     */
+    public byte[] read_range(final ByteBuffer src_buffer, final long raw_offset, final int len) {
+        if (raw_offset < 0 || len < 0 || raw_offset > raw_size() - len)
+            throw new IndexOutOfBoundsException("range [" + raw_offset + ", " + raw_offset + " + " + len + ") out of [0, " + raw_size() + ")");
+        if (len == 0)
+            return new byte[0];
+        final int first = block_of(raw_offset);
+        final int last = block_of(raw_offset + len - 1);
+        int root = first;
+        for (int i = first; i <= last; i++) {
+            root = Math.min(root, restart[i]);
+        }
+
+        final long base = dst_offset[root];
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(Math.toIntExact(dst_offset[last] + n_raw_bytes[last] - base));
+        final LzfseDecoder decoder = new LzfseDecoder();
+        final int src_begin = src_buffer.position();
+        final ByteBuffer src = LittleEndianByteBuffer.duplicate(src_buffer);
+        for (int i = root; i <= last; i++) {
+            final int p = src_begin + Math.toIntExact(src_offset[i]);
+            if (p + src_block_size[i] > src_buffer.limit() || src.getInt(p) != magic[i])
+                throw new IllegalArgumentException("stream does not match the index at block " + i);
+            final int q = (int) (dst_offset[i] - base);
+            if (decoder.decode_block(dst, 0, q, q + n_raw_bytes[i], src_buffer, p, p + src_block_size[i]) != LZFSE_STATUS_OK)
+                throw new IllegalArgumentException("invalid LZFSE stream at block " + i);
+        }
+        return Arrays.copyOfRange(dst.array(), (int) (raw_offset - base), (int) (raw_offset - base) + len);
+    }
+
+    /** Writes this index to {@code out}, as a sidecar of the stream. {@code out} is not closed. */
+    public void write(final OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(src_size);
+        data.writeInt(dst_offset.length);
+        for (int i = 0; i < dst_offset.length; i++) {
+            data.writeInt(magic[i]);
+            data.writeLong(src_offset[i]);
+            data.writeInt(src_block_size[i]);
+            data.writeLong(dst_offset[i]);
+            data.writeInt(n_raw_bytes[i]);
+            data.writeInt(restart[i]);
+        }
+        data.flush();
+    }
+
+    /** Reads an index written by {@link #write}. {@code in} is not closed. */
+    public static LzfseBlockIndex read(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC)
+            throw new IOException("not an LZFSE block index");
+        final int version = data.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported LZFSE block index version " + version);
+        final long src_size = data.readLong();
+        final int n = data.readInt();
+        if (n < 0)
+            throw new IOException("corrupted LZFSE block index");
+        final int[] magic = new int[n];
+        final long[] src_offset = new long[n];
+        final int[] src_block_size = new int[n];
+        final long[] dst_offset = new long[n];
+        final int[] n_raw_bytes = new int[n];
+        final int[] restart = new int[n];
+        for (int i = 0; i < n; i++) {
+            magic[i] = data.readInt();
+            src_offset[i] = data.readLong();
+            src_block_size[i] = data.readInt();
+            dst_offset[i] = data.readLong();
+            n_raw_bytes[i] = data.readInt();
+            restart[i] = data.readInt();
+            if (restart[i] < 0 || restart[i] > i || n_raw_bytes[i] < 0 ||
+                    (i > 0 && dst_offset[i] != dst_offset[i - 1] + n_raw_bytes[i - 1]))
+                throw new IOException("corrupted LZFSE block index");
+        }
+        return new LzfseBlockIndex(src_size, magic, src_offset, src_block_size, dst_offset, n_raw_bytes, restart);
+    }
+
+    //  Index of the block holding decoded byte RAW_OFFSET, in [0, raw_size()).
+    private int block_of(final long raw_offset) {
+        if (raw_offset < 0 || raw_offset >= raw_size())
+            throw new IndexOutOfBoundsException("offset " + raw_offset + " out of [0, " + raw_size() + ")");
+        // Last block starting at or before RAW_OFFSET, skipping empty blocks
+        int i = Arrays.binarySearch(dst_offset, raw_offset);
+        if (i < 0)
+            i = -i - 2;
+        while (n_raw_bytes[i] == 0) {
+            i++;
+        }
+        return i;
+    }
+}
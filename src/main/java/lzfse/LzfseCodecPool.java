@@ -0,0 +1,188 @@
+package lzfse;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, lock-free pool of {@link LzfseEncoder} and {@link LzfseDecoder} instances, for encoding
+ * and decoding from many threads.
+ * <p>
+ * Idle codecs are kept in a fixed array of slots. A thread starts looking for a codec (or a free
+ * slot to return it to) at a stripe picked from its identity, so threads mostly hit different
+ * slots, and claims it with a single atomic swap. When no idle codec is found a new one is
+ * created, and when all slots are taken the returned codec is dropped, so at most
+ * {@link #capacity()} codecs of each kind are retained however many threads there are. Nothing
+ * is cached per thread, which keeps memory bounded with virtual threads as well.
+ */
+public final class LzfseCodecPool {
+    private final Pool<LzfseEncoder> encoders;
+    private final Pool<LzfseDecoder> decoders;
+
+    /** Pool retaining up to twice the number of available processors of each codec. */
+    public LzfseCodecPool() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Pool retaining up to {@code capacity} idle encoders, and as many idle decoders. */
+    public LzfseCodecPool(final int capacity) {
+        this(capacity, LzfseEncoderConfig.DEFAULT);
+    }
+
+    /**
+     * Pool retaining up to {@code capacity} idle encoders, which search matches with
+     * {@code config}, and as many idle decoders.
+     */
+    public LzfseCodecPool(final int capacity, final LzfseEncoderConfig config) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+        Objects.requireNonNull(config);
+        this.encoders = new Pool<>(capacity, () -> new LzfseEncoder(config));
+        this.decoders = new Pool<>(capacity, LzfseDecoder::new);
+    }
+
+    /** Same as {@link LzfseEncoder#encode}, using a pooled encoder. */
+    public long encode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size) {
+        final LzfseEncoder encoder = encoders.acquire();
+        try {
+            return encoder.encode(dst_buffer, dst_size, src_buffer, src_size);
+        } finally {
+            encoders.release(encoder);
+        }
+    }
+
+    /** Same as {@link LzfseEncoder#encode_segment}, using a pooled encoder. */
+    long encode_segment(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, int history_size, long src_size) {
+        final LzfseEncoder encoder = encoders.acquire();
+        try {
+            return encoder.encode_segment(dst_buffer, dst_size, src_buffer, history_size, src_size);
+        } finally {
+            encoders.release(encoder);
+        }
+    }
+
+    /** Same as {@link LzfseDecoder#decode}, using a pooled decoder. */
+    public int decode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size) {
+        final LzfseDecoder decoder = decoders.acquire();
+        try {
+            return decoder.decode(dst_buffer, dst_size, src_buffer, src_size);
+        } finally {
+            decoders.release(decoder);
+        }
+    }
+
+    /** Same as {@link LzfseDecoder#decode_block}, using a pooled decoder. */
+    int decode_block(ByteBuffer dst, int dst_begin, int dst_p, int dst_end, final ByteBuffer src, int src_p, int src_end) {
+        final LzfseDecoder decoder = decoders.acquire();
+        try {
+            return decoder.decode_block(dst, dst_begin, dst_p, dst_end, src, src_p, src_end);
+        } finally {
+            decoders.release(decoder);
+        }
+    }
+
+    /** Maximum number of idle codecs retained, for each of encoders and decoders. */
+    public int capacity() {
+        return encoders.slots.length();
+    }
+
+    /** Occupancy of the encoder slots. */
+    public Stats encoder_stats() {
+        return encoders.stats();
+    }
+
+    /** Occupancy of the decoder slots. */
+    public Stats decoder_stats() {
+        return decoders.stats();
+    }
+
+    /** Point-in-time occupancy of one side of the pool. Counters are cumulative. */
+    public static final class Stats {
+        /** Codecs waiting in a slot. */
+        public final int  idle;
+        /** Codecs currently encoding or decoding. */
+        public final int  in_use;
+        /** Calls served by an idle codec. */
+        public final long hits;
+        /** Calls that had to create a codec, because no idle one was found. */
+        public final long created;
+        /** Codecs dropped on release, because all slots were taken. */
+        public final long discarded;
+
+        Stats(int idle, int in_use, long hits, long created, long discarded) {
+            this.idle = idle;
+            this.in_use = in_use;
+            this.hits = hits;
+            this.created = created;
+            this.discarded = discarded;
+        }
+
+        @Override
+        public String toString() {
+            return "idle=" + idle + ", in_use=" + in_use + ", hits=" + hits +
+                    ", created=" + created + ", discarded=" + discarded;
+        }
+    }
+
+    private static final class Pool<T> {
+        final AtomicReferenceArray<T> slots;
+        final Supplier<T>             factory;
+        final AtomicInteger           idle      = new AtomicInteger();
+        final AtomicInteger           in_use    = new AtomicInteger();
+        final LongAdder               hits      = new LongAdder();
+        final LongAdder               created   = new LongAdder();
+        final LongAdder               discarded = new LongAdder();
+
+        Pool(final int capacity, final Supplier<T> factory) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.factory = factory;
+        }
+
+        T acquire() {
+            in_use.incrementAndGet();
+            final int n = slots.length();
+            final int stripe = stripe(n);
+            for (int i = 0; i < n; i++) {
+                final int slot = (stripe + i) % n;
+                if (slots.get(slot) == null)
+                    continue; // cheap read before the swap
+                final T t = slots.getAndSet(slot, null);
+                if (t != null) {
+                    idle.decrementAndGet();
+                    hits.increment();
+                    return t;
+                }
+            }
+            created.increment();
+            return factory.get();
+        }
+
+        void release(final T t) {
+            in_use.decrementAndGet();
+            final int n = slots.length();
+            final int stripe = stripe(n);
+            for (int i = 0; i < n; i++) {
+                final int slot = (stripe + i) % n;
+                if (slots.get(slot) == null && slots.compareAndSet(slot, null, t)) {
+                    idle.incrementAndGet();
+                    return;
+                }
+            }
+            discarded.increment();
+        }
+
+        Stats stats() {
+            return new Stats(idle.get(), in_use.get(), hits.sum(), created.sum(), discarded.sum());
+        }
+
+        //  Spread thread ids (sequential for platform and virtual threads alike)
+        //  over the slots.
+        private static int stripe(final int n) {
+            final long h = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+            return (int) ((h >>> 32) % n);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package lzfse;
+
+import lzfse.InternalStateObjects.lzfse_decoder_state;
+
+import java.nio.ByteBuffer;
+
+import static lzfse.Decode.lzfse_decode_buffer_with_history;
+import static lzfse.Decode.lzfse_decode_buffer_with_scratch;
+import static lzfse.DecodeBlocks.lzfse_decode_block;
+
+/**
+ * Reusable LZFSE decoder.
+ * <p>
+ * {@link Decode#lzfse_decode_buffer} allocates a new decoder state, including the FSE tables
+ * and the literal buffer, on every call. An {@code LzfseDecoder} owns one state and resets it in
+ * place between calls. Instances are not thread-safe; confine each one to a thread, or share
+ * them through a pool.
+ */
+public final class LzfseDecoder {
+    private final lzfse_decoder_state state = new lzfse_decoder_state();
+    //  Dictionary followed by the output, when decoding with a dictionary.
+    private byte[]                    window = new byte[0];
+    private LzfseDictionary           window_dictionary;
+
+    /**
+     * Same as {@link Decode#lzfse_decode_buffer}, reusing this decoder's state.
+     *
+     * @return the number of bytes written to {@code dst_buffer}, minus the number of bytes
+     * missing if it was too small, or 0 on error.
+     */
+    public int decode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size) {
+        return lzfse_decode_buffer_with_scratch(dst_buffer, dst_size, src_buffer, src_size, state);
+    }
+
+    /**
+     * Same as {@link #decode(ByteBuffer, long, ByteBuffer, long)}, for streams encoded with
+     * {@code dictionary}. The output is decoded after a copy of the dictionary first.
+     *
+     * @return the number of bytes written to {@code dst_buffer}, minus the number of bytes
+     * missing if it was too small, or 0 on error, including for a stream encoded with another
+     * dictionary, most of the time.
+     */
+    public int decode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size,
+                      final LzfseDictionary dictionary) {
+        //  Only as much output space as the stream needs, from its headers
+        final long decoded_size = Decode.lzfse_decoded_size(src_buffer, src_size);
+        if (decoded_size < 0)
+            return 0; // truncated or invalid
+        final int n = Math.toIntExact(Math.min(dst_size, decoded_size));
+        final int history_size = dictionary.size();
+        final int window_size = Math.addExact(history_size, n);
+        if (window.length < window_size || window_dictionary != dictionary) {
+            if (window.length < window_size)
+                window = new byte[window_size];
+            dictionary.copy_to(window);
+            window_dictionary = dictionary;
+        }
+        final int ret = lzfse_decode_buffer_with_history(LittleEndianByteBuffer.wrap(window, history_size), history_size,
+                n, src_buffer, src_size, state);
+        //  Copy the output, partial if DST is too small, as decoding into it directly would
+        final int written = ret < 0 ? state.dst.position() - history_size : ret;
+        if (written > 0)
+            LittleEndianByteBuffer.duplicate(dst_buffer).put(window, history_size, written);
+        return ret;
+    }
+
+    /**
+     * Number of LZFSE blocks decoded with the FSE tables of a previous block, as their frequency
+     * tables were the same. The decoder keeps the tables of its last four frequency tables.
+     */
+    public long table_cache_hits() {
+        return state.compressed_lzfse_block_state.table_cache.n_hits;
+    }
+
+    /** Number of LZFSE blocks decoded with new FSE tables. */
+    public long table_cache_misses() {
+        return state.compressed_lzfse_block_state.table_cache.n_misses;
+    }
+
+    /** Same as {@link DecodeBlocks#lzfse_decode_block}, reusing this decoder's state. */
+    int decode_block(ByteBuffer dst, int dst_begin, int dst_p, int dst_end, final ByteBuffer src, int src_p, int src_end) {
+        return lzfse_decode_block(dst, dst_begin, dst_p, dst_end, src, src_p, src_end, state);
+    }
+}
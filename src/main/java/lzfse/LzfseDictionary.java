@@ -0,0 +1,102 @@
+package lzfse;
+
+import lzfse.InternalStateObjects.lzfse_encoder_state;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static lzfse.EncodeStateManagement.lzfse_encode_init;
+import static lzfse.EncodeStateManagement.lzfse_encode_prime;
+import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
+import static lzfse.LzvnEncodeBase.LZVN_ENCODE_TABLE_INTS;
+import static lzfse.LzvnEncodeBase.lzvn_encode_prime;
+
+/**
+ * Preset dictionary, for compressing small messages that look alike.
+ * <p>
+ * Messages of a few kilobytes leave an LZFSE encoder little history to find matches in. With a
+ * dictionary, the encoder works as if the message followed the dictionary bytes: its matches may
+ * refer to them, so keys, field layouts and boilerplate that every message repeats are encoded
+ * as matches from the first occurrence on. The most common content is best placed at the end of
+ * the dictionary, where distances are shortest; for inputs encoded with LZVN, below
+ * {@link LzfseEncoderConfig#lzvn_threshold()}, only the last 64 KB are used.
+ * <p>
+ * The output is made of standard LZFSE blocks, but its matches reach before the start of the
+ * output: it can only be decoded with the same dictionary, by
+ * {@link LzfseDecoder#decode(ByteBuffer, long, ByteBuffer, long, LzfseDictionary)}. The stream
+ * does not identify its dictionary; the application must. Instances are immutable and
+ * thread-safe. The hash tables of the dictionary are computed on first use with each encoder
+ * configuration, and kept with it.
+ */
+public final class LzfseDictionary {
+    /** Smallest dictionary, in bytes. */
+    public static final int MIN_SIZE = 4;
+    /** Largest dictionary, in bytes: the longest match distance. */
+    public static final int MAX_SIZE = LZFSE_ENCODE_MAX_D_VALUE;
+
+    private final byte[] content;
+    //  Encoder tables filled with the dictionary, per configuration for LZFSE.
+    private final Map<LzfseEncoderConfig, int[]> lzfse_tables = new ConcurrentHashMap<>();
+    private volatile int[] lzvn_table;
+
+    /**
+     * @param content the dictionary bytes, from {@link #MIN_SIZE} to {@link #MAX_SIZE} of them.
+     *                They are copied.
+     */
+    public LzfseDictionary(final byte[] content) {
+        if (content.length < MIN_SIZE || content.length > MAX_SIZE)
+            throw new IllegalArgumentException("dictionary size must be in [" + MIN_SIZE + ", " + MAX_SIZE + "]: " + content.length);
+        this.content = content.clone();
+    }
+
+    /** Size of the dictionary, in bytes. */
+    public int size() {
+        return content.length;
+    }
+
+    /** A copy of the dictionary bytes. */
+    public byte[] content() {
+        return content.clone();
+    }
+
+    //  Copy the dictionary to WINDOW[0, size()).
+    void copy_to(final byte[] window) {
+        System.arraycopy(content, 0, window, 0, content.length);
+    }
+
+    //  LZFSE encoder history table for CONFIG, filled with the dictionary at
+    //  negative offsets. Not to be modified.
+    int[] lzfse_history(final LzfseEncoderConfig config) {
+        return lzfse_tables.computeIfAbsent(config, c -> {
+            final lzfse_encoder_state s = new lzfse_encoder_state(c);
+            lzfse_encode_init(s);
+            s.src = LittleEndianByteBuffer.wrap(content);
+            lzfse_encode_prime(s, content.length);
+            return s.history_table;
+        });
+    }
+
+    //  LZVN encoder table, filled with the dictionary at negative offsets. Not to
+    //  be modified.
+    int[] lzvn_history() {
+        int[] table = lzvn_table;
+        if (table == null) {
+            table = new int[LZVN_ENCODE_TABLE_INTS];
+            lzvn_encode_prime(LittleEndianByteBuffer.wrap(content, content.length), content.length, table);
+            lzvn_table = table;
+        }
+        return table;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o || (o instanceof LzfseDictionary && Arrays.equals(content, ((LzfseDictionary) o).content));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(content);
+    }
+}
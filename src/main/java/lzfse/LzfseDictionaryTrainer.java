@@ -0,0 +1,163 @@
+package lzfse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static lzfse.EncodeBase.hashX;
+
+/**
+ * Builds a {@link LzfseDictionary} from sample messages.
+ * <p>
+ * The encoder finds matches from the 4-byte values it hashes, so content is worth placing in a
+ * dictionary if its 4-byte values occur in many messages. The trainer counts, for every 4-byte
+ * value, with the hash of the match finder, the number of samples it occurs in. The samples are
+ * then split into as many consecutive ranges, or epochs, as the dictionary has segments, and the
+ * segment of each epoch whose distinct values have the highest total count is selected: its
+ * score is frequency times length. The values of a selected segment no longer count, so the
+ * following segments bring new content. Segments are laid out by increasing score, the best at
+ * the end of the dictionary, where match distances are shortest.
+ * <p>
+ * Samples should be representative of the messages to compress, and together be several times
+ * larger than the dictionary. Training is deterministic.
+ */
+public final class LzfseDictionaryTrainer {
+    /** Default segment size, in bytes. */
+    public static final int DEFAULT_SEGMENT_SIZE = 128;
+
+    //  Bits of the hash of 4-byte values. Larger than the encoder hash: the
+    //  trainer counts values, where the encoder only finds candidates.
+    private static final int TRAIN_HASH_BITS = 20;
+
+    private LzfseDictionaryTrainer() {
+    }
+
+    /** Same as {@link #train(List, int, int)} with {@link #DEFAULT_SEGMENT_SIZE}. */
+    public static LzfseDictionary train(final List<byte[]> samples, final int dictionary_size) {
+        return train(samples, dictionary_size, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param samples         sample messages.
+     * @param dictionary_size largest size of the dictionary, from {@link LzfseDictionary#MIN_SIZE}
+     *                        to {@link LzfseDictionary#MAX_SIZE}. The dictionary is smaller if
+     *                        the samples have less content worth selecting.
+     * @param segment_size    size of the selected segments, from 8 to {@code dictionary_size}.
+     *                        Small segments pick common strings more precisely, large ones keep
+     *                        more of their context.
+     * @throws IllegalArgumentException if the sizes are out of range, or the samples hold less
+     *                                  than {@link LzfseDictionary#MIN_SIZE} bytes.
+     */
+    public static LzfseDictionary train(final List<byte[]> samples, final int dictionary_size, final int segment_size) {
+        if (dictionary_size < LzfseDictionary.MIN_SIZE || dictionary_size > LzfseDictionary.MAX_SIZE)
+            throw new IllegalArgumentException("dictionary_size must be in [" + LzfseDictionary.MIN_SIZE + ", " +
+                    LzfseDictionary.MAX_SIZE + "]: " + dictionary_size);
+        if (segment_size < 8 || segment_size > dictionary_size)
+            throw new IllegalArgumentException("segment_size must be in [8, " + dictionary_size + "]: " + segment_size);
+
+        // All samples, one after the other; SAMPLE_END[s] is the end of sample S
+        final int n_samples = samples.size();
+        final int[] sample_end = new int[n_samples];
+        long size = 0;
+        for (int s = 0; s < n_samples; s++) {
+            size += samples.get(s).length;
+            if (size > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("samples larger than 2 GB");
+            sample_end[s] = (int) size;
+        }
+        if (size < LzfseDictionary.MIN_SIZE)
+            throw new IllegalArgumentException("samples must hold at least " + LzfseDictionary.MIN_SIZE + " bytes: " + size);
+        final byte[] data = new byte[(int) size];
+        for (int s = 0, p = 0; s < n_samples; p = sample_end[s++]) {
+            System.arraycopy(samples.get(s), 0, data, p, samples.get(s).length);
+        }
+        final ByteBuffer src = LittleEndianByteBuffer.wrap(data);
+
+        // Number of samples each hashed 4-byte value occurs in
+        final int[] freq = new int[1 << TRAIN_HASH_BITS];
+        final int[] last_sample = new int[1 << TRAIN_HASH_BITS];
+        Arrays.fill(last_sample, -1);
+        for (int s = 0, p = 0; s < n_samples; p = sample_end[s++]) {
+            for (; p + 4 <= sample_end[s]; p++) {
+                final int h = hashX(src.getInt(p), TRAIN_HASH_BITS);
+                if (last_sample[h] != s) {
+                    last_sample[h] = s;
+                    freq[h]++;
+                }
+            }
+        }
+
+        // Best segment of each epoch
+        final int n_segments = (dictionary_size + segment_size - 1) / segment_size;
+        final int epoch_size = (int) Math.max(segment_size, size / n_segments);
+        final int[] active = new int[1 << TRAIN_HASH_BITS]; // occurrences in the window
+        final List<int[]> segments = new ArrayList<>();    // {score, begin, end}
+        for (int epoch = 0, s = 0; epoch < size; epoch += epoch_size) {
+            final int epoch_end = (int) Math.min(size, (long) epoch + epoch_size);
+            int best_score = 0, best_begin = 0, best_end = 0;
+            // Each sample in the epoch, with a window of positions [begin, p] of at
+            // most SEGMENT_SIZE bytes, and the score of its distinct values
+            while (sample_end[s] <= epoch) {
+                s++;
+            }
+            for (int t = s; t < n_samples && (t == 0 ? 0 : sample_end[t - 1]) < epoch_end; t++) {
+                final int end = Math.min(epoch_end, sample_end[t] - 3);
+                int begin = Math.max(epoch, t == 0 ? 0 : sample_end[t - 1]);
+                int p = begin;
+                int score = 0;
+                for (; p < end; p++) {
+                    score += add(src, p, freq, active);
+                    if (p + 4 - begin > segment_size)
+                        score -= remove(src, begin++, freq, active);
+                    if (score > best_score) {
+                        best_score = score;
+                        best_begin = begin;
+                        best_end = p + 4;
+                    }
+                }
+                for (; begin < p; begin++) {
+                    remove(src, begin, freq, active);
+                }
+            }
+            if (best_score == 0)
+                continue;
+
+            // Values of the segment no longer count
+            for (int p = best_begin; p + 4 <= best_end; p++) {
+                freq[hashX(src.getInt(p), TRAIN_HASH_BITS)] = 0;
+            }
+            segments.add(new int[]{best_score, best_begin, best_end});
+        }
+
+        // Best segments at the end
+        segments.sort(Comparator.comparingInt(segment -> segment[0]));
+        final byte[] dictionary = new byte[dictionary_size];
+        int q = dictionary_size;
+        for (int i = segments.size() - 1; i >= 0 && q > 0; i--) {
+            final int end = segments.get(i)[2];
+            final int n = Math.min(q, end - segments.get(i)[1]);
+            q -= n;
+            System.arraycopy(data, end - n, dictionary, q, n);
+        }
+        if (dictionary_size - q < LzfseDictionary.MIN_SIZE) {
+            // Nothing in common: the most recent content
+            final int n = (int) Math.min(dictionary_size, size);
+            return new LzfseDictionary(Arrays.copyOfRange(data, data.length - n, data.length));
+        }
+        return new LzfseDictionary(Arrays.copyOfRange(dictionary, q, dictionary_size));
+    }
+
+    //  Add the value at P to the window, and return its contribution to the score.
+    private static int add(final ByteBuffer src, final int p, final int[] freq, int[] active) {
+        final int h = hashX(src.getInt(p), TRAIN_HASH_BITS);
+        return active[h]++ == 0 ? freq[h] : 0;
+    }
+
+    //  Remove the value at P from the window, and return its contribution to the score.
+    private static int remove(final ByteBuffer src, final int p, final int[] freq, int[] active) {
+        final int h = hashX(src.getInt(p), TRAIN_HASH_BITS);
+        return --active[h] == 0 ? freq[h] : 0;
+    }
+}
@@ -0,0 +1,78 @@
+package lzfse;
+
+import lzfse.InternalStateObjects.lzfse_encoder_state;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static lzfse.Encode.lzfse_encode_buffer_with_history;
+import static lzfse.Encode.lzfse_encode_buffer_with_scratch;
+import static lzfse.Encode.lzfse_encode_segment;
+
+/**
+ * Reusable LZFSE encoder.
+ * <p>
+ * {@link Encode#lzfse_encode_buffer} allocates a new encoder state (about 684 KB) on every call.
+ * An {@code LzfseEncoder} owns one state and resets it in place between calls, so encoding many
+ * small buffers does not allocate. Instances are not thread-safe; confine each one to a thread,
+ * or share them through a pool.
+ */
+public final class LzfseEncoder {
+    private final LzfseEncoderConfig  config;
+    private final lzfse_encoder_state state;
+    //  Dictionary followed by the input, when encoding with a dictionary.
+    private byte[]                    window = new byte[0];
+    private LzfseDictionary           window_dictionary;
+
+    /** Encoder with the {@link LzfseEncoderConfig#DEFAULT} configuration. */
+    public LzfseEncoder() {
+        this(LzfseEncoderConfig.DEFAULT);
+    }
+
+    /** Encoder searching matches with {@code config}. */
+    public LzfseEncoder(final LzfseEncoderConfig config) {
+        this.config = Objects.requireNonNull(config);
+        this.state = new lzfse_encoder_state(config);
+    }
+
+    public LzfseEncoderConfig config() {
+        return config;
+    }
+
+    /**
+     * Same as {@link Encode#lzfse_encode_buffer}, reusing this encoder's state.
+     *
+     * @return the number of bytes written to {@code dst_buffer}, or 0 if it was too small.
+     */
+    public long encode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size) {
+        return lzfse_encode_buffer_with_scratch(dst_buffer, dst_size, src_buffer, src_size, state);
+    }
+
+    /**
+     * Same as {@link #encode(ByteBuffer, long, ByteBuffer, long)}, with matches into
+     * {@code dictionary}. The input is copied after the dictionary first.
+     *
+     * @return the number of bytes written to {@code dst_buffer}, or 0 if it was too small.
+     */
+    public long encode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size,
+                       final LzfseDictionary dictionary) {
+        final int history_size = dictionary.size();
+        final int window_size = Math.addExact(history_size, Math.toIntExact(src_size));
+        if (window.length < window_size || window_dictionary != dictionary) {
+            if (window.length < window_size)
+                window = new byte[window_size];
+            dictionary.copy_to(window);
+            window_dictionary = dictionary;
+        }
+        final ByteBuffer src = LittleEndianByteBuffer.wrap(window, history_size);
+        LittleEndianByteBuffer.copy(src, src_buffer, (int) src_size);
+        src.position(history_size);
+        return lzfse_encode_buffer_with_history(dst_buffer, dst_size, src, history_size, src_size,
+                dictionary.lzfse_history(config), dictionary.lzvn_history(), state);
+    }
+
+    /** Same as {@link Encode#lzfse_encode_segment}, reusing this encoder's state. */
+    long encode_segment(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, int history_size, long src_size) {
+        return lzfse_encode_segment(dst_buffer, dst_size, src_buffer, history_size, src_size, state);
+    }
+}
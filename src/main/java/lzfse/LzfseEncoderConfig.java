@@ -0,0 +1,145 @@
+package lzfse;
+
+import static lzfse.LzvnEncodeBase.LZVN_ENCODE_TABLE_INTS;
+
+/**
+ * Match search parameters of an LZFSE encoder, trading compression ratio for encoding speed.
+ * <p>
+ * These are the {@link Tunables} of the reference implementation, chosen per encoder instead of
+ * at build time. Every configuration writes standard LZFSE streams, which any decoder reads; they
+ * only change which matches the encoder finds, and the size of its history table.
+ * {@link #DEFAULT} is the configuration of the compression library on iOS and OS X. Instances are
+ * immutable.
+ */
+public final class LzfseEncoderConfig {
+    /** Small history table, and matches emitted early: faster, compresses less. */
+    public static final LzfseEncoderConfig FAST    = new LzfseEncoderConfig(12, 4, 16, Tunables.LZFSE_ENCODE_LZVN_THRESHOLD);
+    /** The {@link Tunables} values. */
+    public static final LzfseEncoderConfig DEFAULT = new LzfseEncoderConfig(Tunables.LZFSE_ENCODE_HASH_BITS,
+            Tunables.LZFSE_ENCODE_HASH_WIDTH, Tunables.LZFSE_ENCODE_GOOD_MATCH, Tunables.LZFSE_ENCODE_LZVN_THRESHOLD);
+    /** Largest history table, lazy matching two positions ahead: slower, compresses more. */
+    public static final LzfseEncoderConfig HIGH    = new LzfseEncoderConfig(16, 8, 128, Tunables.LZFSE_ENCODE_LZVN_THRESHOLD, 2);
+    /** Largest history table, optimal parsing: much slower, compresses the most. */
+    public static final LzfseEncoderConfig MAX     = new LzfseEncoderConfig(16, 8, 256, Tunables.LZFSE_ENCODE_LZVN_THRESHOLD, 0, true);
+
+    private final int hash_bits;
+    private final int hash_width;
+    private final int good_match;
+    private final int lzvn_threshold;
+    private final int lazy_depth;
+    private final boolean optimal;
+
+    /**
+     * @param hash_bits      number of bits of the match search hash, from 10 to 16. See
+     *                       {@code Tunables.LZFSE_ENCODE_HASH_BITS}.
+     * @param hash_width     number of positions stored per hash value, 4 or 8. See
+     *                       {@code Tunables.LZFSE_ENCODE_HASH_WIDTH}.
+     * @param good_match     match length emitted immediately, at least 4. See
+     *                       {@code Tunables.LZFSE_ENCODE_GOOD_MATCH}.
+     * @param lzvn_threshold inputs smaller than this are encoded with LZVN, at least 0. See
+     *                       {@code Tunables.LZFSE_ENCODE_LZVN_THRESHOLD}.
+     */
+    public LzfseEncoderConfig(final int hash_bits, final int hash_width, final int good_match, final int lzvn_threshold) {
+        this(hash_bits, hash_width, good_match, lzvn_threshold, 0);
+    }
+
+    /**
+     * @param hash_bits      number of bits of the match search hash, from 10 to 16.
+     * @param hash_width     number of positions stored per hash value, 4 or 8.
+     * @param good_match     match length emitted immediately, at least 4.
+     * @param lzvn_threshold inputs smaller than this are encoded with LZVN, at least 0.
+     * @param lazy_depth     number of positions after a match searched for a better one before
+     *                       emitting it, from 0 to 3. 0 is the single pending match heuristic of
+     *                       the reference encoder; more finds better matches, and encodes slower.
+     */
+    public LzfseEncoderConfig(final int hash_bits, final int hash_width, final int good_match, final int lzvn_threshold,
+                              final int lazy_depth) {
+        this(hash_bits, hash_width, good_match, lzvn_threshold, lazy_depth, false);
+    }
+
+    /**
+     * @param hash_bits      number of bits of the match search hash, from 10 to 16.
+     * @param hash_width     number of positions stored per hash value, 4 or 8.
+     * @param good_match     match length emitted immediately, at least 4.
+     * @param lzvn_threshold inputs smaller than this are encoded with LZVN, at least 0.
+     * @param lazy_depth     number of positions after a match searched for a better one before
+     *                       emitting it, from 0 to 3; must be 0 with {@code optimal}.
+     * @param optimal        whether to pick matches by estimating the encoded size of every
+     *                       choice over windows of 4 KB, from the statistics of the last block.
+     *                       Encodes several times slower.
+     */
+    public LzfseEncoderConfig(final int hash_bits, final int hash_width, final int good_match, final int lzvn_threshold,
+                              final int lazy_depth, final boolean optimal) {
+        if (hash_bits < 10 || hash_bits > 16)
+            throw new IllegalArgumentException("hash_bits must be in [10, 16]: " + hash_bits);
+        if (hash_width != 4 && hash_width != 8)
+            throw new IllegalArgumentException("hash_width must be 4 or 8: " + hash_width);
+        if (good_match < 4)
+            throw new IllegalArgumentException("good_match must be >= 4: " + good_match);
+        if (lzvn_threshold < 0)
+            throw new IllegalArgumentException("lzvn_threshold must be >= 0: " + lzvn_threshold);
+        if (lazy_depth < 0 || lazy_depth > 3)
+            throw new IllegalArgumentException("lazy_depth must be in [0, 3]: " + lazy_depth);
+        if (optimal && lazy_depth != 0)
+            throw new IllegalArgumentException("lazy_depth must be 0 with optimal parsing: " + lazy_depth);
+        this.hash_bits = hash_bits;
+        this.hash_width = hash_width;
+        this.good_match = good_match;
+        this.lzvn_threshold = lzvn_threshold;
+        this.lazy_depth = lazy_depth;
+        this.optimal = optimal;
+    }
+
+    public int hash_bits() {
+        return hash_bits;
+    }
+
+    public int hash_width() {
+        return hash_width;
+    }
+
+    public int good_match() {
+        return good_match;
+    }
+
+    public int lzvn_threshold() {
+        return lzvn_threshold;
+    }
+
+    public int lazy_depth() {
+        return lazy_depth;
+    }
+
+    public boolean optimal() {
+        return optimal;
+    }
+
+    //  Number of ints of the encoder history table: the LZFSE hash lines, and at
+    //  least the LZVN encoder table, which overlays it.
+    int history_table_ints() {
+        return Math.max((1 << hash_bits) * 2 * hash_width, LZVN_ENCODE_TABLE_INTS);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof LzfseEncoderConfig))
+            return false;
+        final LzfseEncoderConfig that = (LzfseEncoderConfig) o;
+        return hash_bits == that.hash_bits && hash_width == that.hash_width &&
+                good_match == that.good_match && lzvn_threshold == that.lzvn_threshold &&
+                lazy_depth == that.lazy_depth && optimal == that.optimal;
+    }
+
+    @Override
+    public int hashCode() {
+        return (((hash_bits * 31 + hash_width) * 31 + good_match) * 31 + lzvn_threshold) * 31 + lazy_depth + (optimal ? 7 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "hash_bits=" + hash_bits + ", hash_width=" + hash_width +
+                ", good_match=" + good_match + ", lzvn_threshold=" + lzvn_threshold + ", lazy_depth=" + lazy_depth + ", optimal=" + optimal;
+    }
+}
@@ -0,0 +1,149 @@
+package lzfse;
+
+import lzfse.InternalBlockHeaderObjects.lzfse_compressed_block_header_v1;
+import lzfse.InternalStateObjects.lzfse_decoder_state;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static lzfse.DecodeBase.lzfse_decode;
+import static lzfse.Encode.LZFSE_ENCODER_BLOCK_SIZE;
+import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
+import static lzfse.Internal.LZFSE_STATUS_DST_FULL;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+import static lzfse.Internal.LZFSE_STATUS_SRC_EMPTY;
+
+/**
+ * Decompresses an LZFSE stream read from an underlying {@link InputStream}.
+ * <p>
+ * The resumable {@link DecodeBase#lzfse_decode} state machine is driven with bounded buffers: it
+ * returns {@code LZFSE_STATUS_SRC_EMPTY} when the next block is not entirely in the source
+ * buffer, and {@code LZFSE_STATUS_DST_FULL} when the output window must be drained. Only the
+ * match history and the compressed block being decoded are kept in memory.
+ */
+public class LzfseInputStream extends InputStream {
+    //  Decoded bytes kept in front of the bytes being decoded, so that matches
+    //  up to LZFSE_ENCODE_MAX_D_VALUE back remain addressable.
+    private static final int HISTORY_SIZE  = LZFSE_ENCODE_MAX_D_VALUE + 5;
+    private static final int OUTPUT_SIZE   = LZFSE_ENCODER_BLOCK_SIZE;
+    private static final int SRC_SIZE      = 65536;
+    //  Compressed blocks are decoded from memory, so SRC grows up to the
+    //  largest block the v2 header fields can describe (2 payloads of 20 bits).
+    private static final int MAX_SRC_SIZE  = lzfse_compressed_block_header_v1.BYTES + 2 * (1 << 20);
+
+    private final InputStream in;
+
+    private final lzfse_decoder_state state  = new lzfse_decoder_state();
+    private final byte[]              window = new byte[HISTORY_SIZE + OUTPUT_SIZE];
+    private       byte[]              src    = new byte[SRC_SIZE];
+
+    //  Next decoded byte to return, in WINDOW.
+    private int     read_pos;
+    private boolean closed;
+
+    public LzfseInputStream(final InputStream in) {
+        this.in = Objects.requireNonNull(in);
+        state.src = LittleEndianByteBuffer.wrap(src);
+        state.src_begin = 0;
+        state.src_end = 0;
+        state.dst = LittleEndianByteBuffer.wrap(window);
+        state.dst_begin = 0;
+        state.dst_end = window.length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensure_open();
+        if (!fill_output())
+            return -1;
+        return Byte.toUnsignedInt(window[read_pos++]);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensure_open();
+        if (len == 0)
+            return 0;
+        if (!fill_output())
+            return -1;
+        final int n = Math.min(len, state.dst.position() - read_pos);
+        System.arraycopy(window, read_pos, b, off, n);
+        read_pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensure_open();
+        return state.dst.position() - read_pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        in.close();
+    }
+
+    //  Decode until there are bytes to return.
+    //  @return false at the end of the stream.
+    private boolean fill_output() throws IOException {
+        while (read_pos == state.dst.position()) {
+            if (state.end_of_stream != 0)
+                return false;
+            decode();
+        }
+        return true;
+    }
+
+    //  Called only when all decoded bytes have been returned.
+    private void decode() throws IOException {
+        //  Window full, keep the match history and decode after it.
+        if (state.dst.position() == window.length) {
+            System.arraycopy(window, window.length - HISTORY_SIZE, window, 0, HISTORY_SIZE);
+            state.dst.position(HISTORY_SIZE);
+            read_pos = HISTORY_SIZE;
+        }
+
+        final int status = lzfse_decode(state);
+        if (status == LZFSE_STATUS_OK || status == LZFSE_STATUS_DST_FULL)
+            return;
+        if (status == LZFSE_STATUS_SRC_EMPTY) {
+            refill();
+            return;
+        }
+        throw new IOException("Invalid LZFSE stream");
+    }
+
+    //  Move the unread source bytes to the front of SRC, and read more.
+    private void refill() throws IOException {
+        final int start = state.src.position();
+        final int remaining = state.src_end - start;
+        System.arraycopy(src, start, src, 0, remaining);
+        state.src.position(0);
+        state.src_end = remaining;
+
+        if (remaining == src.length) {
+            // The current block does not fit
+            if (src.length >= MAX_SRC_SIZE)
+                throw new IOException("Invalid LZFSE stream, block too large");
+            src = Arrays.copyOf(src, Math.min(2 * src.length, MAX_SRC_SIZE));
+            state.src = LittleEndianByteBuffer.wrap(src);
+        }
+
+        final int n = in.read(src, state.src_end, src.length - state.src_end);
+        if (n < 0)
+            throw new EOFException("Truncated LZFSE stream");
+        state.src_end += n;
+    }
+
+    private void ensure_open() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
@@ -0,0 +1,207 @@
+package lzfse;
+
+import lzfse.DecodeBlocks.lzfse_block;
+import lzfse.InternalBlockHeaderObjects.uncompressed_block_header;
+import lzfse.InternalStateObjects.lzfse_encoder_state;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static lzfse.DecodeBlocks.lzfse_read_block_header;
+import static lzfse.Encode.LZFSE_ENCODER_BLOCK_SIZE;
+import static lzfse.Encode.lzfse_encode_buffer_with_scratch;
+import static lzfse.EncodeFrontEnd.lzfse_encode_base;
+import static lzfse.EncodeFrontEnd.lzfse_encode_finish;
+import static lzfse.EncodeStateManagement.lzfse_encode_init;
+import static lzfse.EncodeStateManagement.lzfse_encode_translate;
+import static lzfse.Internal.LZFSE_STATUS_DST_FULL;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_ENDOFSTREAM_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_UNCOMPRESSED_BLOCK_MAGIC;
+
+/**
+ * Compresses everything written to it into a single LZFSE stream.
+ * <p>
+ * The input is encoded through a sliding window, one {@link Encode#LZFSE_ENCODER_BLOCK_SIZE}
+ * chunk at a time, the same way {@link Encode#lzfse_encode_buffer} walks huge buffers. Blocks are
+ * written to the underlying stream as soon as the encoder emits them, so memory use does not
+ * depend on the input size. An input that never fills the first window is encoded in one shot on
+ * {@link #close()}, and produces the same bytes as {@link Encode#lzfse_encode_buffer}. Otherwise,
+ * a compressed block larger than its input, as for random data, is replaced by an uncompressed
+ * block of the same bytes.
+ * <p>
+ * {@link #flush()} only flushes the underlying stream; buffered input is encoded when the window
+ * fills up, or on {@link #close()}.
+ */
+public class LzfseOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = LZFSE_ENCODER_BLOCK_SIZE;
+
+    private final OutputStream out;
+
+    private final lzfse_encoder_state state;
+    //  Source window: one chunk of history (so that matches up to
+    //  LZFSE_ENCODE_MAX_D_VALUE back remain addressable), followed by the two
+    //  chunks the encoder is currently working on.
+    private final byte[]     window        = new byte[3 * BLOCK_SIZE];
+    private final ByteBuffer window_buffer = LittleEndianByteBuffer.wrap(window);
+    //  Encoded blocks, drained to OUT after each encoder call. Large enough for
+    //  the one-shot path to fall back to an uncompressed block.
+    private final byte[]     dst           = new byte[2 * BLOCK_SIZE + uncompressed_block_header.BYTES + Integer.BYTES];
+    private final ByteBuffer dst_buffer    = LittleEndianByteBuffer.wrap(dst);
+    //  Header of the block being drained.
+    private final lzfse_block block        = new lzfse_block();
+    //  Header of the uncompressed blocks drain writes instead of compressed ones.
+    private final byte[]     header        = new byte[uncompressed_block_header.BYTES];
+    private final ByteBuffer header_buffer = LittleEndianByteBuffer.wrap(header).putInt(0, LZFSE_UNCOMPRESSED_BLOCK_MAGIC);
+
+    //  Index in WINDOW of the first input byte of the next block drained. Negative
+    //  if the window slid past it, which only happens for blocks that compress well.
+    private int     raw;
+    //  Number of valid bytes in WINDOW.
+    private int     fill;
+    //  Did we start encoding chunks, or is all the input still in WINDOW?
+    private boolean started;
+    private boolean closed;
+
+    public LzfseOutputStream(final OutputStream out) {
+        this(out, LzfseEncoderConfig.DEFAULT);
+    }
+
+    /** Stream searching matches with {@code config}. */
+    public LzfseOutputStream(final OutputStream out, final LzfseEncoderConfig config) {
+        this.out = Objects.requireNonNull(out);
+        this.state = new lzfse_encoder_state(config);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensure_open();
+        window[fill++] = (byte) b;
+        if (fill == window_limit())
+            encode_window();
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensure_open();
+        while (len > 0) {
+            final int n = Math.min(len, window_limit() - fill);
+            System.arraycopy(b, off, window, fill, n);
+            fill += n;
+            off += n;
+            len -= n;
+            if (fill == window_limit())
+                encode_window();
+        }
+    }
+
+    /** Flushes the underlying stream. Input still waiting in the window is not encoded. */
+    @Override
+    public void flush() throws IOException {
+        ensure_open();
+        out.flush();
+    }
+
+    /** Encodes the remaining input, writes the end-of-stream block, and closes the underlying stream. */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try (OutputStream o = out) {
+            if (!started) {
+                // Everything fits in the window, go through the buffer API
+                dst_buffer.clear();
+                final long n = lzfse_encode_buffer_with_scratch(dst_buffer, dst.length, window_buffer, fill, state);
+                if (n == 0)
+                    throw new IOException("LZFSE encoder failed");
+                o.write(dst, 0, (int) n);
+            } else {
+                state.src_end = fill - state.src.position();
+                encode(false);
+                encode(true);
+            }
+            o.flush();
+        }
+    }
+
+    //  Fill level at which the next chunk is ready: two chunks past the start of
+    //  the encoder's source buffer.
+    private int window_limit() {
+        return (started ? state.src.position() : 0) + 2 * BLOCK_SIZE;
+    }
+
+    private void encode_window() throws IOException {
+        if (!started) {
+            state.clear();
+            lzfse_encode_init(state);
+            state.src = LittleEndianByteBuffer.duplicate(window_buffer);
+            state.src_encode_i = 0;
+            state.dst = dst_buffer;
+            state.dst_begin = 0;
+            state.dst_end = dst.length;
+            //  The first chunk, we just process normally.
+            state.src_end = BLOCK_SIZE;
+            encode(false);
+            started = true;
+        }
+        //  All subsequent chunks go from BLOCK_SIZE up to 2*BLOCK_SIZE, and are
+        //  then translated to keep the offsets from getting too big.
+        state.src_end = 2 * BLOCK_SIZE;
+        encode(false);
+        lzfse_encode_translate(state, BLOCK_SIZE);
+
+        //  Slide the window, keeping one chunk of history before the source.
+        final int src_begin = state.src.position();
+        if (src_begin + 2 * BLOCK_SIZE > window.length) {
+            final int shift = src_begin - BLOCK_SIZE;
+            System.arraycopy(window, shift, window, 0, fill - shift);
+            fill -= shift;
+            raw -= shift;
+            state.src.position(BLOCK_SIZE);
+        }
+    }
+
+    //  Run lzfse_encode_base (or lzfse_encode_finish), and write out the
+    //  emitted blocks. Both can be resumed after draining DST if it was full.
+    private void encode(final boolean finish) throws IOException {
+        int status;
+        while ((status = finish ? lzfse_encode_finish(state) : lzfse_encode_base(state)) == LZFSE_STATUS_DST_FULL
+                && dst_buffer.position() > 0)
+            drain();
+        if (status != LZFSE_STATUS_OK)
+            throw new IOException("LZFSE encoder failed");
+        drain();
+    }
+
+    //  Write out the blocks in DST, replacing the ones larger than an uncompressed
+    //  block of their input with one. Their input is still in WINDOW: a block
+    //  covers no more input than the encoder keeps before its source position.
+    private void drain() throws IOException {
+        final int end = dst_buffer.position();
+        int written = 0;
+        for (int p = 0; p < end; p += block.src_size) {
+            if (lzfse_read_block_header(dst_buffer, p, end, block) != LZFSE_STATUS_OK)
+                throw new IOException("LZFSE encoder failed");
+            if (block.magic != LZFSE_ENDOFSTREAM_BLOCK_MAGIC && raw >= 0
+                    && block.src_size > uncompressed_block_header.BYTES + block.n_raw_bytes) {
+                out.write(dst, written, p - written);
+                header_buffer.putInt(Integer.BYTES, block.n_raw_bytes);
+                out.write(header);
+                out.write(window, raw, block.n_raw_bytes);
+                written = p + block.src_size;
+            }
+            raw += block.n_raw_bytes;
+        }
+        out.write(dst, written, end - written);
+        dst_buffer.clear();
+    }
+
+    private void ensure_open() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
@@ -0,0 +1,159 @@
+package lzfse;
+
+import lzfse.DecodeBlocks.lzfse_block;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import static lzfse.DecodeBlocks.lzfse_scan_blocks;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+
+/**
+ * Decodes large streams on several threads.
+ * <p>
+ * A first pass reads the block headers only, which gives the position and decoded size of every
+ * block, and so the exact output size. The blocks are then split into runs of consecutive blocks,
+ * decoded concurrently into their own slices of the output. Within a run, each block may refer to
+ * the output of the blocks before it in the run; a block with a match reaching further back,
+ * into the output of another run, is left for a final pass that decodes such blocks in order,
+ * with the whole output before them available. The decoder checks every match distance, so a
+ * block is never decoded from output that is not there yet.
+ * <p>
+ * Streams made of independent segments, as written by {@link LzfseParallelEncoder} with its
+ * default, empty history, decode fully in parallel: runs preferably start at block boundaries at
+ * multiples of 64 KB of output, where segments start. Streams of a sequential encoder, or of a
+ * parallel encoder with history, mostly have matches across blocks, and decode mostly in the
+ * final pass, at about the speed of {@link Decode#lzfse_decode_buffer}. Instances are thread-safe.
+ */
+public final class LzfseParallelDecoder {
+    //  Runs start at a block boundary at a multiple of this output offset when
+    //  they can, as segments of the parallel encoder do.
+    private static final int RUN_ALIGNMENT = LzfseParallelEncoder.MIN_SEGMENT_SIZE;
+    //  Streams smaller than this are not worth splitting.
+    private static final int MIN_RUN_SIZE  = 1 << 20;
+
+    private final Executor       executor;
+    private final int            parallelism;
+    private final LzfseCodecPool pool;
+    private final LongAdder      parallel_blocks = new LongAdder();
+    private final LongAdder      serial_blocks   = new LongAdder();
+
+    /** Decoder running on the common pool. */
+    public LzfseParallelDecoder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** @param executor runs the decoding of runs of blocks. */
+    public LzfseParallelDecoder(final Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+        this.parallelism = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.pool = new LzfseCodecPool(parallelism);
+    }
+
+    /**
+     * Same as {@link Decode#lzfse_decode_buffer}, decoding blocks in parallel. Streams that are
+     * small, truncated, invalid or larger than {@code dst_size} are decoded on the calling thread.
+     *
+     * @return the number of bytes written to {@code dst_buffer}, minus the number of bytes
+     * missing if it was too small, or 0 on error.
+     */
+    public int decode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size) {
+        final int src_begin = src_buffer.position();
+        final List<lzfse_block> blocks = lzfse_scan_blocks(src_buffer, src_begin, Math.toIntExact(src_begin + src_size));
+        if (blocks == null)
+            return pool.decode(dst_buffer, dst_size, src_buffer, src_size);
+        final long total = blocks.get(blocks.size() - 1).dst_offset;
+        if (total > dst_size || total > Integer.MAX_VALUE - dst_buffer.position() || total < 2 * MIN_RUN_SIZE)
+            return pool.decode(dst_buffer, dst_size, src_buffer, src_size);
+
+        final int n_blocks = blocks.size() - 1; // not the end-of-stream block
+        final boolean[] failed = new boolean[n_blocks];
+        final List<CompletableFuture<Void>> runs = new ArrayList<>();
+        final long run_size = Math.max(MIN_RUN_SIZE, total / (4L * parallelism));
+        for (int a = 0; a < n_blocks; ) {
+            final long run_begin = blocks.get(a).dst_offset;
+            int b = a + 1;
+            for (; b < n_blocks; b++) {
+                final long offset = blocks.get(b).dst_offset;
+                if (offset - run_begin >= 2 * run_size ||
+                        (offset - run_begin >= run_size && offset % RUN_ALIGNMENT == 0))
+                    break;
+            }
+            final int first = a, end = b;
+            runs.add(CompletableFuture.runAsync(
+                    () -> decode_run(dst_buffer, src_buffer, blocks, first, end, failed), executor));
+            a = b;
+        }
+        CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0])).join();
+
+        // Blocks with matches into other runs, in order, with all the output before them
+        final int dst_begin = dst_buffer.position();
+        int n_failed = 0;
+        for (int i = 0; i < n_blocks; i++) {
+            if (!failed[i])
+                continue;
+            n_failed++;
+            if (decode_block(dst_buffer, dst_begin, src_buffer, blocks.get(i)) != LZFSE_STATUS_OK)
+                return 0; // failed
+        }
+        parallel_blocks.add(n_blocks - n_failed);
+        serial_blocks.add(n_failed);
+        return (int) total;
+    }
+
+    /**
+     * Decodes the stream in {@code src_size} bytes at the position of {@code src_buffer} into a new
+     * array of its exact decoded size.
+     *
+     * @throws IllegalArgumentException if the stream is truncated or invalid.
+     */
+    public byte[] decode(final ByteBuffer src_buffer, long src_size) {
+        final int src_begin = src_buffer.position();
+        final List<lzfse_block> blocks = lzfse_scan_blocks(src_buffer, src_begin, Math.toIntExact(src_begin + src_size));
+        if (blocks == null)
+            throw new IllegalArgumentException("truncated or invalid LZFSE stream");
+        final byte[] dst = new byte[Math.toIntExact(blocks.get(blocks.size() - 1).dst_offset)];
+        if (decode(LittleEndianByteBuffer.wrap(dst), dst.length, src_buffer, src_size) != dst.length && dst.length > 0)
+            throw new IllegalArgumentException("invalid LZFSE stream");
+        return dst;
+    }
+
+    /** Blocks decoded concurrently, since this decoder was created. */
+    public long blocks_decoded_in_parallel() {
+        return parallel_blocks.sum();
+    }
+
+    /** Blocks decoded in the final, serial pass, because they had matches into another run. */
+    public long blocks_decoded_serially() {
+        return serial_blocks.sum();
+    }
+
+    //  Decode blocks [first, end). Each may refer to the output from the start of the
+    //  run, or from the last block that could not be decoded, which is marked FAILED.
+    private void decode_run(final ByteBuffer dst_buffer, final ByteBuffer src_buffer,
+                            final List<lzfse_block> blocks, final int first, final int end, final boolean[] failed) {
+        final int dst_begin = dst_buffer.position();
+        int history = dst_begin + (int) blocks.get(first).dst_offset;
+        for (int i = first; i < end; i++) {
+            final lzfse_block block = blocks.get(i);
+            if (decode_block(dst_buffer, history, src_buffer, block) != LZFSE_STATUS_OK) {
+                failed[i] = true;
+                history = dst_begin + (int) block.dst_offset + block.n_raw_bytes;
+            }
+        }
+    }
+
+    private int decode_block(final ByteBuffer dst_buffer, final int history, final ByteBuffer src_buffer, final lzfse_block block) {
+        final int q = dst_buffer.position() + (int) block.dst_offset;
+        final int p = src_buffer.position() + (int) block.src_offset;
+        return pool.decode_block(dst_buffer, history, q, q + block.n_raw_bytes, src_buffer, p, p + block.src_size);
+    }
+}
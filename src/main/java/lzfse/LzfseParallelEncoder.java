@@ -0,0 +1,207 @@
+package lzfse;
+
+import lzfse.InternalBlockHeaderObjects.uncompressed_block_header;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static lzfse.Internal.LZFSE_ENCODE_MAX_D_VALUE;
+import static lzfse.Internal.store4;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_ENDOFSTREAM_BLOCK_MAGIC;
+
+/**
+ * Encodes large inputs on several threads.
+ * <p>
+ * The input is split into segments of {@link #segment_size()} bytes, which are encoded
+ * independently on an {@link Executor}, and their blocks are concatenated into a single LZFSE
+ * stream, which any LZFSE decoder reads as usual. By default, each segment starts from an empty
+ * dictionary, so the segments are independent, and {@link LzfseParallelDecoder} decodes them in
+ * parallel as well. Segments may instead be primed with up to {@link #history_size()} bytes of
+ * the input before them, so that their matches can refer back across the segment boundary, as in
+ * a sequential encoding: this compresses a little better, but the output is then no longer made
+ * of independent segments, and mostly decodes serially.
+ * <p>
+ * The output only depends on the input, the segment size and the history size, not on the
+ * executor or on thread scheduling. An input that fits in one segment is encoded as
+ * {@link Encode#lzfse_encode_buffer} does. Instances are thread-safe.
+ */
+public final class LzfseParallelEncoder {
+    /** Default segment size: large enough for the priming cost to be small, small enough to keep cores busy. */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+    /** Default history size: none, so segments are independent and decode in parallel. */
+    public static final int DEFAULT_HISTORY_SIZE = 0;
+    /** Largest history size: the longest match distance, so segments lose no matches. */
+    public static final int MAX_HISTORY_SIZE = LZFSE_ENCODE_MAX_D_VALUE;
+
+    static final int MIN_SEGMENT_SIZE = 64 << 10;
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private final int            segment_size;
+    private final int            history_size;
+    private final Executor       executor;
+    private final LzfseCodecPool pool;
+    //  Segments the stream API encodes ahead of the one being written.
+    private final int            max_in_flight;
+
+    /** Encoder with the default segment and history sizes, running on the common pool. */
+    public LzfseParallelEncoder() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_HISTORY_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param segment_size bytes of input per segment, from 64 KB to 1 GB.
+     * @param history_size bytes of input before each segment its matches may refer to, from 0 to
+     *                     {@link #MAX_HISTORY_SIZE}. Any history makes the segments dependent.
+     * @param executor     runs the segment encodings.
+     */
+    public LzfseParallelEncoder(final int segment_size, final int history_size, final Executor executor) {
+        this(segment_size, history_size, LzfseEncoderConfig.DEFAULT, executor);
+    }
+
+    /**
+     * @param segment_size bytes of input per segment, from 64 KB to 1 GB.
+     * @param history_size bytes of input before each segment its matches may refer to, from 0 to
+     *                     {@link #MAX_HISTORY_SIZE}. Any history makes the segments dependent.
+     * @param config       match search parameters of the segment encoders.
+     * @param executor     runs the segment encodings.
+     */
+    public LzfseParallelEncoder(final int segment_size, final int history_size, final LzfseEncoderConfig config,
+                                final Executor executor) {
+        if (segment_size < MIN_SEGMENT_SIZE || segment_size > MAX_SEGMENT_SIZE)
+            throw new IllegalArgumentException("segment_size must be in [" + MIN_SEGMENT_SIZE + ", " + MAX_SEGMENT_SIZE + "]: " + segment_size);
+        if (history_size < 0 || history_size > MAX_HISTORY_SIZE)
+            throw new IllegalArgumentException("history_size must be in [0, " + MAX_HISTORY_SIZE + "]: " + history_size);
+        this.segment_size = segment_size;
+        this.history_size = history_size;
+        this.executor = Objects.requireNonNull(executor);
+        final int parallelism = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.pool = new LzfseCodecPool(parallelism, config);
+        this.max_in_flight = 2 * parallelism;
+    }
+
+    public int segment_size() {
+        return segment_size;
+    }
+
+    public int history_size() {
+        return history_size;
+    }
+
+    /**
+     * Same as {@link Encode#lzfse_encode_buffer}, encoding up to twice as many segments as there
+     * are threads at a time.
+     *
+     * @return the number of bytes written to {@code dst_buffer}, or 0 if it was too small.
+     */
+    public long encode(ByteBuffer dst_buffer, long dst_size, final ByteBuffer src_buffer, long src_size) {
+        if (src_size <= segment_size)
+            return pool.encode(dst_buffer, dst_size, src_buffer, src_size);
+
+        final ByteBuffer dst = LittleEndianByteBuffer.duplicate(dst_buffer);
+        final long dst_end = dst_buffer.position() + dst_size - 4; // room for end-of-stream
+        //  As many segments in flight as the stream API, each copied to DST when
+        //  joined, so that their buffers do not add up to another copy of SRC.
+        final ArrayDeque<CompletableFuture<ByteBuffer>> in_flight = new ArrayDeque<>();
+        try {
+            long start = 0;
+            while (start < src_size || !in_flight.isEmpty()) {
+                while (start < src_size && in_flight.size() < max_in_flight) {
+                    final ByteBuffer segment = LittleEndianByteBuffer.duplicate(src_buffer, Math.toIntExact(start));
+                    final int history = (int) Math.min(history_size, start);
+                    final int size = (int) Math.min(segment_size, src_size - start);
+                    in_flight.add(submit(segment, history, size));
+                    start += size;
+                }
+                final ByteBuffer blocks = in_flight.remove().join();
+                if (dst.position() + blocks.remaining() > dst_end)
+                    return 0; // DST is too small
+                dst.put(blocks);
+            }
+        } finally {
+            for (CompletableFuture<ByteBuffer> future : in_flight) {
+                future.cancel(false);
+            }
+        }
+        store4(dst, LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
+        return dst.position() - dst_buffer.position();
+    }
+
+    /**
+     * Encodes everything read from {@code in} into a single LZFSE stream written to {@code out},
+     * up to twice as many segments as there are threads at a time. Neither stream is closed.
+     */
+    public void encode(final InputStream in, final OutputStream out) throws IOException {
+        byte[] segment = new byte[segment_size];
+        int size = in.readNBytes(segment, 0, segment_size);
+        if (size < segment_size) {
+            // One segment only, encode it here. Leave the encoders room past an
+            // uncompressed block, as encode(ByteBuffer...) callers do: LZVN needs
+            // slack at the end of DST, and stops short of it otherwise.
+            final ByteBuffer dst = LittleEndianByteBuffer.allocate(size + (size >> 3) + 1024);
+            final long n = pool.encode(dst, dst.capacity(), LittleEndianByteBuffer.wrap(segment), size);
+            out.write(dst.array(), 0, (int) n);
+            return;
+        }
+
+        final ArrayDeque<CompletableFuture<ByteBuffer>> in_flight = new ArrayDeque<>();
+        int history = 0;
+        try {
+            while (size > 0) {
+                in_flight.add(submit(LittleEndianByteBuffer.wrap(segment, history), history, size));
+
+                // Next segment, starting with the history it may refer to
+                final int next_history = Math.min(history_size, history + size);
+                final byte[] next = new byte[next_history + segment_size];
+                System.arraycopy(segment, history + size - next_history, next, 0, next_history);
+                segment = next;
+                history = next_history;
+                size = in.readNBytes(segment, history, segment_size);
+
+                while (in_flight.size() >= max_in_flight) {
+                    write(out, in_flight.remove());
+                }
+            }
+            while (!in_flight.isEmpty()) {
+                write(out, in_flight.remove());
+            }
+        } finally {
+            for (CompletableFuture<ByteBuffer> future : in_flight) {
+                future.cancel(false);
+            }
+        }
+        final ByteBuffer end_of_stream = LittleEndianByteBuffer.allocate(4);
+        store4(end_of_stream, LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
+        out.write(end_of_stream.array());
+    }
+
+    //  Encode SIZE bytes at the position of SEGMENT, after HISTORY bytes of history,
+    //  into a buffer holding the blocks between its position and limit.
+    private CompletableFuture<ByteBuffer> submit(final ByteBuffer segment, final int history, final int size) {
+        return CompletableFuture.supplyAsync(() -> {
+            // An uncompressed block always fits
+            final ByteBuffer blocks = LittleEndianByteBuffer.allocate(uncompressed_block_header.BYTES + size);
+            final long n = pool.encode_segment(blocks, blocks.capacity(), segment, history, size);
+            return blocks.limit((int) n);
+        }, executor);
+    }
+
+    private static void write(final OutputStream out, final CompletableFuture<ByteBuffer> segment) throws IOException {
+        final ByteBuffer blocks;
+        try {
+            blocks = segment.join();
+        } catch (CompletionException e) {
+            throw new IOException("LZFSE encoder failed", e.getCause());
+        }
+        out.write(blocks.array(), 0, blocks.limit());
+    }
+}
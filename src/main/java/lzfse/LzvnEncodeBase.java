@@ -0,0 +1,503 @@
+package lzfse;
+
+import java.nio.ByteBuffer;
+
+import static lzfse.Internal.LZVN_ENCODE_MAX_SRC_SIZE;
+import static lzfse.Internal.LZVN_ENCODE_MIN_DST_SIZE;
+import static lzfse.Internal.LZVN_ENCODE_MIN_SRC_SIZE;
+import static lzfse.Internal.__builtin_ctzll;
+
+/** LZVN low-level encoder. */
+public class LzvnEncodeBase {
+    private LzvnEncodeBase() {
+    }
+
+    // MARK: - Tunables
+
+    //  Number of bits for the hash function. The table has (1 << LZVN_ENCODE_HASH_BITS)
+    //  entries of LZVN_ENCODE_OFFSETS_PER_HASH candidates each.
+    static final int LZVN_ENCODE_HASH_BITS        = 14;
+    static final int LZVN_ENCODE_OFFSETS_PER_HASH = 4;
+    static final int LZVN_ENCODE_HASH_VALUES      = (1 << LZVN_ENCODE_HASH_BITS);
+    //  Number of bytes at the end of SRC where we don't look for matches (this is
+    //  where the 8-byte loads of the match search would read past SRC).
+    static final int LZVN_ENCODE_MIN_MARGIN       = 8;
+    //  Largest match distance an LZVN instruction can encode.
+    static final int LZVN_ENCODE_MAX_DISTANCE     = 0xffff;
+    //  Flush pending literals when there are this many without a match, so the
+    //  search does not keep a long backlog.
+    static final int LZVN_ENCODE_MAX_LITERAL_BACKLOG = 400;
+
+    /*! @abstract Encoder table entry. Each entry of the table is a set of
+     *  LZVN_ENCODE_OFFSETS_PER_HASH candidate positions with the same hash,
+     *  followed by the first 4 bytes at each of them:
+     *  @code
+     typedef struct {
+       int32_t indices[4];
+       uint32_t values[4];
+     } lzvn_encode_entry_type;
+     @endcode
+     *  The table is a flat int[] of LZVN_ENCODE_HASH_VALUES such entries. */
+    static final int LZVN_ENCODE_ENTRY_INDICES = 0;
+    static final int LZVN_ENCODE_ENTRY_VALUES  = LZVN_ENCODE_OFFSETS_PER_HASH;
+    static final int LZVN_ENCODE_ENTRY_INTS    = 2 * LZVN_ENCODE_OFFSETS_PER_HASH;
+    //  Number of ints in the encoder table.
+    static final int LZVN_ENCODE_TABLE_INTS    = LZVN_ENCODE_HASH_VALUES * LZVN_ENCODE_ENTRY_INTS;
+
+    /*! @abstract Match info. */
+    static class lzvn_match_info {
+        //  Offset of the first byte in the match.
+        long/*lzvn_offset*/ m_begin;
+        //  Offset of the byte after the match.
+        long/*lzvn_offset*/ m_end;
+        //  Match length, m_end - m_begin.
+        long/*lzvn_offset*/ M;
+        //  Match distance.
+        long/*lzvn_offset*/ D;
+        //  Score: the number of bytes saved by emitting the match.
+        long/*lzvn_offset*/ K;
+
+        void set(final lzvn_match_info m) {
+            this.m_begin = m.m_begin;
+            this.m_end = m.m_end;
+            this.M = m.M;
+            this.D = m.D;
+            this.K = m.K;
+        }
+
+        void clear() {
+            this.m_begin = 0;
+            this.m_end = 0;
+            this.M = 0;
+            this.D = 0;
+            this.K = 0;
+        }
+    }
+
+    /*! @abstract Encoder state. */
+    static class lzvn_encoder_state {
+        // Encoder I/O
+
+        //  Source buffer, offsets are relative to its position.
+        /*unsigned char*/ ByteBuffer src;
+        //  Valid range in source buffer: we can access src[i] for src_begin <= i <
+        //  src_end.
+        long/*lzvn_offset*/ src_begin;
+        long/*lzvn_offset*/ src_end;
+        //  Next byte to process in source buffer.
+        long/*lzvn_offset*/ src_current;
+        //  Next byte after the last byte to process in source buffer. We MUST have:
+        //  src_current_end + 8 <= src_end.
+        long/*lzvn_offset*/ src_current_end;
+        //  Next byte to encode in source buffer, may be before or after
+        //  src_current.
+        long/*lzvn_offset*/ src_literal;
+
+        //  Next byte to write in destination buffer (dst.position()).
+        /*unsigned char*/ ByteBuffer dst;
+        //  Valid range in destination buffer: [dst_begin, dst_end - 1].
+        /*unsigned char*/ int dst_begin;
+        /*unsigned char*/ int dst_end;
+
+        // Encoder state
+
+        //  Pending match.
+        final lzvn_match_info pending = new lzvn_match_info();
+
+        //  Distance for last emitted match, or 0.
+        long/*lzvn_offset*/ d_prev;
+
+        //  Hash table used to find matches. Stores LZVN_ENCODE_OFFSETS_PER_HASH
+        //  32-bit signed indices in the source buffer, and the corresponding 4-byte
+        //  values. The number of entries in the table is LZVN_ENCODE_HASH_VALUES.
+        int[] table;
+
+        //  Scratch match, reused for every position.
+        final lzvn_match_info incoming = new lzvn_match_info();
+    }
+
+    /*! @abstract Size of the work buffer to pass to lzvn_encode_buffer. */
+    static long/*size_t*/ lzvn_encode_scratch_size() {
+        return (long) LZVN_ENCODE_TABLE_INTS * Integer.BYTES;
+    }
+
+    /*! @abstract Hash the 3 low bytes of I, in range [0, LZVN_ENCODE_HASH_VALUES-1]. */
+    static int lzvn_hash3i(int/*uint32_t*/ i) {
+        i &= 0xffffff; // truncate to 24-bit input (slightly increases compression ratio)
+        int/*uint32_t*/ h = (i * (1 + (1 << 6) + (1 << 12))) >>> 12;
+        return h & (LZVN_ENCODE_HASH_VALUES - 1);
+    }
+
+    //  Copy N bytes, the C code copies 8 or 16 byte words and relies on the
+    //  margins checked by the callers.
+    private static void lzvn_copy(ByteBuffer dst, final int q, final ByteBuffer src, final int p, final int n) {
+        LittleEndianByteBuffer.copy(dst, q, src, p, n);
+    }
+
+    /*! @abstract Emit (L,0,0) instructions (final literal).
+     * We read at most \p L bytes from \p p.
+     * @param p input stream
+     * @param q1 the first byte after the output buffer.
+     * @return pointer to the next output, <= \p q1.
+     * @return \p q1 if output is full. In that case, output will be partially invalid.
+     */
+    static int/*unsigned char*/ emit_literal(final ByteBuffer src, int/*unsigned char*/ p,
+                                             ByteBuffer dst, int/*unsigned char*/ q,
+                                             final int/*unsigned char*/ q1, int/*size_t*/ L) {
+        int/*size_t*/ x;
+        while (L > 15) {
+            x = L < 271 ? L : 271;
+            if (q + x + 10 >= q1)
+                return q1; // OUT_FULL
+            dst.putShort(q, (short) (0xE0 + ((x - 16) << 8)));
+            q += 2;
+            L -= x;
+            lzvn_copy(dst, q, src, p, x);
+            q += x;
+            p += x;
+        }
+        if (L > 0) {
+            if (q + L + 10 >= q1)
+                return q1; // OUT_FULL
+            dst.put(q++, (byte) (0xE0 + L)); // 1110LLLL
+            lzvn_copy(dst, q, src, p, L);
+            q += L;
+        }
+        return q;
+    }
+
+    /*! @abstract Emit (L,M,D) instructions. M>=3.
+     * @param p input stream pointing to the beginning of the literal. We read at
+     * most \p L bytes from \p p.
+     * @param q1 the first byte after the output buffer.
+     * @return pointer to the next output, <= \p q1.
+     * @return \p q1 if output is full. In that case, output will be partially invalid.
+     */
+    static int/*unsigned char*/ emit(final ByteBuffer src, int/*unsigned char*/ p,
+                                     ByteBuffer dst, int/*unsigned char*/ q,
+                                     final int/*unsigned char*/ q1, int/*size_t*/ L,
+                                     int/*size_t*/ M, int/*size_t*/ D, int/*size_t*/ D_prev) {
+        int/*size_t*/ x;
+        while (L > 15) {
+            x = L < 271 ? L : 271;
+            if (q + x + 10 >= q1)
+                return q1; // OUT_FULL
+            dst.putShort(q, (short) (0xE0 + ((x - 16) << 8)));
+            q += 2;
+            L -= x;
+            lzvn_copy(dst, q, src, p, x);
+            q += x;
+            p += x;
+        }
+        if (L > 3) {
+            if (q + L + 10 >= q1)
+                return q1; // OUT_FULL
+            dst.put(q++, (byte) (0xE0 + L)); // 1110LLLL
+            lzvn_copy(dst, q, src, p, L);
+            q += L;
+            p += L;
+            L = 0;
+        }
+        x = M <= 10 - 2 * L ? M : 10 - 2 * L; // x = min(10-2*L,M)
+        M -= x;
+        x -= 3; // M = (x+3) + M'    with x in [0..7]
+
+        if (D == D_prev) {
+            if (L == 0) {
+                dst.put(q++, (byte) (0xF0 + (x + 3))); // XM!
+            } else {
+                if (q + 4 >= q1)
+                    return q1; // OUT_FULL
+                dst.put(q++, (byte) ((L << 6) + (x << 3) + 6)); //  LLxxx110
+                lzvn_copy(dst, q, src, p, L);
+                q += L;
+            }
+        } else if (D < 2048 - 2 * 256) {
+            // Short dist    D>>8 in 0..5
+            if (q + 5 >= q1)
+                return q1; // OUT_FULL
+            dst.put(q++, (byte) ((D >> 8) + (L << 6) + (x << 3))); // LLxxxDDD
+            dst.put(q++, (byte) (D & 0xFF));
+            lzvn_copy(dst, q, src, p, L);
+            q += L;
+        } else if (D >= (1 << 14) || M == 0 || (x + 3) + M > 34) {
+            // Long dist
+            if (q + 7 >= q1)
+                return q1; // OUT_FULL
+            dst.put(q++, (byte) ((L << 6) + (x << 3) + 7));
+            dst.putShort(q, (short) D);
+            q += 2;
+            lzvn_copy(dst, q, src, p, L);
+            q += L;
+        } else {
+            // Medium distance
+            x += M;
+            M = 0;
+            if (q + 7 >= q1)
+                return q1; // OUT_FULL
+            dst.put(q++, (byte) (0xA0 + (x >> 2) + (L << 3)));
+            dst.putShort(q, (short) (D << 2 | (x & 3)));
+            q += 2;
+            lzvn_copy(dst, q, src, p, L);
+            q += L;
+        }
+
+        // Issue remaining match
+        while (M > 15) {
+            if (q + 2 >= q1)
+                return q1; // OUT_FULL
+            x = M < 271 ? M : 271;
+            dst.putShort(q, (short) (0xf0 + ((x - 16) << 8)));
+            q += 2;
+            M -= x;
+        }
+        if (M > 0) {
+            if (q + 1 >= q1)
+                return q1; // OUT_FULL
+            dst.put(q++, (byte) (0xF0 + M)); // M = 0..15
+        }
+
+        return q;
+    }
+
+    /*! @abstract Emit literals from src_literal up to src_literal + L, and update
+     * the state. @return false if DST is full, the state is not modified then. */
+    static boolean lzvn_emit_literal(lzvn_encoder_state state, long/*lzvn_offset*/ L) {
+        final int base = state.src.position();
+        final int q = emit_literal(state.src, base + (int) state.src_literal,
+                state.dst, state.dst.position(), state.dst_end, (int) L);
+        if (q == state.dst_end)
+            return false; // FULL
+        state.dst.position(q);
+        state.src_literal += L;
+        return true;
+    }
+
+    /*! @abstract Emit pending literals and match M, and update the state.
+     * @return false if DST is full, the state is not modified then. */
+    static boolean lzvn_emit_match(lzvn_encoder_state state, final lzvn_match_info m) {
+        final int base = state.src.position();
+        final int q = emit(state.src, base + (int) state.src_literal,
+                state.dst, state.dst.position(), state.dst_end,
+                (int) (m.m_begin - state.src_literal), (int) m.M, (int) m.D, (int) state.d_prev);
+        if (q == state.dst_end)
+            return false; // FULL
+        state.dst.position(q);
+        state.src_literal = m.m_end;
+        state.d_prev = m.D;
+        return true;
+    }
+
+    /*! @abstract Emit the end-of-stream instruction: 0x06 followed by 7 zero bytes.
+     * @return false if DST is full. */
+    static boolean lzvn_emit_end_of_stream(lzvn_encoder_state state) {
+        final int q = state.dst.position();
+        if (q + 8 > state.dst_end)
+            return false; // FULL
+        state.dst.putLong(q, 0x06); // end-of-stream command
+        state.dst.position(q + 8);
+        return true;
+    }
+
+    /*! @abstract Initialize encoder table in \p state, uses current I/O parameters. */
+    static void lzvn_init_table(lzvn_encoder_state state) {
+        long/*lzvn_offset*/ index = -LZVN_ENCODE_MAX_DISTANCE; // max match distance
+        if (index < state.src_begin)
+            index = state.src_begin;
+        final int/*uint32_t*/ value = state.src.getInt(state.src.position() + (int) index);
+
+        final int[] table = state.table;
+        for (int e = 0; e < LZVN_ENCODE_TABLE_INTS; e += LZVN_ENCODE_ENTRY_INTS) {
+            for (int k = 0; k < LZVN_ENCODE_OFFSETS_PER_HASH; k++) {
+                table[e + LZVN_ENCODE_ENTRY_INDICES + k] = (int) index;
+                table[e + LZVN_ENCODE_ENTRY_VALUES + k] = value;
+            }
+        }
+    }
+
+    /*! @abstract Find the best match at src_current among the candidates of table
+     * entry E, and store it in \p best. best.M is 0 if there is none. */
+    private static void lzvn_find_match(final lzvn_encoder_state state, final int e,
+                                        final int/*uint32_t*/ vi, lzvn_match_info best) {
+        final ByteBuffer src = state.src;
+        final int base = src.position();
+        final int[] table = state.table;
+        final long/*lzvn_offset*/ i = state.src_current;
+        best.clear();
+
+        for (int k = 0; k < LZVN_ENCODE_OFFSETS_PER_HASH; k++) {
+            final long/*lzvn_offset*/ ik = table[e + LZVN_ENCODE_ENTRY_INDICES + k];
+            final long/*lzvn_offset*/ D = i - ik;
+            if (D <= 0 || D > LZVN_ENCODE_MAX_DISTANCE || ik < state.src_begin)
+                continue;
+            // Number of equal leading bytes (at least 3 for a match)
+            final int/*uint32_t*/ diff = table[e + LZVN_ENCODE_ENTRY_VALUES + k] ^ vi;
+            final int nk = diff == 0 ? 4 : Integer.numberOfTrailingZeros(diff) >>> 3;
+            if (nk < 3)
+                continue;
+
+            // Expand forward
+            long/*lzvn_offset*/ m_end = i + nk;
+            if (nk == 4) {
+                boolean mismatch = false;
+                while (m_end + 8 <= state.src_end) {
+                    final long/*uint64_t*/ d8 = src.getLong(base + (int) m_end) ^ src.getLong(base + (int) (m_end - D));
+                    if (d8 != 0) {
+                        m_end += __builtin_ctzll(d8) >>> 3;
+                        mismatch = true;
+                        break;
+                    }
+                    m_end += 8;
+                }
+                if (!mismatch)
+                    while (m_end < state.src_end && src.get(base + (int) m_end) == src.get(base + (int) (m_end - D)))
+                        m_end++;
+            }
+
+            // Expand backward, but not into literals already emitted
+            long/*lzvn_offset*/ m_begin = i;
+            while (m_begin > state.src_literal && m_begin - D > state.src_begin &&
+                    src.get(base + (int) (m_begin - 1)) == src.get(base + (int) (m_begin - 1 - D)))
+                m_begin--;
+
+            final long/*lzvn_offset*/ M = m_end - m_begin;
+            final long/*lzvn_offset*/ K = M - ((D < 0x600) ? 2 : 3); // bytes saved
+            if (K > best.K || (K == best.K && K > 0 && m_end > best.m_end + 1)) {
+                best.m_begin = m_begin;
+                best.m_end = m_end;
+                best.M = M;
+                best.D = D;
+                best.K = K;
+            }
+        }
+    }
+
+    /*! @abstract Encode source buffer [src_current, src_current_end) into DST,
+     * leaving pending literals and match in the state.
+     * Stops when DST is full, src_current is then the next position to process. */
+    static void lzvn_encode(lzvn_encoder_state state) {
+        final ByteBuffer src = state.src;
+        final int base = src.position();
+        final int[] table = state.table;
+        final lzvn_match_info pending = state.pending;
+        final lzvn_match_info incoming = state.incoming;
+
+        for (; state.src_current < state.src_current_end; state.src_current++) {
+            final long/*lzvn_offset*/ i = state.src_current;
+            // Get 4 bytes at src_current
+            final int/*uint32_t*/ vi = src.getInt(base + (int) i);
+
+            // Compute new hash H at position I, and the index of its entry
+            final int e = lzvn_hash3i(vi) * LZVN_ENCODE_ENTRY_INTS;
+
+            // Do not check matches if still in previously emitted match
+            if (i >= state.src_literal) {
+                // Emit pending match once we are past its end
+                if (pending.M != 0 && i >= pending.m_end) {
+                    if (!lzvn_emit_match(state, pending))
+                        return; // DST full
+                    pending.clear();
+                }
+
+                // Keep the best match at I if it is better than the pending one
+                lzvn_find_match(state, e, vi, incoming);
+                if (incoming.M != 0 && (pending.M == 0 || incoming.K > pending.K))
+                    pending.set(incoming);
+
+                // Flush literals if we have too many without a match
+                if (pending.M == 0 && i - state.src_literal > LZVN_ENCODE_MAX_LITERAL_BACKLOG) {
+                    if (!lzvn_emit_literal(state, i - state.src_literal))
+                        return; // DST full
+                }
+            }
+
+            // Update entry with index=current and value=vi. We commit state changes
+            // only after we tried to emit instructions, so we can restart in the
+            // same state in case dst was full and we quit the loop.
+            lzvn_update_entry(table, e, i, vi);
+        }
+    }
+
+    /*! @abstract Store index \p i and value \p vi as the most recent candidate of
+     * table entry \p e. Values are rotated, so we replace the oldest. */
+    private static void lzvn_update_entry(int[] table, final int e, final long/*lzvn_offset*/ i, final int/*uint32_t*/ vi) {
+        System.arraycopy(table, e + LZVN_ENCODE_ENTRY_INDICES, table, e + LZVN_ENCODE_ENTRY_INDICES + 1, LZVN_ENCODE_OFFSETS_PER_HASH - 1);
+        System.arraycopy(table, e + LZVN_ENCODE_ENTRY_VALUES, table, e + LZVN_ENCODE_ENTRY_VALUES + 1, LZVN_ENCODE_OFFSETS_PER_HASH - 1);
+        table[e + LZVN_ENCODE_ENTRY_INDICES] = (int) i;
+        table[e + LZVN_ENCODE_ENTRY_VALUES] = vi;
+    }
+
+    /*! @abstract Fill \p table (at least LZVN_ENCODE_TABLE_INTS ints) with the
+     * \p history_size bytes before the position of \p src, for lzvn_encode_buffer to
+     * find matches in them. The last 3 bytes are not indexed, their 4-byte values
+     * depending on the bytes that follow. */
+    static void lzvn_encode_prime(final ByteBuffer src, final int history_size, int[] table) {
+        lzvn_encoder_state state = new lzvn_encoder_state();
+        state.src = src;
+        state.src_begin = -history_size;
+        state.table = table;
+        lzvn_init_table(state);
+        final int base = src.position();
+        for (long/*lzvn_offset*/ i = -history_size; i + 4 <= 0; i++) {
+            final int/*uint32_t*/ vi = src.getInt(base + (int) i);
+            lzvn_update_entry(table, lzvn_hash3i(vi) * LZVN_ENCODE_ENTRY_INTS, i, vi);
+        }
+    }
+
+    /*! @abstract Encode \p src_size bytes from \p src into \p dst, using \p work
+     * (at least LZVN_ENCODE_TABLE_INTS ints) as the encoder table. The output ends
+     * with an end-of-stream instruction.
+     * @return the number of bytes written to \p dst, or 0 if the input could not
+     * be entirely encoded in \p dst_size bytes. */
+    static long/*size_t*/ lzvn_encode_buffer(ByteBuffer dst, long/*size_t*/ dst_size,
+                                             final ByteBuffer src, long/*size_t*/ src_size,
+                                             int[] work) {
+        return lzvn_encode_buffer(dst, dst_size, src, 0, src_size, work);
+    }
+
+    /*! @abstract Same as lzvn_encode_buffer, with matches into the \p history_size
+     * bytes before the position of \p src. \p work must hold the table filled with
+     * them by lzvn_encode_prime, if \p history_size is not 0. */
+    static long/*size_t*/ lzvn_encode_buffer(ByteBuffer dst, long/*size_t*/ dst_size,
+                                             final ByteBuffer src, final int history_size, long/*size_t*/ src_size,
+                                             int[] work) {
+        if (src_size < LZVN_ENCODE_MIN_SRC_SIZE)
+            return 0; // src too small
+        if (dst_size < LZVN_ENCODE_MIN_DST_SIZE)
+            return 0; // dst too small
+        if (src_size > LZVN_ENCODE_MAX_SRC_SIZE || src_size > Integer.MAX_VALUE)
+            return 0; // would be encoded partially
+        assert (work.length >= LZVN_ENCODE_TABLE_INTS);
+
+        // Init
+        lzvn_encoder_state state = new lzvn_encoder_state();
+        state.src = src;
+        state.src_begin = -history_size;
+        state.src_end = src_size;
+        state.src_literal = 0;
+        state.src_current = 0;
+        state.dst = LittleEndianByteBuffer.duplicate(dst);
+        state.dst_begin = dst.position();
+        state.dst_end = Math.toIntExact(dst.position() + dst_size - 8); // reserve 8 bytes for end-of-stream
+        state.table = work;
+
+        state.src_current_end = src_size - LZVN_ENCODE_MIN_MARGIN;
+        if (history_size == 0)
+            lzvn_init_table(state);
+        lzvn_encode(state);
+        if (state.src_current < state.src_current_end)
+            return 0; // DST full
+
+        // Emit pending match and final literals
+        if (state.pending.M != 0 && !lzvn_emit_match(state, state.pending))
+            return 0; // DST full
+        if (!lzvn_emit_literal(state, state.src_end - state.src_literal))
+            return 0; // DST full
+
+        // Restore original size, so end-of-stream always succeeds, and emit it
+        state.dst_end = Math.toIntExact(dst.position() + dst_size);
+        lzvn_emit_end_of_stream(state);
+
+        return state.dst.position() - state.dst_begin;
+    }
+}
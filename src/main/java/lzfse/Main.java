@@ -3,13 +3,20 @@ package lzfse;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static lzfse.Decode.lzfse_decode_buffer;
 import static lzfse.Decode.lzfse_decode_scratch_size;
+import static lzfse.Decode.lzfse_decoded_size;
 import static lzfse.Encode.lzfse_encode_buffer;
 import static lzfse.Encode.lzfse_encode_scratch_size;
 
@@ -21,6 +28,10 @@ public class Main {
     //TODO enum?
     private static final int LZFSE_ENCODE = 0;
     private static final int LZFSE_DECODE = 1;
+    private static final int LZFSE_TRAIN  = 2;
+
+    //  Dictionary size of -train, when -size is not given.
+    private static final int DEFAULT_DICTIONARY_SIZE = 32768;
 
     private static final long START_TIME = System.nanoTime();
 
@@ -28,6 +39,8 @@ public class Main {
         final int argc = args.length;
         String[] in_file = {null};
         String[] out_file = {null};
+        String[] dict_file = {null};
+        String[] dict_size = {null};
         int op = INVALID_OP;
         int verbosity = VERBOSITY_QUIET;
 
@@ -48,6 +61,10 @@ public class Main {
                 op = LZFSE_DECODE;
                 continue;
             }
+            if (a.equals("-train")) {
+                op = LZFSE_TRAIN;
+                continue;
+            }
 
             // one arg
             String[] arg_var = null;
@@ -55,6 +72,10 @@ public class Main {
                 arg_var = in_file;
             } else if (a.equals("-o") && out_file[0] == null) {
                 arg_var = out_file;
+            } else if (a.equals("-dict") && dict_file[0] == null) {
+                arg_var = dict_file;
+            } else if (a.equals("-size") && dict_size[0] == null) {
+                arg_var = dict_size;
             }
             if (arg_var != null) {    // Flag is recognized. Check if there is an argument.
                 if (i == argc) {
@@ -67,8 +88,16 @@ public class Main {
         }
 
         if (op < 0) {
-            throw new TODOException("USAGE_MSG(argc, argv, \"Error: -encode|-decode required\\n\");");
+            throw new TODOException("USAGE_MSG(argc, argv, \"Error: -encode|-decode|-train required\\n\");");
+        }
+
+        //  Train a dictionary on the files of the input directory
+        if (op == LZFSE_TRAIN) {
+            train(in_file[0], out_file[0], dict_size[0] != null ? Integer.parseInt(dict_size[0]) : DEFAULT_DICTIONARY_SIZE, verbosity);
+            return;
         }
+        final LzfseDictionary dictionary = dict_file[0] != null
+                ? new LzfseDictionary(Files.readAllBytes(Paths.get(dict_file[0]))) : null;
 
         // Info
         if (verbosity > 0) {
@@ -78,6 +107,8 @@ public class Main {
                 System.err.println("LZFSE decode \n");
             System.err.printf("Input: %s\n", in_file[0] != null ? in_file[0] : "stdin");
             System.err.printf("Output: %s\n", out_file[0] != null ? out_file[0] : "stdout");
+            if (dictionary != null)
+                System.err.printf("Dictionary: %s (%d B)\n", dict_file[0], dictionary.size());
         }
 
         // Load input
@@ -87,7 +118,10 @@ public class Main {
         int in_fd = -1;        // input file desc
 
         if (in_file[0] != null) {
-            in = LittleEndianByteBuffer.wrap(Files.readAllBytes(Paths.get(in_file[0]))); //TODO buffer?
+            //  Map the input instead of reading it onto the heap
+            try (FileChannel channel = FileChannel.open(Paths.get(in_file[0]), StandardOpenOption.READ)) {
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
         }
         if (in == null) {
             throw new TODOException("perror(\"malloc\");\n" +
@@ -97,49 +131,62 @@ public class Main {
         in_size += in.capacity();//(size_t)r;
         // Size info
         if (verbosity > 0) {
-            System.err.printf("Input size: %zu B\n", in_size);
+            System.err.printf("Input size: %d B\n", in_size);
         }
 
         //  Encode/decode
-        //  Compute size for result buffer; we assume here that encode shrinks size,
-        //  and that decode grows by no more than 4x.  These are reasonable common-
-        //  case guidelines, but are not formally guaranteed to be satisfied.
-        long out_allocated = in_size;//(op == LZFSE_ENCODE) ? in_size : (4 * in_size);
+        //  Compute size for result buffer; we assume here that encode shrinks size.
+        //  Decode reads the decoded size from the block headers, and is told how
+        //  many bytes are missing if that was not enough.
+        long out_allocated = in_size;
+        if (op == LZFSE_DECODE) {
+            final long decoded_size = lzfse_decoded_size(in, in_size);
+            if (decoded_size >= 0)
+                out_allocated = decoded_size;
+        }
         long out_size = 0;
         long aux_allocated = (op == LZFSE_ENCODE) ? lzfse_encode_scratch_size()
                 : lzfse_decode_scratch_size();
         ByteBuffer/*uint8_t*/ out = LittleEndianByteBuffer.allocate(/*uint8_t *)malloc(*/Math.toIntExact(out_allocated));
         double c0 = System.nanoTime();//get_time();
         while (true) {
-            if (op == LZFSE_ENCODE)
+            if (dictionary != null && op == LZFSE_ENCODE)
+                out_size = new LzfseEncoder().encode(out, out_allocated, in, in_size, dictionary);
+            else if (dictionary != null)
+                out_size = new LzfseDecoder().decode(out, out_allocated, in, in_size, dictionary);
+            else if (op == LZFSE_ENCODE)
                 out_size = lzfse_encode_buffer(out, out_allocated, in, in_size);
             else
                 out_size = lzfse_decode_buffer(out, out_allocated, in, in_size);
 
             // If output buffer was too small, grow and retry.
-            if (out_size == 0 || (op == LZFSE_DECODE && out_size == out_allocated)) {
+            if ((op == LZFSE_ENCODE && out_size == 0) || out_size < 0) {
                 if (verbosity > 0)
                     System.err.printf("Output buffer was too small, increasing size...\n");
-                out_allocated <<= 1;
+                //  Decode only gets here when the headers did not tell the decoded
+                //  size: the reported need is then a lower bound, grow at least 2x
+                out_allocated = Math.max(out_allocated - Math.min(out_size, 0), 2 * out_allocated + 64);
                 out = LittleEndianByteBuffer.allocate(Math.toIntExact(out_allocated));//(uint8_t *) lzfse_reallocf(out, out_allocated);
-                if (out == null) {
-//                    perror("malloc");
-                    System.exit(1);
-                }
                 continue;
             }
+            //  Zero bytes out of a non-empty input is an invalid stream
+            if (op == LZFSE_DECODE && out_size == 0 && lzfse_decoded_size(in, in_size) != 0) {
+                System.err.printf("Error: invalid LZFSE stream\n");
+                System.exit(1);
+            }
 
             break;
         }
         double c1 = System.nanoTime();//get_time();
 
         if (verbosity > 0) {
-            System.err.printf("Output size: %zu B\n", out_size);
+            System.err.printf("Output size: %d B\n", out_size);
             long raw_size = (op == LZFSE_ENCODE) ? in_size : out_size;
             long compressed_size = (op == LZFSE_ENCODE) ? out_size : in_size;
             System.err.printf("Compression ratio: %.3f\n", (double) raw_size / (double) compressed_size);
-            double ns_per_byte = 1.0e9 * (c1 - c0) / (double) raw_size;
-            double mb_per_s = (double) raw_size / 1024.0 / 1024.0 / (c1 - c0);
+            double seconds = (c1 - c0) / 1.0e9;
+            double ns_per_byte = (c1 - c0) / (double) raw_size;
+            double mb_per_s = (double) raw_size / 1024.0 / 1024.0 / seconds;
             System.err.printf("Speed: %.2f ns/B, %.2f MB/s\n", ns_per_byte, mb_per_s);
         }
 
@@ -167,4 +214,36 @@ public class Main {
         return; //0\\ // OK
     }
 
+    //  Write a dictionary of at most DICTIONARY_SIZE bytes, trained on the regular
+    //  files of directory IN_DIR, in name order, to OUT_FILE, or stdout.
+    private static void train(final String in_dir, final String out_file, final int dictionary_size,
+                              final int verbosity) throws IOException {
+        if (in_dir == null)
+            throw new TODOException("USAGE_MSG(argc, argv, \"Error: -train requires -i <directory>\\n\");");
+        final List<byte[]> samples = new ArrayList<>();
+        long samples_size = 0;
+        try (Stream<Path> files = Files.list(Paths.get(in_dir))) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                final byte[] sample = Files.readAllBytes(file);
+                samples.add(sample);
+                samples_size += sample.length;
+            }
+        }
+        if (verbosity > 0)
+            System.err.printf("LZFSE train\nInput: %s, %d files, %d B\n", in_dir, samples.size(), samples_size);
+
+        final double c0 = System.nanoTime();
+        final LzfseDictionary dictionary = LzfseDictionaryTrainer.train(samples, dictionary_size);
+        final double c1 = System.nanoTime();
+        if (verbosity > 0)
+            System.err.printf("Dictionary size: %d B\nTime: %.2f s\n", dictionary.size(), (c1 - c0) / 1.0e9);
+
+        if (out_file != null) {
+            Files.write(Paths.get(out_file), dictionary.content(), StandardOpenOption.CREATE_NEW);
+        } else {
+            System.out.write(dictionary.content());
+            System.out.flush();
+        }
+    }
+
 }
@@ -18,14 +18,6 @@ final class Util {
         return mergeArray;
     }
 
-    static void flushArrays(final short[] src, final int length, short[]... dst) {
-        for (int i = 0, j = 0; i < length; j++) {
-            for (int k = 0; k < dst[j].length && i < length; i++, k++) {
-                dst[j][k] = src[i];
-            }
-        }
-    }
-
     static byte[] ltob(final long l) {
         return LittleEndianByteBuffer.allocate(Long.BYTES)
                 .putLong(l)
@@ -0,0 +1,153 @@
+package lzfse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Seeded synthetic inputs for tests, benchmarks and the {@link CorpusReport}: the same kind and
+ * size always give the same bytes, on any JVM, so outputs of other implementations can be
+ * generated once and compared against later.
+ */
+final class Corpus {
+    private Corpus() {
+    }
+
+    /** Kinds of input, from most to least compressible, roughly. */
+    static final String[] KINDS = {"repetitive", "logs", "json", "columnar", "text", "random"};
+
+    /** Sizes of the corpus entries. */
+    static final int[] SIZES = {4 << 10, 64 << 10, 1 << 20};
+
+    private static final String[] WORDS = (
+            "the of and to in is was that for it with as on be by at this from have not are or his an which " +
+            "they but had one all were her their there been has would more when if will can who some what " +
+            "compression entropy decoder encoder stream block literal match distance state table frequency " +
+            "buffer history window symbol length value header payload archive checksum").split(" ");
+
+    /** File name of the entry of KIND and SIZE, without extension. */
+    static String name(final String kind, final int size) {
+        return kind + "-" + size;
+    }
+
+    static byte[] generate(final String kind, final int size) {
+        final Random random = new Random(size * 31L + kind.hashCode());
+        switch (kind) {
+            case "text":
+                return text(random, size);
+            case "logs":
+                return logs(random, size);
+            case "json":
+                return json(random, size);
+            case "columnar":
+                return columnar(random, size);
+            case "random": {
+                final byte[] bytes = new byte[size];
+                random.nextBytes(bytes);
+                return bytes;
+            }
+            case "repetitive":
+                return repetitive(random, size);
+            default:
+                throw new IllegalArgumentException("unknown kind: " + kind);
+        }
+    }
+
+    //  Sentences of words drawn with a skewed (roughly Zipf) distribution.
+    private static byte[] text(final Random random, final int size) {
+        final StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            final int n = 4 + random.nextInt(12);
+            for (int i = 0; i < n; i++) {
+                final String word = WORDS[(int) (WORDS.length * StrictMath.pow(random.nextDouble(), 2.5))];
+                sb.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+                sb.append(i == n - 1 ? (random.nextInt(6) == 0 ? ".\n" : ". ") : " ");
+            }
+        }
+        return truncate(sb, size);
+    }
+
+    //  Access-log lines: increasing timestamps, a few levels, threads and paths, and numbers.
+    private static byte[] logs(final Random random, final int size) {
+        final String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        final String[] paths = {"/api/v1/users", "/api/v1/orders", "/api/v1/items", "/health", "/static/app.js", "/login"};
+        final int[] statuses = {200, 200, 200, 200, 201, 204, 304, 404, 500};
+        final StringBuilder sb = new StringBuilder(size + 256);
+        long millis = 1_700_000_000_000L;
+        while (sb.length() < size) {
+            millis += random.nextInt(250);
+            final long seconds = millis / 1000 % 86400;
+            sb.append("2023-11-14T")
+                    .append(two_digits(seconds / 3600)).append(':')
+                    .append(two_digits(seconds / 60 % 60)).append(':')
+                    .append(two_digits(seconds % 60)).append('.')
+                    .append(Long.toString(millis % 1000 + 1000), 1, 4).append("Z ")
+                    .append(levels[random.nextInt(levels.length)])
+                    .append(" [worker-").append(random.nextInt(8)).append("] ")
+                    .append("GET ").append(paths[random.nextInt(paths.length)])
+                    .append(" status=").append(statuses[random.nextInt(statuses.length)])
+                    .append(" bytes=").append(random.nextInt(20_000))
+                    .append(" latency_ms=").append(1 + random.nextInt(random.nextInt(8) == 0 ? 2000 : 50))
+                    .append(" request_id=").append(Long.toHexString(random.nextLong() >>> 16)).append('\n');
+        }
+        return truncate(sb, size);
+    }
+
+    private static String two_digits(final long n) {
+        return n < 10 ? "0" + n : Long.toString(n);
+    }
+
+    //  An array of records, with repeated keys and varying values.
+    private static byte[] json(final Random random, final int size) {
+        final StringBuilder sb = new StringBuilder(size + 256).append("[\n");
+        for (int id = 1; sb.length() < size; id++) {
+            sb.append("  {\"id\": ").append(id)
+                    .append(", \"name\": \"").append(WORDS[random.nextInt(WORDS.length)]).append('_').append(random.nextInt(1000))
+                    .append("\", \"active\": ").append(random.nextBoolean())
+                    .append(", \"score\": ").append(random.nextInt(100_000) / 100.0)
+                    .append(", \"tags\": [\"").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\", \"").append(WORDS[random.nextInt(WORDS.length)]).append("\"]},\n");
+        }
+        return truncate(sb, size);
+    }
+
+    //  Four little-endian int columns stored one after the other, as in column stores: row ids,
+    //  a slowly varying level, mostly constant floats with noise, and increasing offsets.
+    private static byte[] columnar(final Random random, final int size) {
+        final byte[] bytes = new byte[size];
+        final int rows = size / 16;
+        int level = 0;
+        for (int row = 0; row < rows; row++) {
+            level += random.nextInt(9) - 4;
+            put_int(bytes, 4 * row, row);
+            put_int(bytes, 4 * (rows + row), level);
+            put_int(bytes, 4 * (2 * rows + row), random.nextInt(4) == 0 ? random.nextInt() : 0x3f800000);
+            put_int(bytes, 4 * (3 * rows + row), row * 16 + 0x10000);
+        }
+        return bytes;
+    }
+
+    //  A short random pattern repeated over and over, with a rare mutated byte.
+    private static byte[] repetitive(final Random random, final int size) {
+        final byte[] pattern = new byte[61];
+        random.nextBytes(pattern);
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = random.nextInt(1000) == 0 ? (byte) random.nextInt(256) : pattern[i % pattern.length];
+        }
+        return bytes;
+    }
+
+    private static void put_int(final byte[] bytes, final int i, final int value) {
+        bytes[i] = (byte) value;
+        bytes[i + 1] = (byte) (value >>> 8);
+        bytes[i + 2] = (byte) (value >>> 16);
+        bytes[i + 3] = (byte) (value >>> 24);
+    }
+
+    private static byte[] truncate(final StringBuilder sb, final int size) {
+        final byte[] bytes = new byte[size];
+        final byte[] all = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(all, 0, bytes, 0, size);
+        return bytes;
+    }
+}
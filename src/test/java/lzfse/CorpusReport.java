@@ -0,0 +1,97 @@
+package lzfse;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Compression ratio and speed of lzfse4j on the {@link Corpus}.
+ * <pre>
+ * mvn -B test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=lzfse.CorpusReport \
+ *     [-Dexec.args="[--time-ms N] [--write DIR]"]
+ * </pre>
+ * There is no comparison with the reference C implementation. {@code --write DIR} writes the raw
+ * corpus instead, as {@code DIR/<kind>-<size>}, to measure other tools on the same inputs.
+ */
+final class CorpusReport {
+    private CorpusReport() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        Path write = null;
+        long time_ms = 500;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--write":
+                    write = Paths.get(args[++i]);
+                    break;
+                case "--time-ms":
+                    time_ms = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("usage: CorpusReport [--time-ms N] [--write DIR]");
+                    System.exit(1);
+            }
+        }
+
+        if (write != null) {
+            Files.createDirectories(write);
+            for (String kind : Corpus.KINDS) {
+                for (int size : Corpus.SIZES) {
+                    Files.write(write.resolve(Corpus.name(kind, size)), Corpus.generate(kind, size));
+                }
+            }
+            return;
+        }
+        report(System.out, time_ms * 1_000_000);
+    }
+
+    static void report(final PrintStream out, final long time_ns) {
+        out.printf("%-18s %9s %9s %7s %9s %9s%n",
+                "input", "bytes", "encoded", "ratio", "enc MB/s", "dec MB/s");
+        final LzfseEncoder encoder = new LzfseEncoder();
+        final LzfseDecoder decoder = new LzfseDecoder();
+        for (String kind : Corpus.KINDS) {
+            for (int size : Corpus.SIZES) {
+                final String name = Corpus.name(kind, size);
+                final byte[] bytes = Corpus.generate(kind, size);
+                final ByteBuffer raw = LittleEndianByteBuffer.wrap(bytes);
+                final ByteBuffer dst = LittleEndianByteBuffer.allocate(size + size / 16 + 4096);
+                final ByteBuffer decoded = LittleEndianByteBuffer.allocate(size + 64);
+
+                final byte[] encoded = Arrays.copyOf(dst.array(), (int) encoder.encode(dst, dst.capacity(), raw, size));
+                final ByteBuffer encoded_buffer = LittleEndianByteBuffer.wrap(encoded);
+                check(name, bytes, decoder, decoded, encoded_buffer);
+                final double enc = mb_per_s(size, time_ns, () -> encoder.encode(dst, dst.capacity(), raw, size));
+                final double dec = mb_per_s(size, time_ns, () -> decoder.decode(decoded, decoded.capacity(), encoded_buffer, encoded.length));
+                out.printf("%-18s %9d %9d %7.3f %9.1f %9.1f%n", name, size, encoded.length, (double) size / encoded.length, enc, dec);
+            }
+        }
+    }
+
+    private static void check(final String name, final byte[] bytes, final LzfseDecoder decoder,
+                              final ByteBuffer decoded, final ByteBuffer encoded) {
+        final int n = decoder.decode(decoded, decoded.capacity(), encoded, encoded.capacity());
+        if (n != bytes.length || !Arrays.equals(bytes, 0, n, decoded.array(), 0, n))
+            throw new IllegalStateException(name + ": does not decode to the corpus input");
+    }
+
+    //  Run OP for TIME_NS after a warm-up of the same length, and return its speed for SIZE bytes.
+    private static double mb_per_s(final int size, final long time_ns, final Runnable op) {
+        for (long start = System.nanoTime(); System.nanoTime() - start < time_ns; ) {
+            op.run();
+        }
+        long n = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            n++;
+        } while ((elapsed = System.nanoTime() - start) < time_ns);
+        return (double) size * n / elapsed * 1e3;
+    }
+}
@@ -0,0 +1,61 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static lzfse.LzfseStreamTest.decode_buffer;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CorpusTest {
+
+    //  CRC32 of every corpus entry, so that results measured on the corpus, here
+    //  or with other tools on the files of CorpusReport --write, stay comparable.
+    private static final Map<String, Long> CORPUS_CRC = new HashMap<>();
+
+    static {
+        CORPUS_CRC.put("repetitive-4096", 0x020e07d8L);
+        CORPUS_CRC.put("repetitive-65536", 0xce793376L);
+        CORPUS_CRC.put("repetitive-1048576", 0x3230ec17L);
+        CORPUS_CRC.put("logs-4096", 0x82fc12ceL);
+        CORPUS_CRC.put("logs-65536", 0x0bb50f76L);
+        CORPUS_CRC.put("logs-1048576", 0x5e719e32L);
+        CORPUS_CRC.put("json-4096", 0x9c1ccb9dL);
+        CORPUS_CRC.put("json-65536", 0x0e78fa44L);
+        CORPUS_CRC.put("json-1048576", 0x9eff7e4fL);
+        CORPUS_CRC.put("columnar-4096", 0xf635eb65L);
+        CORPUS_CRC.put("columnar-65536", 0x6a00693eL);
+        CORPUS_CRC.put("columnar-1048576", 0x6c53662dL);
+        CORPUS_CRC.put("text-4096", 0x1faf22dbL);
+        CORPUS_CRC.put("text-65536", 0x88d7a0bfL);
+        CORPUS_CRC.put("text-1048576", 0x35f8d965L);
+        CORPUS_CRC.put("random-4096", 0x9c32ff85L);
+        CORPUS_CRC.put("random-65536", 0xea69977aL);
+        CORPUS_CRC.put("random-1048576", 0x192f6d07L);
+    }
+
+    @Test
+    void corpus_is_reproducible() {
+        for (String kind : Corpus.KINDS) {
+            for (int size : Corpus.SIZES) {
+                final String name = Corpus.name(kind, size);
+                final CRC32 crc = new CRC32();
+                crc.update(Corpus.generate(kind, size));
+                assertEquals(CORPUS_CRC.get(name), crc.getValue(), name);
+            }
+        }
+    }
+
+    @Test
+    void corpus_round_trip() {
+        for (String kind : Corpus.KINDS) {
+            for (int size : Corpus.SIZES) {
+                final byte[] bytes = Corpus.generate(kind, size);
+                assertArrayEquals(bytes, decode_buffer(LzvnTest.encode(bytes), size), Corpus.name(kind, size));
+            }
+        }
+    }
+}
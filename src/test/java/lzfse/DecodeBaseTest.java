@@ -3,10 +3,14 @@ package lzfse;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class DecodeBaseTest {
 
@@ -36,6 +40,93 @@ class DecodeBaseTest {
         assertThrows(NullPointerException.class, () -> DecodeBase.lzfse_decode_v1_freq_value(0, null));
     }
 
+    @Test
+    void lzfse_decode_tables() {
+        final InternalStateObjects.lzfse_compressed_block_decoder_state bs = new InternalStateObjects.lzfse_compressed_block_decoder_state();
+        final InternalStateObjects.lzfse_decoder_table_cache cache = bs.table_cache;
+        // Freq tables A, B, C, D, E, by their single literal symbol
+        final int[] literals = {'A', 'B', 'C', 'D', 'E', 'A', 'E', 'B', 'A'};
+        final boolean[] hits = {false, false, false, false, false, false, true, false, true};
+        for (int i = 0; i < literals.length; i++) {
+            final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 header = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
+            header.l_freq[0] = Internal.LZFSE_ENCODE_L_STATES;
+            header.m_freq[0] = Internal.LZFSE_ENCODE_M_STATES;
+            header.d_freq[0] = Internal.LZFSE_ENCODE_D_STATES;
+            header.literal_freq[literals[i]] = Internal.LZFSE_ENCODE_LITERAL_STATES;
+            final long hits0 = cache.n_hits;
+            DecodeBase.lzfse_decode_tables(bs, header);
+
+            assertEquals(hits[i] ? hits0 + 1 : hits0, cache.n_hits, "block " + i);
+            assertEquals(i + 1, cache.n_hits + cache.n_misses);
+            assertEquals(literals[i], FSE.fse_decoder_entry_symbol(bs.literal_decoder[0]));
+            assertSame(cache.entries[0].literal_decoder, bs.literal_decoder);
+        }
+        // Most recently used first
+        assertEquals('A', FSE.fse_decoder_entry_symbol(cache.entries[0].literal_decoder[0]));
+        assertEquals('B', FSE.fse_decoder_entry_symbol(cache.entries[1].literal_decoder[0]));
+        assertEquals('E', FSE.fse_decoder_entry_symbol(cache.entries[2].literal_decoder[0]));
+    }
+
+    @Test
+    void lzfse_decode_v2() {
+        // A header with all the freq table entry encodings
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 expected = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
+        expected.magic = InternalBlockHeaderObjects.LZFSE_COMPRESSEDV1_BLOCK_MAGIC;
+        expected.n_raw_bytes = 123456;
+        expected.n_literals = 40000;
+        expected.n_literal_payload_bytes = 30000;
+        expected.n_matches = 5000;
+        expected.n_lmd_payload_bytes = 12000;
+        expected.n_payload_bytes = 42000;
+        expected.literal_bits = -3;
+        expected.lmd_bits = -5;
+        expected.literal_state[0] = 1;
+        expected.literal_state[3] = 1023;
+        expected.l_state = 17;
+        expected.m_state = 63;
+        expected.d_state = 200;
+        final int[] literal_occ = new int[Internal.LZFSE_ENCODE_LITERAL_SYMBOLS];
+        for (int i = 0; i < literal_occ.length; i++)
+            literal_occ[i] = i < 128 ? i * i : i % 3;
+        FSE.fse_normalize_freq(Internal.LZFSE_ENCODE_LITERAL_STATES, literal_occ.length, literal_occ, expected.literal_freq);
+        expected.l_freq[0] = 60;
+        expected.l_freq[5] = 4;
+        expected.m_freq[19] = 64;
+        expected.d_freq[1] = 255;
+        expected.d_freq[63] = 1;
+
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v2 header2 = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v2();
+        final int header_size = EncodeBase.lzfse_encode_v1_freq_table(header2, expected);
+        EncodeBase.lzfse_encode_v1_state(header2, expected);
+        final ByteBuffer src = LittleEndianByteBuffer.allocate(header_size + 5);
+        src.position(5);
+        src.put(InternalBlockHeaderObjects.lzfse_compressed_block_header_v2.toByteBuffer(header2).array(), 0, header_size);
+
+        // Decoded in place, over the fields of another header
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 out = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
+        Arrays.fill(out.literal_freq, (short) 7);
+        out.l_freq[1] = 3;
+        assertEquals(0, DecodeBase.lzfse_decode_v2(out, src, 5, header_size));
+        assertEquals(expected, out);
+        final InternalBlockHeaderObjects.lzfse_compressed_block_header_v1 out1 = new InternalBlockHeaderObjects.lzfse_compressed_block_header_v1();
+        assertEquals(0, DecodeBase.lzfse_decode_v1(out1, header2));
+        assertEquals(expected, out1);
+
+        // Freq tables cut short, or followed by another byte
+        assertEquals(-1, DecodeBase.lzfse_decode_v2(out, src, 5, header_size - 1));
+        final ByteBuffer longer = LittleEndianByteBuffer.allocate(header_size + 1);
+        longer.put(src.array(), 5, header_size);
+        assertEquals(-1, DecodeBase.lzfse_decode_v2(out, longer, 0, header_size + 1));
+
+        // Without allocating
+        assumeTrue(EncodeFrontEndTest.allocated_bytes() >= 0, "thread allocation counters not supported");
+        final long before = EncodeFrontEndTest.allocated_bytes();
+        for (int i = 0; i < 10000; i++)
+            DecodeBase.lzfse_decode_v2(out, src, 5, header_size);
+        final long allocated = EncodeFrontEndTest.allocated_bytes() - before;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+
     @Test
     void get_field() {
 
@@ -0,0 +1,86 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static lzfse.LzfseStreamTest.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DirectBufferTest {
+
+    //  Sizes for uncompressed, LZVN and LZFSE blocks.
+    private static final int[] SIZES = {5, 2000, 100_000};
+
+    private static ByteBuffer direct(final byte[] bytes) {
+        // Default (big endian) byte order, as handed out by channels and sockets
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    private static byte[] get(final ByteBuffer buffer, final int n) {
+        final byte[] bytes = new byte[n];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void encode_and_decode_direct_buffers() {
+        for (int size : SIZES) {
+            final byte[] bytes = sample(size);
+            final ByteBuffer encoded = ByteBuffer.allocateDirect(size + 64);
+            final long n = Encode.lzfse_encode_buffer(encoded, encoded.capacity(), direct(bytes), size);
+
+            // Same stream as the heap buffer path
+            final ByteBuffer heap = LittleEndianByteBuffer.allocate(size + 64);
+            final long heap_n = Encode.lzfse_encode_buffer(heap, heap.capacity(), LittleEndianByteBuffer.wrap(bytes), size);
+            assertArrayEquals(Arrays.copyOf(heap.array(), (int) heap_n), get(encoded, (int) n));
+
+            final ByteBuffer decoded = ByteBuffer.allocateDirect(size + 64);
+            assertEquals(size, Decode.lzfse_decode_buffer(decoded, decoded.capacity(), direct(get(encoded, (int) n)), n));
+            assertArrayEquals(bytes, get(decoded, size));
+        }
+    }
+
+    @Test
+    void encode_read_only_buffer_at_offset() {
+        final byte[] bytes = sample(100_000);
+        final byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 10, bytes.length);
+        // A read-only heap buffer has no accessible array either
+        final ByteBuffer src = ByteBuffer.wrap(padded).position(10).slice().asReadOnlyBuffer();
+
+        final ByteBuffer encoded = LittleEndianByteBuffer.allocate(bytes.length + 64);
+        final long n = new LzfseEncoder().encode(encoded, encoded.capacity(), src, bytes.length);
+        assertArrayEquals(bytes, LzfseStreamTest.decode_buffer(Arrays.copyOf(encoded.array(), (int) n), bytes.length));
+    }
+
+    @Test
+    void encode_mapped_file(@TempDir final Path dir) throws IOException {
+        final byte[] bytes = sample(300_000);
+        final Path raw = Files.write(dir.resolve("raw"), bytes);
+        final Path compressed = dir.resolve("raw.lzfse");
+
+        try (FileChannel in = FileChannel.open(raw, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(compressed, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE_NEW)) {
+            final MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            final MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, 0, bytes.length);
+            final long n = Encode.lzfse_encode_buffer(dst, dst.capacity(), src, src.capacity());
+            out.truncate(n);
+        }
+
+        final byte[] encoded = Files.readAllBytes(compressed);
+        assertArrayEquals(bytes, LzfseStreamTest.decode_buffer(encoded, bytes.length));
+    }
+}
@@ -0,0 +1,101 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static lzfse.EncodeFrontEnd.lzfse_encode_base;
+import static lzfse.EncodeFrontEnd.lzfse_encode_finish;
+import static lzfse.EncodeStateManagement.lzfse_encode_init;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class EncodeFrontEndTest {
+
+    private static long encode(final InternalStateObjects.lzfse_encoder_state s, final byte[] bytes, final ByteBuffer dst) {
+        s.clear();
+        lzfse_encode_init(s);
+        s.src = LittleEndianByteBuffer.wrap(bytes);
+        s.src_end = bytes.length;
+        s.src_encode_i = 0;
+        dst.clear();
+        s.dst = dst;
+        s.dst_begin = 0;
+        s.dst_end = dst.capacity();
+        assertEquals(LZFSE_STATUS_OK, lzfse_encode_base(s));
+        assertEquals(LZFSE_STATUS_OK, lzfse_encode_finish(s));
+        return dst.position();
+    }
+
+    //  Encode BYTES twice into a DST of DST_CAPACITY bytes, and return the number
+    //  of bytes allocated by the second run.
+    private static long allocated_by_encode(final byte[] bytes, final int dst_capacity) {
+        final InternalStateObjects.lzfse_encoder_state s = new InternalStateObjects.lzfse_encoder_state();
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(dst_capacity);
+        final long n = encode(s, bytes, dst); // warm up
+
+        final long before = allocated_bytes();
+        encode(s, bytes, dst);
+        final long allocated = allocated_bytes() - before;
+
+        assertArrayEquals(bytes, LzfseStreamTest.decode_buffer(Arrays.copyOf(dst.array(), (int) n), bytes.length));
+        return allocated;
+    }
+
+    @Test
+    void encode_base_does_not_allocate_per_position() {
+        assumeTrue(allocated_bytes() >= 0, "thread allocation counters not supported");
+
+        final byte[] bytes = LzfseStreamTest.sample(200_000);
+        final long allocated = allocated_by_encode(bytes, bytes.length + 4096);
+
+        // Only per-block objects remain: well under one byte per input position
+        assertTrue(allocated < bytes.length, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void encode_matches_does_not_copy_dst() {
+        assumeTrue(allocated_bytes() >= 0, "thread allocation counters not supported");
+
+        // Emitting a block must not cost anything proportional to the DST size,
+        // or encoding a large input into a large buffer becomes quadratic
+        final byte[] bytes = LzfseStreamTest.sample(200_000);
+        final long allocated = allocated_by_encode(bytes, 64 << 20);
+
+        assertTrue(allocated < bytes.length, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void encoder_tables_reused_across_blocks() {
+        // Blocks of homogeneous logs keep most of the tables of the previous ones
+        final byte[] bytes = Corpus.generate("logs", 1 << 20);
+        final InternalStateObjects.lzfse_encoder_state s = new InternalStateObjects.lzfse_encoder_state();
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length);
+        final long n = encode(s, bytes, dst);
+        final InternalStateObjects.lzfse_encoder_tables tables = s.tables;
+        assertEquals(0, (tables.n_built + tables.n_reused) % 4);
+        assertTrue(tables.n_reused > 0 && tables.n_built > 4, tables.n_built + " built, " + tables.n_reused + " reused");
+        final byte[] encoded = Arrays.copyOf(dst.array(), (int) n);
+        assertArrayEquals(bytes, LzfseStreamTest.decode_buffer(encoded, bytes.length));
+
+        // Not across inputs: the same input gives the same output
+        encode(s, bytes, dst);
+        assertArrayEquals(encoded, Arrays.copyOf(dst.array(), dst.position()));
+    }
+
+    //  Bytes allocated by the current thread, or -1 if the JVM cannot tell.
+    static long allocated_bytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -106,14 +106,37 @@ class FSETest {
 
     @Test
     void fse_encode() {
+        final long[] t = new long[3];
+        FSE.fse_init_encoder_table(4, 3, new short[]{3, 0, 1}, t);
+        final FSE.fse_out_stream64 out = new FSE.fse_out_stream64();
+
+        // Symbol 2 from state 2: 2 bits, the ones read back by decoder state 3
+        assertEquals(3, FSE.fse_encode(2, t, out, (byte) 2));
+        assertEquals(2, out.accum_nbits);
+        assertEquals(0b10, out.accum);
+        // Symbol 0 from state 1: no bits, decoder state 2
+        assertEquals(2, FSE.fse_encode(1, t, out, (byte) 0));
+        assertEquals(2, out.accum_nbits);
     }
 
     @Test
     void fse_decode() {
+        // k = 2 bits, next state 4 + bits
+        final int e = FSE.fse_decoder_entry(2, 'x', 4);
+        assertEquals(2, FSE.fse_decoder_entry_k(e));
+        assertEquals('x', FSE.fse_decoder_entry_symbol(e));
+        assertEquals(7, FSE.fse_decode(e, 0b11));
     }
 
     @Test
     void fse_value_decode() {
+        // 2 bits, 1 of them value bits, next state 2 + state bits, value 10 + value bits
+        final long e = FSE.fse_value_decoder_entry(2, 1, 2, 10);
+
+        assertEquals(11, FSE.fse_value_decode(e, 0b11));
+        assertEquals(3, FSE.fse_value_decode_state(e, 0b11));
+        assertEquals(10, FSE.fse_value_decode(e, 0b10));
+        assertEquals(3, FSE.fse_value_decode_state(e, 0b10));
     }
 
     @Test
@@ -122,14 +145,55 @@ class FSETest {
 
     @Test
     void fse_init_encoder_table() {
+        final long[] t = {-1, -1, -1};
+        FSE.fse_init_encoder_table(4, 3, new short[]{3, 0, 1}, t);
+
+        assertArrayEquals(new long[]{
+                FSE.fse_encoder_entry(2, 1, -1, 1),
+                0,
+                FSE.fse_encoder_entry(0, 2, 3, 4),
+        }, t);
+        // s0, k, delta0, delta1 at their C struct offsets
+        assertEquals(0x0001_ffff_0001_0002L, t[0]);
+        assertEquals(-1, FSE.fse_encoder_entry_delta0(t[0]));
+        assertEquals(4, FSE.fse_encoder_entry_delta1(t[2]));
+        assertEquals(2, FSE.fse_encoder_entry_k(t[2]));
+        assertEquals(0, FSE.fse_encoder_entry_s0(t[2]));
     }
 
     @Test
     void fse_init_decoder_table() {
+        final int[] t = new int[4];
+        assertEquals(0, FSE.fse_init_decoder_table(4, 2, new short[]{3, 1}, t));
+
+        assertArrayEquals(new int[]{
+                FSE.fse_decoder_entry(1, 0, 2),
+                FSE.fse_decoder_entry(0, 0, 0),
+                FSE.fse_decoder_entry(0, 0, 1),
+                FSE.fse_decoder_entry(2, 1, 0),
+        }, t);
+        // k, symbol, delta at their C struct offsets
+        assertEquals(0x0002_00_01, t[0]);
+        assertEquals(0x0000_01_02, t[3]);
     }
 
     @Test
     void fse_init_value_decoder_table() {
+        final long[] t = new long[4];
+        FSE.fse_init_value_decoder_table(4, 2, new short[]{3, 1}, new byte[]{1, 0}, new int[]{10, -20}, t);
+
+        assertArrayEquals(new long[]{
+                FSE.fse_value_decoder_entry(2, 1, 2, 10),
+                FSE.fse_value_decoder_entry(1, 1, 0, 10),
+                FSE.fse_value_decoder_entry(1, 1, 1, 10),
+                FSE.fse_value_decoder_entry(2, 0, 0, -20),
+        }, t);
+        // total_bits, value_bits, delta, vbase at their C struct offsets
+        assertEquals(0x0000000a_0002_01_02L, t[0]);
+        assertEquals(-20, FSE.fse_value_decoder_entry_vbase(t[3]));
+        assertEquals(2, FSE.fse_value_decoder_entry_delta(t[0]));
+        assertEquals(1, FSE.fse_value_decoder_entry_value_bits(t[1]));
+        assertEquals(2, FSE.fse_value_decoder_entry_total_bits(t[3]));
     }
 
     @Test
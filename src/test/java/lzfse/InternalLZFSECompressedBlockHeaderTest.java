@@ -23,6 +23,9 @@ import static lzfse.Internal.LZFSE_MATCHES_PER_BLOCK;
 import static lzfse.InternalBlockHeaderObjects.LZFSE_UNCOMPRESSED_BLOCK_MAGIC;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class InternalLZFSECompressedBlockHeaderTest {
     @Test
@@ -51,6 +54,22 @@ public class InternalLZFSECompressedBlockHeaderTest {
         final lzfse_compressed_block_header_v1 empty_header = new lzfse_compressed_block_header_v1();
         assertNotEquals(header, empty_header);
         assertEquals(header, header2);
+
+        // In place, at an offset, over the fields of another header
+        final ByteBuffer src = LittleEndianByteBuffer.allocate(3 + lzfse_compressed_block_header_v1.BYTES);
+        src.position(3);
+        src.put(create_valid_lzfse_compressed_block_header_v1_bytebuffer());
+        final lzfse_compressed_block_header_v1 out = new lzfse_compressed_block_header_v1();
+        Arrays.fill(out.d_freq, (short) 9);
+        assertSame(out, lzfse_compressed_block_header_v1.fromByteBuffer(src, 3, out));
+        assertEquals(header2, out);
+
+        assumeTrue(EncodeFrontEndTest.allocated_bytes() >= 0, "thread allocation counters not supported");
+        final long before = EncodeFrontEndTest.allocated_bytes();
+        for (int i = 0; i < 10000; i++)
+            lzfse_compressed_block_header_v1.fromByteBuffer(src, 3, out);
+        final long allocated = EncodeFrontEndTest.allocated_bytes() - before;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
     }
 
     @Test
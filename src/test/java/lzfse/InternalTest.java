@@ -5,10 +5,7 @@ import org.junit.jupiter.api.Test;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-import static lzfse.Internal.lzfse_history_set;
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class InternalTest {
@@ -143,18 +140,31 @@ class InternalTest {
 
     @Test
     void lzfse_history_set() {
-        lzfse_history_set history1 = new lzfse_history_set();
-        lzfse_history_set history2 = new lzfse_history_set();
-
-        Arrays.fill(history1.pos, 1);
-        Arrays.fill(history1.value, 2);
-
-        assertNotEquals(history1.pos[0], history2.pos[0]);
-        assertNotEquals(history1.value[0], history2.value[0]);
+        final InternalStateObjects.lzfse_encoder_state state = new InternalStateObjects.lzfse_encoder_state();
+        final int[] history_table = state.history_table;
+        Arrays.fill(history_table, 7);
+
+        EncodeStateManagement.lzfse_encode_init(state);
+
+        final int invalid_pos = -4 * Internal.LZFSE_ENCODE_MAX_D_VALUE;
+        final int set_value = Internal.lzfse_history_set_value(state.hash_width);
+        final int set_ints = Internal.lzfse_history_set_ints(state.hash_width);
+        for (int line = 0; line < set_ints << state.hash_bits; line += set_ints) {
+            for (int k = 0; k < state.hash_width; k++) {
+                assertEquals(invalid_pos, history_table[line + Internal.LZFSE_HISTORY_SET_POS + k]);
+                assertEquals(0, history_table[line + set_value + k]);
+            }
+        }
 
-        history2.set(history1);
+        // positions are translated and clamped, values are left alone
+        final int line = 5 * set_ints;
+        history_table[line + Internal.LZFSE_HISTORY_SET_POS] = 1000;
+        history_table[line + set_value] = 1000;
+        state.src = LittleEndianByteBuffer.allocate(1000);
+        EncodeStateManagement.lzfse_encode_translate(state, 100);
 
-        assertArrayEquals(history1.pos, history2.pos);
-        assertArrayEquals(history1.value, history2.value);
+        assertEquals(900, history_table[line + Internal.LZFSE_HISTORY_SET_POS]);
+        assertEquals(1000, history_table[line + set_value]);
+        assertEquals(invalid_pos, history_table[line + Internal.LZFSE_HISTORY_SET_POS + 1]);
     }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseBlockIndexTest {
+
+    private static byte[] encode_segments(final byte[] bytes) {
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length + bytes.length / 16 + 4096);
+        final long n = new LzfseParallelEncoder(64 << 10, 0, Runnable::run)
+                .encode(dst, dst.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        return Arrays.copyOf(dst.array(), (int) n);
+    }
+
+    private static void check_ranges(final LzfseBlockIndex index, final byte[] bytes, final byte[] encoded) {
+        final Random random = new Random(bytes.length);
+        for (int i = 0; i < 50; i++) {
+            final int offset = random.nextInt(bytes.length);
+            final int len = random.nextInt(Math.min(200_000, bytes.length - offset) + 1);
+            assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + len),
+                    index.read_range(LittleEndianByteBuffer.wrap(encoded), offset, len), offset + " + " + len);
+        }
+        assertArrayEquals(bytes, index.read_range(LittleEndianByteBuffer.wrap(encoded), 0, bytes.length));
+    }
+
+    @Test
+    void read_ranges() {
+        for (String kind : new String[]{"text", "random", "repetitive"}) {
+            final byte[] bytes = Corpus.generate(kind, 1 << 20);
+            for (byte[] encoded : new byte[][]{LzvnTest.encode(bytes), encode_segments(bytes)}) {
+                final LzfseBlockIndex index = LzfseBlockIndex.build(LittleEndianByteBuffer.wrap(encoded), encoded.length);
+                assertEquals(bytes.length, index.raw_size());
+                assertEquals(encoded.length, index.compressed_size());
+                check_ranges(index, bytes, encoded);
+            }
+        }
+    }
+
+    @Test
+    void build_slides_its_window() {
+        // Larger than the window build decodes through, with matches across its slides
+        for (String kind : new String[]{"logs", "repetitive"}) {
+            final byte[] bytes = Corpus.generate(kind, 5 << 20);
+            for (byte[] encoded : new byte[][]{LzvnTest.encode(bytes), encode_segments(bytes)}) {
+                final LzfseBlockIndex index = LzfseBlockIndex.build(LittleEndianByteBuffer.wrap(encoded), encoded.length);
+                assertEquals(bytes.length, index.raw_size());
+                check_ranges(index, bytes, encoded);
+            }
+        }
+    }
+
+    @Test
+    void independent_segments_decode_only_covering_blocks() {
+        final byte[] bytes = Corpus.generate("logs", 1 << 20);
+        final byte[] encoded = encode_segments(bytes);
+        final LzfseBlockIndex index = LzfseBlockIndex.build(LittleEndianByteBuffer.wrap(encoded), encoded.length);
+        assertTrue(index.block_count() >= 16);
+
+        // Wipe everything before the block holding the last segment: it is never read
+        final int offset = bytes.length - 1000;
+        final byte[] wiped = encoded.clone();
+        Arrays.fill(wiped, 0, (int) index.compressed_offset(bytes.length - (64 << 10)), (byte) 0);
+        assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + 1000),
+                index.read_range(LittleEndianByteBuffer.wrap(wiped), offset, 1000));
+    }
+
+    @Test
+    void sidecar_round_trip() throws IOException {
+        final byte[] bytes = Corpus.generate("json", 1 << 20);
+        final byte[] encoded = encode_segments(bytes);
+        final LzfseBlockIndex index = LzfseBlockIndex.build(LittleEndianByteBuffer.wrap(encoded), encoded.length);
+
+        final ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+        index.write(sidecar);
+        final LzfseBlockIndex loaded = LzfseBlockIndex.read(new ByteArrayInputStream(sidecar.toByteArray()));
+        assertEquals(index.block_count(), loaded.block_count());
+        assertEquals(index.raw_size(), loaded.raw_size());
+        assertEquals(index.compressed_offset(500_000), loaded.compressed_offset(500_000));
+        check_ranges(loaded, bytes, encoded);
+
+        final byte[] corrupted = sidecar.toByteArray();
+        corrupted[0] ^= 1;
+        assertThrows(IOException.class, () -> LzfseBlockIndex.read(new ByteArrayInputStream(corrupted)));
+    }
+
+    @Test
+    void invalid_arguments() {
+        final byte[] bytes = Corpus.generate("text", 100_000);
+        final byte[] encoded = LzvnTest.encode(bytes);
+        final LzfseBlockIndex index = LzfseBlockIndex.build(LittleEndianByteBuffer.wrap(encoded), encoded.length);
+        final ByteBuffer src = LittleEndianByteBuffer.wrap(encoded);
+
+        assertEquals(0, index.read_range(src, bytes.length, 0).length);
+        assertThrows(IndexOutOfBoundsException.class, () -> index.read_range(src, -1, 10));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.read_range(src, bytes.length - 5, 10));
+        assertThrows(IllegalArgumentException.class, () -> index.read_range(LittleEndianByteBuffer.wrap(new byte[encoded.length]), 0, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> LzfseBlockIndex.build(LittleEndianByteBuffer.wrap(encoded), encoded.length - 4));
+    }
+}
@@ -0,0 +1,70 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static lzfse.LzfseStreamTest.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseCodecPoolTest {
+
+    @Test
+    void concurrent_round_trips() throws Exception {
+        final LzfseCodecPool pool = new LzfseCodecPool(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 32; t++) {
+                final int size = 4096 + 1000 * t;
+                futures.add(executor.submit(() -> {
+                    final byte[] bytes = sample(size);
+                    final ByteBuffer encoded = LittleEndianByteBuffer.allocate(size + 64);
+                    final long n = pool.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(bytes), size);
+                    final ByteBuffer decoded = LittleEndianByteBuffer.allocate(size + 64);
+                    assertEquals(size, pool.decode(decoded, decoded.capacity(), encoded, n));
+                    assertArrayEquals(bytes, Arrays.copyOf(decoded.array(), size));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final LzfseCodecPool.Stats stats = pool.encoder_stats();
+        assertEquals(0, stats.in_use);
+        assertTrue(stats.idle <= pool.capacity());
+        assertEquals(32, stats.hits + stats.created);
+        assertEquals(stats.created, stats.idle + stats.discarded);
+    }
+
+    @Test
+    void reuses_idle_codecs() {
+        final LzfseCodecPool pool = new LzfseCodecPool(1);
+        final byte[] bytes = sample(5000);
+        for (int i = 0; i < 3; i++) {
+            final ByteBuffer encoded = LittleEndianByteBuffer.allocate(6000);
+            pool.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        }
+
+        final LzfseCodecPool.Stats stats = pool.encoder_stats();
+        assertEquals(1, stats.created);
+        assertEquals(2, stats.hits);
+        assertEquals(1, stats.idle);
+        assertEquals(0, pool.decoder_stats().created);
+
+        assertThrows(IllegalArgumentException.class, () -> new LzfseCodecPool(0));
+    }
+}
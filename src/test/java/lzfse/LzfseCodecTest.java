@@ -0,0 +1,157 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static lzfse.LzfseStreamTest.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseCodecTest {
+
+    @Test
+    void reuse_encoder_and_decoder() {
+        final LzfseEncoder encoder = new LzfseEncoder();
+        final LzfseDecoder decoder = new LzfseDecoder();
+
+        // sizes go up and down, so state left over from a larger input would show
+        for (int size : new int[]{70000, 5000, 300000, 4, 64000, 5000}) {
+            final byte[] bytes = sample(size);
+
+            final ByteBuffer expected = LittleEndianByteBuffer.allocate(size + 64);
+            final long n = Encode.lzfse_encode_buffer(expected, expected.capacity(), LittleEndianByteBuffer.wrap(bytes), size);
+            final ByteBuffer encoded = LittleEndianByteBuffer.allocate(size + 64);
+            assertEquals(n, encoder.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(bytes), size));
+            assertArrayEquals(Arrays.copyOf(expected.array(), (int) n), Arrays.copyOf(encoded.array(), (int) n));
+
+            final ByteBuffer decoded = LittleEndianByteBuffer.allocate(size + 64);
+            assertEquals(size, decoder.decode(decoded, decoded.capacity(), encoded, n));
+            assertArrayEquals(bytes, Arrays.copyOf(decoded.array(), size));
+        }
+    }
+
+    @Test
+    void positioned_buffers() {
+        final LzfseEncoder encoder = new LzfseEncoder();
+        final LzfseDecoder decoder = new LzfseDecoder();
+        for (int size : new int[]{100, 5000, 300000}) {
+            final byte[] bytes = sample(size);
+            final ByteBuffer expected = LittleEndianByteBuffer.allocate(size + 64);
+            final int n = (int) Encode.lzfse_encode_buffer(expected, size + 64, LittleEndianByteBuffer.wrap(bytes), size);
+
+            // Output after more bytes than it is long
+            final ByteBuffer encoded = LittleEndianByteBuffer.allocate(1000 + size + 64).position(1000);
+            assertEquals(n, Encode.lzfse_encode_buffer(encoded, size + 64, LittleEndianByteBuffer.wrap(bytes), size));
+            assertArrayEquals(Arrays.copyOf(expected.array(), n), Arrays.copyOfRange(encoded.array(), 1000, 1000 + n));
+            assertEquals(n, encoder.encode(encoded, size + 64, LittleEndianByteBuffer.wrap(bytes), size));
+            assertArrayEquals(Arrays.copyOf(expected.array(), n), Arrays.copyOfRange(encoded.array(), 1000, 1000 + n));
+
+            // Input after 1000 bytes, output after 3 bytes, in exactly as much space as it needs
+            final ByteBuffer decoded = LittleEndianByteBuffer.allocate(3 + size).position(3);
+            assertEquals(size, Decode.lzfse_decode_buffer(decoded, size, encoded, n));
+            assertArrayEquals(bytes, Arrays.copyOfRange(decoded.array(), 3, 3 + size));
+            Arrays.fill(decoded.array(), (byte) 0);
+            assertEquals(size, decoder.decode(decoded, size, encoded, n));
+            assertArrayEquals(bytes, Arrays.copyOfRange(decoded.array(), 3, 3 + size));
+            assertEquals(-1, decoder.decode(decoded, size - 1, encoded, n));
+        }
+    }
+
+    @Test
+    void decoder_table_cache() {
+        final LzfseEncoder encoder = new LzfseEncoder();
+        final LzfseDecoder decoder = new LzfseDecoder();
+        // Blocks of homogeneous logs, many encoded with the tables of the previous one
+        final byte[] logs = Corpus.generate("logs", 4 << 20);
+        final ByteBuffer encoded = LittleEndianByteBuffer.allocate(logs.length);
+        final long n = encoder.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(logs), logs.length);
+        final ByteBuffer decoded = LittleEndianByteBuffer.allocate(logs.length);
+        assertEquals(logs.length, decoder.decode(decoded, logs.length, encoded, n));
+        assertArrayEquals(logs, decoded.array());
+        assertTrue(decoder.table_cache_hits() > 0 && decoder.table_cache_misses() > 1,
+                decoder.table_cache_hits() + " hits, " + decoder.table_cache_misses() + " misses");
+
+        // The same small message again and again: tables only built once
+        final byte[] message = Arrays.copyOf(logs, 20000);
+        final long m = encoder.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(message), message.length);
+        final long misses = decoder.table_cache_misses();
+        for (int i = 0; i < 10; i++) {
+            decoded.clear();
+            assertEquals(message.length, decoder.decode(decoded, message.length, encoded, m));
+            assertArrayEquals(message, Arrays.copyOf(decoded.array(), message.length));
+        }
+        assertEquals(misses + 1, decoder.table_cache_misses());
+    }
+
+    @Test
+    void encoder_configs() {
+        final LzfseDecoder decoder = new LzfseDecoder();
+        final LzfseEncoderConfig[] configs = {LzfseEncoderConfig.FAST, LzfseEncoderConfig.DEFAULT, LzfseEncoderConfig.HIGH,
+                LzfseEncoderConfig.MAX, new LzfseEncoderConfig(10, 8, 4, 0), new LzfseEncoderConfig(16, 4, 1000, 100_000),
+                new LzfseEncoderConfig(14, 4, 40, 4096, 1), new LzfseEncoderConfig(10, 8, 4, 0, 3),
+                new LzfseEncoderConfig(10, 4, 4, 0, 0, true), new LzfseEncoderConfig(12, 4, 5000, 0, 0, true)};
+        // Sizes over the corpus, which go down with the presets, if not for every kind
+        final long[] total = new long[configs.length];
+        for (String kind : Corpus.KINDS) {
+            final byte[] bytes = Corpus.generate(kind, 1 << 20);
+            final long[] sizes = new long[configs.length];
+            for (int i = 0; i < configs.length; i++) {
+                final ByteBuffer encoded = LittleEndianByteBuffer.allocate(bytes.length + 64);
+                sizes[i] = new LzfseEncoder(configs[i]).encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+                final ByteBuffer decoded = LittleEndianByteBuffer.allocate(bytes.length);
+                assertEquals(bytes.length, decoder.decode(decoded, decoded.capacity(), encoded, sizes[i]), kind + " " + configs[i]);
+                assertArrayEquals(bytes, decoded.array(), kind + " " + configs[i]);
+                total[i] += sizes[i];
+            }
+            final ByteBuffer expected = LittleEndianByteBuffer.allocate(bytes.length + 64);
+            assertEquals(Encode.lzfse_encode_buffer(expected, expected.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length), sizes[1], kind);
+        }
+        assertTrue(total[3] < total[2] && total[2] < total[1] && total[1] < total[0], Arrays.toString(total));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseEncoderConfig(17, 4, 40, 4096));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseEncoderConfig(14, 6, 40, 4096));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseEncoderConfig(14, 4, 40, 4096, 4));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseEncoderConfig(14, 4, 40, 4096, 1, true));
+    }
+
+    @Test
+    void lazy_matching_across_encoder_chunks() throws IOException {
+        // The output stream translates the encoder state between chunks, pending match included
+        final byte[] bytes = Corpus.generate("logs", 3 << 20);
+        final byte[] compressed = encode_stream(bytes, LzfseEncoderConfig.HIGH);
+        assertArrayEquals(bytes, LzfseStreamTest.decode_buffer(compressed, bytes.length));
+
+        final ByteBuffer greedy = LittleEndianByteBuffer.allocate(bytes.length);
+        final long n = Encode.lzfse_encode_buffer(greedy, greedy.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        assertTrue(compressed.length < n, compressed.length + " >= " + n);
+    }
+
+    @Test
+    void optimal_parsing_across_encoder_chunks() throws IOException {
+        // Prices carry over from block to block, and chunk to chunk, but not from stream to stream
+        final byte[] bytes = Corpus.generate("json", 3 << 20);
+        final byte[] compressed = encode_stream(bytes, LzfseEncoderConfig.MAX);
+        assertArrayEquals(bytes, LzfseStreamTest.decode_buffer(compressed, bytes.length));
+        assertTrue(compressed.length < encode_stream(bytes, LzfseEncoderConfig.HIGH).length);
+
+        final LzfseEncoder encoder = new LzfseEncoder(LzfseEncoderConfig.MAX);
+        final ByteBuffer first = LittleEndianByteBuffer.allocate(bytes.length);
+        final ByteBuffer second = LittleEndianByteBuffer.allocate(bytes.length);
+        final long n = encoder.encode(first, first.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        assertEquals(n, encoder.encode(second, second.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length));
+        assertArrayEquals(first.array(), second.array());
+    }
+
+    private static byte[] encode_stream(final byte[] bytes, final LzfseEncoderConfig config) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (LzfseOutputStream lzfse = new LzfseOutputStream(out, config)) {
+            lzfse.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseDictionaryTest {
+
+    @Test
+    void small_messages_with_dictionary() {
+        // Messages from the same generator as the dictionary, after it
+        final byte[] json = Corpus.generate("json", 1 << 20);
+        final LzfseDictionary dictionary = new LzfseDictionary(Arrays.copyOf(json, 32 << 10));
+        final LzfseDecoder decoder = new LzfseDecoder();
+        for (LzfseEncoderConfig config : new LzfseEncoderConfig[]{LzfseEncoderConfig.DEFAULT, LzfseEncoderConfig.HIGH, LzfseEncoderConfig.MAX}) {
+            final LzfseEncoder encoder = new LzfseEncoder(config);
+            long plain = 0, primed = 0;
+            for (int size : new int[]{6, 100, 1000, 3000, 5000}) {
+                final byte[] message = Arrays.copyOfRange(json, 500_000 + size, 500_000 + 2 * size);
+                final ByteBuffer encoded = LittleEndianByteBuffer.allocate(size + 64);
+                final long n = encoder.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(message), size, dictionary);
+                final ByteBuffer decoded = LittleEndianByteBuffer.allocate(size);
+                assertEquals(size, decoder.decode(decoded, size, encoded, n, dictionary), config + " " + size);
+                assertArrayEquals(message, decoded.array(), config + " " + size);
+
+                final ByteBuffer without = LittleEndianByteBuffer.allocate(size + 64);
+                plain += encoder.encode(without, without.capacity(), LittleEndianByteBuffer.wrap(message), size);
+                primed += n;
+            }
+            assertTrue(primed < plain * 9 / 10, config + ": " + primed + " >= 9/10 of " + plain);
+        }
+    }
+
+    @Test
+    void decoding_needs_the_dictionary() {
+        final byte[] json = Corpus.generate("json", 64 << 10);
+        final LzfseDictionary dictionary = new LzfseDictionary(Arrays.copyOf(json, 16 << 10));
+        final byte[] message = Arrays.copyOfRange(json, 16 << 10, 18 << 10);
+        final LzfseEncoder encoder = new LzfseEncoder();
+        final LzfseDecoder decoder = new LzfseDecoder();
+        // Input from a direct buffer
+        final ByteBuffer src = ByteBuffer.allocateDirect(message.length).order(ByteOrder.LITTLE_ENDIAN);
+        src.put(message).flip();
+        final ByteBuffer encoded = LittleEndianByteBuffer.allocate(message.length);
+        final long n = encoder.encode(encoded, encoded.capacity(), src, message.length, dictionary);
+        assertTrue(n > 0 && n < message.length / 2, String.valueOf(n));
+
+        final ByteBuffer decoded = LittleEndianByteBuffer.allocate(message.length);
+        assertEquals(0, decoder.decode(decoded, message.length, encoded, n));
+        // DST too small: as much output as fits, as without a dictionary
+        assertEquals(-10, decoder.decode(decoded, message.length - 10, encoded, n, dictionary));
+        assertArrayEquals(Arrays.copyOf(message, message.length - 10), Arrays.copyOf(decoded.array(), message.length - 10));
+        assertEquals(message.length, decoder.decode(decoded, message.length, encoded, n, dictionary));
+        assertArrayEquals(message, decoded.array());
+    }
+
+    @Test
+    void trained_dictionary() {
+        final byte[] logs = Corpus.generate("logs", 1 << 20);
+        final List<byte[]> samples = new ArrayList<>();
+        for (int p = 0; p < 500_000; p += 1000) {
+            samples.add(Arrays.copyOfRange(logs, p, p + 1000));
+        }
+        final LzfseDictionary dictionary = LzfseDictionaryTrainer.train(samples, 16 << 10);
+        assertTrue(dictionary.size() <= 16 << 10 && dictionary.size() > 8 << 10, String.valueOf(dictionary.size()));
+        assertEquals(dictionary, LzfseDictionaryTrainer.train(samples, 16 << 10));
+
+        // Messages after the samples
+        final LzfseEncoder encoder = new LzfseEncoder();
+        final LzfseDecoder decoder = new LzfseDecoder();
+        long plain = 0, primed = 0;
+        for (int p = 600_000; p < 700_000; p += 2000) {
+            final byte[] message = Arrays.copyOfRange(logs, p, p + 2000);
+            final ByteBuffer encoded = LittleEndianByteBuffer.allocate(message.length + 64);
+            final long n = encoder.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(message), message.length, dictionary);
+            final ByteBuffer decoded = LittleEndianByteBuffer.allocate(message.length);
+            assertEquals(message.length, decoder.decode(decoded, message.length, encoded, n, dictionary));
+            assertArrayEquals(message, decoded.array());
+            primed += n;
+            plain += encoder.encode(encoded, encoded.capacity(), LittleEndianByteBuffer.wrap(message), message.length);
+        }
+        assertTrue(primed < plain * 9 / 10, primed + " >= 9/10 of " + plain);
+
+        // Samples with nothing in common still give a dictionary
+        final Random random = new Random(1);
+        final byte[] noise = new byte[100];
+        random.nextBytes(noise);
+        assertEquals(64, LzfseDictionaryTrainer.train(Collections.singletonList(noise), 64, 8).size());
+        assertThrows(IllegalArgumentException.class, () -> LzfseDictionaryTrainer.train(samples, 1 << 20));
+        assertThrows(IllegalArgumentException.class, () -> LzfseDictionaryTrainer.train(samples, 1024, 4));
+        assertThrows(IllegalArgumentException.class, () -> LzfseDictionaryTrainer.train(Collections.singletonList(new byte[3]), 1024));
+    }
+
+    @Test
+    void dictionary_size() {
+        assertThrows(IllegalArgumentException.class, () -> new LzfseDictionary(new byte[3]));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseDictionary(new byte[LzfseDictionary.MAX_SIZE + 1]));
+        final byte[] content = {1, 2, 3, 4};
+        final LzfseDictionary dictionary = new LzfseDictionary(content);
+        content[0] = 0;
+        assertEquals(4, dictionary.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, dictionary.content());
+        assertEquals(new LzfseDictionary(new byte[]{1, 2, 3, 4}), dictionary);
+    }
+}
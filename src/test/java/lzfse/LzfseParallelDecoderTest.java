@@ -0,0 +1,96 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseParallelDecoderTest {
+
+    private static byte[] encode(final LzfseParallelEncoder encoder, final byte[] bytes) {
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length + bytes.length / 16 + 4096);
+        final long n = encoder.encode(dst, dst.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        return Arrays.copyOf(dst.array(), (int) n);
+    }
+
+    private static byte[] decode(final LzfseParallelDecoder decoder, final byte[] encoded) {
+        return decoder.decode(LittleEndianByteBuffer.wrap(encoded), encoded.length);
+    }
+
+    @Test
+    void independent_segments_decode_in_parallel() {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final LzfseParallelDecoder decoder = new LzfseParallelDecoder(executor);
+            for (String kind : new String[]{"logs", "random", "columnar"}) {
+                final byte[] bytes = Corpus.generate(kind, 6 << 20);
+                final long serial = decoder.blocks_decoded_serially();
+                assertArrayEquals(bytes, decode(decoder, encode(new LzfseParallelEncoder(64 << 10, 0, executor), bytes)), kind);
+                assertEquals(serial, decoder.blocks_decoded_serially(), kind);
+            }
+            assertTrue(decoder.blocks_decoded_in_parallel() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void default_encoder_output_decodes_in_parallel() {
+        final LzfseParallelDecoder decoder = new LzfseParallelDecoder();
+        final byte[] bytes = Corpus.generate("text", 9 << 20);
+        assertArrayEquals(bytes, decode(decoder, encode(new LzfseParallelEncoder(), bytes)));
+        assertEquals(0, decoder.blocks_decoded_serially());
+        assertTrue(decoder.blocks_decoded_in_parallel() > 0);
+    }
+
+    @Test
+    void matches_across_runs_decode_serially() {
+        final LzfseParallelDecoder decoder = new LzfseParallelDecoder();
+        final byte[] bytes = Corpus.generate("text", 6 << 20);
+        assertArrayEquals(bytes, decode(decoder, LzvnTest.encode(bytes)));
+        assertTrue(decoder.blocks_decoded_serially() > 0);
+
+        // Segments primed with history refer to the previous segment
+        final byte[] encoded = encode(new LzfseParallelEncoder(64 << 10, 50_000, Runnable::run), bytes);
+        assertArrayEquals(bytes, decode(decoder, encoded));
+    }
+
+    @Test
+    void same_result_as_serial_decoder() {
+        final LzfseParallelDecoder decoder = new LzfseParallelDecoder(Runnable::run);
+        final byte[] bytes = Corpus.generate("json", 3 << 20);
+        final byte[] encoded = encode(new LzfseParallelEncoder(64 << 10, 0, Runnable::run), bytes);
+
+        // DST too small, truncated, corrupted
+        for (int dst_size : new int[]{bytes.length - 1, bytes.length}) {
+            final ByteBuffer expected = LittleEndianByteBuffer.allocate(dst_size);
+            final ByteBuffer actual = LittleEndianByteBuffer.allocate(dst_size);
+            assertEquals(Decode.lzfse_decode_buffer(expected, dst_size, LittleEndianByteBuffer.wrap(encoded), encoded.length),
+                    decoder.decode(actual, dst_size, LittleEndianByteBuffer.wrap(encoded), encoded.length));
+            assertArrayEquals(expected.array(), actual.array());
+        }
+        final byte[] truncated = Arrays.copyOf(encoded, encoded.length - 4);
+        assertThrows(IllegalArgumentException.class, () -> decode(decoder, truncated));
+        final byte[] corrupted = encoded.clone();
+        corrupted[encoded.length / 2] ^= 0x55;
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length);
+        final int n = decoder.decode(dst, dst.capacity(), LittleEndianByteBuffer.wrap(corrupted), corrupted.length);
+        assertTrue(n == 0 || !Arrays.equals(bytes, dst.array()));
+    }
+
+    @Test
+    void small_streams() {
+        final LzfseParallelDecoder decoder = new LzfseParallelDecoder();
+        for (int size : new int[]{0, 10, 5000, 100_000}) {
+            final byte[] bytes = Corpus.generate("text", size);
+            assertArrayEquals(bytes, decode(decoder, LzvnTest.encode(bytes)));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static lzfse.LzfseStreamTest.decode_buffer;
+import static lzfse.LzfseStreamTest.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseParallelEncoderTest {
+
+    private static byte[] encode(final LzfseParallelEncoder encoder, final byte[] bytes) {
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length + bytes.length / 16 + 4096);
+        final long n = encoder.encode(dst, dst.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        assertTrue(n > 0);
+        return Arrays.copyOf(dst.array(), (int) n);
+    }
+
+    private static byte[] encode_stream(final LzfseParallelEncoder encoder, final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(new ByteArrayInputStream(bytes), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void round_trip() throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int history : new int[]{0, 1000, LzfseParallelEncoder.MAX_HISTORY_SIZE}) {
+                final LzfseParallelEncoder encoder = new LzfseParallelEncoder(64 << 10, history, executor);
+                for (int size : new int[]{0, 100, 64 << 10, (64 << 10) + 1, 1_000_000}) {
+                    for (String kind : new String[]{"text", "random", "repetitive"}) {
+                        final byte[] bytes = Corpus.generate(kind, size);
+                        final byte[] encoded = encode(encoder, bytes);
+                        assertArrayEquals(bytes, decode_buffer(encoded, size));
+                        assertArrayEquals(bytes, new LzfseInputStream(new ByteArrayInputStream(encoded)).readAllBytes());
+                        // The stream API cannot tell a last full segment from a single one
+                        if (size != 64 << 10)
+                            assertArrayEquals(encoded, encode_stream(encoder, bytes));
+                        else
+                            assertArrayEquals(bytes, decode_buffer(encode_stream(encoder, bytes), size));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void single_segment_matches_buffer_api() {
+        final byte[] bytes = sample(100_000);
+        assertArrayEquals(LzvnTest.encode(bytes), encode(new LzfseParallelEncoder(), bytes));
+    }
+
+    @Test
+    void output_does_not_depend_on_executor() {
+        final byte[] bytes = Corpus.generate("logs", 1 << 20);
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            assertArrayEquals(encode(new LzfseParallelEncoder(100_000, 50_000, single), bytes),
+                    encode(new LzfseParallelEncoder(100_000, 50_000, Runnable::run), bytes));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    void history_recovers_matches_across_segments() {
+        // A 100 KB pattern repeated: without history, each segment must encode its start again
+        final byte[] pattern = Corpus.generate("random", 100_000);
+        final byte[] bytes = new byte[1_000_000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = pattern[i % pattern.length];
+        }
+        final int without = encode(new LzfseParallelEncoder(64 << 10, 0, Runnable::run), bytes).length;
+        final int with = encode(new LzfseParallelEncoder(64 << 10, LzfseParallelEncoder.MAX_HISTORY_SIZE, Runnable::run), bytes).length;
+        assertTrue(with * 4 < without, with + " vs " + without);
+        assertTrue(with < LzvnTest.encode(bytes).length * 1.1);
+    }
+
+    @Test
+    void segments_are_independent_by_default() {
+        assertEquals(0, new LzfseParallelEncoder().history_size());
+    }
+
+    @Test
+    void dst_too_small() {
+        final byte[] bytes = Corpus.generate("text", 1 << 20);
+        final int n = encode(new LzfseParallelEncoder(), bytes).length;
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(n - 1);
+        assertEquals(0, new LzfseParallelEncoder(64 << 10, 0, Runnable::run)
+                .encode(dst, dst.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length));
+    }
+
+    @Test
+    void rejects_invalid_sizes() {
+        assertThrows(IllegalArgumentException.class, () -> new LzfseParallelEncoder(1000, 0, Runnable::run));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseParallelEncoder(1 << 20, -1, Runnable::run));
+        assertThrows(IllegalArgumentException.class, () -> new LzfseParallelEncoder(1 << 20, 1 << 20, Runnable::run));
+    }
+}
@@ -0,0 +1,155 @@
+package lzfse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzfseStreamTest {
+
+    static byte[] sample(final int size) {
+        final String words = "the quick brown fox jumps over the lazy dog lorem ipsum dolor sit amet ";
+        final Random random = new Random(size);
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i % 7 == 0 ? random.nextInt(256) : words.charAt((i * 13 + random.nextInt(3)) % words.length()));
+        }
+        return bytes;
+    }
+
+    static byte[] compress(final byte[] bytes, final int chunk) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (LzfseOutputStream lzfse = new LzfseOutputStream(out)) {
+            for (int off = 0; off < bytes.length; off += chunk) {
+                lzfse.write(bytes, off, Math.min(chunk, bytes.length - off));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decode_buffer(final byte[] compressed, final int size) {
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(size + 64);
+        final int n = Decode.lzfse_decode_buffer(dst, dst.capacity(), LittleEndianByteBuffer.wrap(compressed), compressed.length);
+        return Arrays.copyOf(dst.array(), n);
+    }
+
+    @Test
+    void small_input_matches_buffer_api() throws IOException {
+        for (int size : new int[]{0, 5, 1000, 5000, 70000}) {
+            final byte[] bytes = sample(size);
+            final ByteBuffer dst = LittleEndianByteBuffer.allocate(size + 64);
+            final long n = Encode.lzfse_encode_buffer(dst, dst.capacity(), LittleEndianByteBuffer.wrap(bytes), size);
+
+            assertArrayEquals(Arrays.copyOf(dst.array(), (int) n), compress(bytes, 4096));
+        }
+    }
+
+    @Test
+    void write_read_round_trip() throws IOException {
+        // large enough to slide the encoder and decoder windows
+        final byte[] bytes = sample(1_000_000);
+        final byte[] compressed = compress(bytes, 100_003);
+
+        assertArrayEquals(bytes, decode_buffer(compressed, bytes.length));
+        assertArrayEquals(bytes, new LzfseInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+    }
+
+    @Test
+    void block_just_over_window_size() throws IOException {
+        // The output window fills as the last L, M, D triple of a block starts:
+        // the pending literal and match must still be written on resume
+        for (int size : new int[]{(512 << 10) + 2, (768 << 10) + 1, (1 << 20) + 1}) {
+            final byte[] zeros = new byte[size];
+            final byte[] compressed = compress(zeros, size);
+            assertArrayEquals(zeros, new LzfseInputStream(new ByteArrayInputStream(compressed)).readAllBytes(), String.valueOf(size));
+        }
+        final byte[] bytes = sample((512 << 10) + 2);
+        assertArrayEquals(bytes, new LzfseInputStream(new ByteArrayInputStream(compress(bytes, 4096))).readAllBytes());
+    }
+
+    @Test
+    void incompressible_blocks_stored_uncompressed() throws IOException {
+        // Compressed blocks of random bytes are larger than the bytes themselves
+        final byte[] bytes = new byte[3 << 20];
+        new Random(3).nextBytes(bytes);
+        final byte[] compressed = compress(bytes, 100_003);
+        assertTrue(compressed.length < bytes.length + bytes.length / 1000, String.valueOf(compressed.length));
+        assertArrayEquals(bytes, decode_buffer(compressed, bytes.length));
+        assertArrayEquals(bytes, new LzfseInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+
+        // Random bytes between compressible ones: matches still reach across them
+        final byte[] mixed = sample(3 << 20);
+        System.arraycopy(bytes, 0, mixed, 1 << 20, 1 << 20);
+        assertArrayEquals(mixed, new LzfseInputStream(new ByteArrayInputStream(compress(mixed, 4096))).readAllBytes());
+    }
+
+    @Test
+    void single_byte_write_read() throws IOException {
+        final byte[] bytes = sample(20000);
+        final byte[] compressed = compress(bytes, 1);
+
+        final InputStream in = new LzfseInputStream(new ByteArrayInputStream(compressed));
+        for (byte b : bytes) {
+            assertEquals(Byte.toUnsignedInt(b), in.read());
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void read_trickling_source() throws IOException {
+        final byte[] bytes = sample(300_000);
+        final byte[] compressed = compress(bytes, bytes.length);
+
+        // underlying stream returns at most 7 bytes per read
+        final InputStream trickle = new ByteArrayInputStream(compressed) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        assertArrayEquals(bytes, new LzfseInputStream(trickle).readAllBytes());
+    }
+
+    @Test
+    void truncated_stream() throws IOException {
+        final byte[] compressed = compress(sample(100_000), 100_000);
+        final byte[] truncated = Arrays.copyOf(compressed, compressed.length - 4); // no end-of-stream
+
+        assertThrows(IOException.class, () -> new LzfseInputStream(new ByteArrayInputStream(truncated)).readAllBytes());
+    }
+
+    @Test
+    void decoded_size_from_headers() throws IOException {
+        for (int size : new int[]{0, 5, 5000, 1_000_000}) {
+            final byte[] compressed = compress(sample(size), 100_003);
+            assertEquals(size, Decode.lzfse_decoded_size(LittleEndianByteBuffer.wrap(compressed), compressed.length));
+        }
+        final byte[] compressed = compress(sample(100_000), 100_000);
+        assertEquals(-1, Decode.lzfse_decoded_size(LittleEndianByteBuffer.wrap(compressed), compressed.length - 4));
+        compressed[0] ^= 0x55;
+        assertEquals(-1, Decode.lzfse_decoded_size(LittleEndianByteBuffer.wrap(compressed), compressed.length));
+    }
+
+    @Test
+    void decode_reports_missing_bytes() throws IOException {
+        final byte[] bytes = sample(1_000_000);
+        final byte[] compressed = compress(bytes, 100_003);
+        for (int missing : new int[]{1, 1000, bytes.length}) {
+            final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length - missing);
+            assertEquals(-missing, Decode.lzfse_decode_buffer(dst, dst.capacity(), LittleEndianByteBuffer.wrap(compressed), compressed.length));
+        }
+        // Unknown when the stream is truncated after the end of DST
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(1000);
+        assertEquals(-1, Decode.lzfse_decode_buffer(dst, dst.capacity(), LittleEndianByteBuffer.wrap(compressed), compressed.length - 4));
+    }
+}
@@ -0,0 +1,189 @@
+package lzfse;
+
+import lzfse.InternalStateObjects.lzfse_decoder_state;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static lzfse.DecodeBase.lzfse_decode;
+import static lzfse.Internal.LZFSE_STATUS_DST_FULL;
+import static lzfse.Internal.LZFSE_STATUS_ERROR;
+import static lzfse.Internal.LZFSE_STATUS_OK;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_ENDOFSTREAM_BLOCK_MAGIC;
+import static lzfse.InternalBlockHeaderObjects.LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC;
+import static lzfse.LzfseStreamTest.decode_buffer;
+import static lzfse.LzfseStreamTest.sample;
+import static lzfse.Tunables.LZFSE_ENCODE_LZVN_THRESHOLD;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LzvnTest {
+
+    //  Text with long repeats, and short runs of noise.
+    static byte[] repetitive(final int size) {
+        final Random random = new Random(size);
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i % 13 < 5 ? 'a' + i % 7 : random.nextInt(4));
+        }
+        return bytes;
+    }
+
+    static byte[] encode(final byte[] bytes) {
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length + 64);
+        final long n = Encode.lzfse_encode_buffer(dst, dst.capacity(), LittleEndianByteBuffer.wrap(bytes), bytes.length);
+        return Arrays.copyOf(dst.array(), (int) n);
+    }
+
+    @Test
+    void small_inputs_use_lzvn_blocks() {
+        for (int size : new int[]{200, 500, 1000, 2000, LZFSE_ENCODE_LZVN_THRESHOLD - 1}) {
+            final byte[] bytes = repetitive(size);
+            final byte[] encoded = encode(bytes);
+
+            assertEquals(LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC, LittleEndianByteBuffer.wrap(encoded).getInt(0));
+            assertTrue(encoded.length < size, "no compression for " + size + " bytes");
+            assertArrayEquals(bytes, decode_buffer(encoded, size));
+        }
+    }
+
+    @Test
+    void round_trip_below_threshold() {
+        final Random random = new Random(42);
+        for (int size = 0; size < LZFSE_ENCODE_LZVN_THRESHOLD + 64; size += 1 + random.nextInt(197)) {
+            final byte[] noise = new byte[size];
+            random.nextBytes(noise);
+            for (byte[] bytes : new byte[][]{sample(size), repetitive(size), noise, new byte[size]}) {
+                assertArrayEquals(bytes, decode_buffer(encode(bytes), size));
+            }
+        }
+    }
+
+    @Test
+    void decode_resumes_when_dst_full() {
+        final byte[] bytes = repetitive(3000);
+        final byte[] encoded = encode(bytes);
+        assertEquals(LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC, LittleEndianByteBuffer.wrap(encoded).getInt(0));
+
+        // Grow DST a few bytes at a time, so literals and matches are cut
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length);
+        final lzfse_decoder_state s = new lzfse_decoder_state();
+        s.src = LittleEndianByteBuffer.wrap(encoded);
+        s.src_end = encoded.length;
+        s.dst = dst;
+        s.dst_end = 0;
+        int status;
+        while ((status = lzfse_decode(s)) == LZFSE_STATUS_DST_FULL) {
+            s.dst_end = Math.min(s.dst_end + 7, bytes.length);
+        }
+        assertEquals(LZFSE_STATUS_OK, status);
+        assertEquals(1, s.end_of_stream);
+        assertArrayEquals(bytes, dst.array());
+    }
+
+    //  Append literal L, then a match of M bytes at distance D, to OUT.
+    private static void lmd(final java.io.ByteArrayOutputStream out, final String L, final int M, final int D) {
+        out.writeBytes(L.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        for (int i = 0; i < M; i++) {
+            final byte[] so_far = out.toByteArray();
+            out.write(so_far[so_far.length - D]);
+        }
+    }
+
+    //  Wrap PAYLOAD in a LZVN block header, followed by an end-of-stream block.
+    private static byte[] lzvn_block(final int n_raw_bytes, final byte[] payload) {
+        final ByteBuffer b = LittleEndianByteBuffer.allocate(12 + payload.length + 4);
+        b.putInt(LZFSE_COMPRESSEDLZVN_BLOCK_MAGIC).putInt(n_raw_bytes).putInt(payload.length);
+        b.put(payload).putInt(LZFSE_ENDOFSTREAM_BLOCK_MAGIC);
+        return b.array();
+    }
+
+    @Test
+    void decode_every_opcode() {
+        final String lit16 = "0123456789ABCDEF";
+        final java.io.ByteArrayOutputStream payload = new java.io.ByteArrayOutputStream();
+        final java.io.ByteArrayOutputStream expected = new java.io.ByteArrayOutputStream();
+        payload.write(0xE8);                                        // sml_l L=8
+        payload.writeBytes("abcdefgh".getBytes());
+        lmd(expected, "abcdefgh", 0, 0);
+        payload.writeBytes(new byte[]{0x00, 0x08});                 // sml_d L=0 M=3 D=8
+        lmd(expected, "", 3, 8);
+        payload.write(0x0E);                                        // nop
+        payload.writeBytes(new byte[]{0x4E, 'x'});                  // pre_d L=1 M=4
+        lmd(expected, "x", 4, 8);
+        payload.write(0xF5);                                        // sml_m M=5
+        lmd(expected, "", 5, 8);
+        payload.writeBytes(new byte[]{(byte) 0xF0, 0x04});          // lrg_m M=20
+        lmd(expected, "", 20, 8);
+        payload.writeBytes(new byte[]{(byte) 0xE0, 0x00});          // lrg_l L=16
+        payload.writeBytes(lit16.getBytes());
+        lmd(expected, lit16, 0, 0);
+        payload.writeBytes(new byte[]{(byte) 0x87, 20, 0, 'y', 'z'}); // lrg_d L=2 M=3 D=20
+        lmd(expected, "yz", 3, 20);
+        payload.writeBytes(new byte[]{(byte) 0xA9, 0x43, 0x00, 'w'}); // med_d L=1 M=10 D=16
+        lmd(expected, "w", 10, 16);
+        payload.writeBytes(new byte[]{0x06, 0, 0, 0, 0, 0, 0, 0});  // eos
+
+        final byte[] bytes = expected.toByteArray();
+        final byte[] encoded = lzvn_block(bytes.length, payload.toByteArray());
+        assertArrayEquals(bytes, decode_buffer(encoded, bytes.length));
+
+        // Same, one byte of DST at a time: every instruction goes through the careful path
+        final ByteBuffer dst = LittleEndianByteBuffer.allocate(bytes.length);
+        final lzfse_decoder_state s = new lzfse_decoder_state();
+        s.src = LittleEndianByteBuffer.wrap(encoded);
+        s.src_end = encoded.length;
+        s.dst = dst;
+        s.dst_end = 0;
+        int status;
+        while ((status = lzfse_decode(s)) == LZFSE_STATUS_DST_FULL) {
+            s.dst_end++;
+        }
+        assertEquals(LZFSE_STATUS_OK, status);
+        assertArrayEquals(bytes, dst.array());
+    }
+
+    @Test
+    void decode_rejects_invalid_instructions() {
+        final byte[][] payloads = {
+                {(byte) 0xF5, 0x06, 0, 0, 0, 0, 0, 0, 0},           // match before any distance
+                {0x1E, 0x06, 0, 0, 0, 0, 0, 0, 0},                  // undefined opcode
+                {(byte) 0xE2, 'a', 'b', 0x00, 0x03, 0x06, 0, 0, 0, 0, 0, 0, 0}, // distance past the output
+                {(byte) 0xE4, 'a', 'b'},                            // literal cut by the end of the block
+        };
+        for (byte[] payload : payloads) {
+            assertEquals(0, decode_buffer(lzvn_block(16, payload), 16).length);
+        }
+    }
+
+    @Test
+    void decode_rejects_opcodes_d0_to_df() {
+        // Undefined in LZVN, although they look like sml_d, pre_d and lrg_d with L=3:
+        // each one is placed where that instruction would decode fine
+        for (int opcode = 0xD0; opcode <= 0xDF; opcode++) {
+            final java.io.ByteArrayOutputStream payload = new java.io.ByteArrayOutputStream();
+            payload.write(0xE8);                                    // sml_l L=8
+            payload.writeBytes("abcdefgh".getBytes());
+            payload.writeBytes(new byte[]{0x00, 0x01});             // sml_d L=0 M=3 D=1
+            payload.write(opcode);
+            if ((opcode & 7) == 7)
+                payload.writeBytes(new byte[]{0x01, 0x00});         // as lrg_d D=1
+            else if ((opcode & 7) != 6)
+                payload.write(0x01);                                // as sml_d D=1
+            payload.writeBytes("xyz".getBytes());
+            payload.writeBytes(new byte[]{0x06, 0, 0, 0, 0, 0, 0, 0}); // eos
+            final int n_raw_bytes = 8 + 3 + 3 + ((opcode >> 3) & 7) + 3;
+
+            final byte[] encoded = lzvn_block(n_raw_bytes, payload.toByteArray());
+            final lzfse_decoder_state s = new lzfse_decoder_state();
+            s.src = LittleEndianByteBuffer.wrap(encoded);
+            s.src_end = encoded.length;
+            s.dst = LittleEndianByteBuffer.allocate(n_raw_bytes);
+            s.dst_end = n_raw_bytes;
+            assertEquals(LZFSE_STATUS_ERROR, lzfse_decode(s), Integer.toHexString(opcode));
+        }
+    }
+}